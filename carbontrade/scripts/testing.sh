@@ -129,7 +129,7 @@ test_endpoint "Mining: Health Check" "200" \
 
 # Upload CSV (replace with a test CSV path if available, or skip if file missing)
 if [ -f "test_data.csv" ]; then
-  test_endpoint "Mining: Upload CSV" "200" \
+  test_endpoint "Mining: Upload CSV" "202" \
     -F "file=@test_data.csv" "$BASE/mining/ingest"
 else
   echo "⚠ SKIP: Mining Upload (test_data.csv not found)"
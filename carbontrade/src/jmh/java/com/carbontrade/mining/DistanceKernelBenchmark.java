@@ -0,0 +1,98 @@
+package com.carbontrade.mining;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest-centroid anomaly scores for a block of feature rows: the previous
+ * loop (square root per centroid) against {@link DistanceKernels}' scalar and
+ * SIMD paths, which compare squared distances and take one square root per
+ * row. Columns cover a bare daily row, one with a typical category space,
+ * and a wide one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Dmining.vector=true"})
+public class DistanceKernelBenchmark {
+
+    static final int ROWS = 10_000;
+
+    @Param({"8", "24", "64"})
+    public int columns;
+
+    @Param({"4", "10"})
+    public int k;
+
+    private double[] data;
+    private double[][] centroids;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        Random random = new Random(42);
+        data = new double[ROWS * columns];
+        for (int x = 0; x < data.length; x++) {
+            data[x] = random.nextGaussian() * 10;
+        }
+        centroids = new double[k][columns];
+        for (double[] centroid : centroids) {
+            for (int j = 0; j < columns; j++) {
+                centroid[j] = random.nextGaussian() * 10;
+            }
+        }
+    }
+
+    @Benchmark
+    public void previousLoop(Blackhole bh) {
+        for (int i = 0; i < ROWS; i++) {
+            int offset = i * columns;
+            double minDistance = Double.MAX_VALUE;
+            for (double[] centroid : centroids) {
+                double distance = 0;
+                for (int j = 0; j < centroid.length; j++) {
+                    double d = data[offset + j] - centroid[j];
+                    distance += d * d;
+                }
+                minDistance = Math.min(minDistance, Math.sqrt(distance));
+            }
+            bh.consume(minDistance);
+        }
+    }
+
+    @Benchmark
+    public void scalarKernel(Blackhole bh) {
+        for (int i = 0; i < ROWS; i++) {
+            int offset = i * columns;
+            double best = Double.MAX_VALUE;
+            for (double[] centroid : centroids) {
+                best = Math.min(best, DistanceKernels.scalarSquaredDistance(data, offset, centroid, 0, columns));
+            }
+            bh.consume(Math.sqrt(best));
+        }
+    }
+
+    @Benchmark
+    public void vectorKernel(Blackhole bh) {
+        for (int i = 0; i < ROWS; i++) {
+            int offset = i * columns;
+            double best = Double.MAX_VALUE;
+            for (double[] centroid : centroids) {
+                best = Math.min(best, VectorKernels.squaredDistance(data, offset, centroid, 0, columns));
+            }
+            bh.consume(Math.sqrt(best));
+        }
+    }
+
+    /** What MiningService runs: the vector path, as the fork opts in to it. */
+    @Benchmark
+    public void anomalyScore(Blackhole bh) {
+        for (int i = 0; i < ROWS; i++) {
+            bh.consume(MiningService.calculateAnomalyScore(data, i * columns, centroids));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.carbontrade.mining;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode throughput of the CSV ingest path against the CTFB binary format.
+ * Scores are rows/sec (one operation = one row); no database is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(IngestFormatBenchmark.ROWS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestFormatBenchmark {
+
+    static final int ROWS = 200_000;
+
+    private static final String[][] CATEGORIES = {
+            {"electricity", "kWh"}, {"car", "km"}, {"flight", "km"}, {"heating", "kWh"}};
+
+    private Path csv;
+    private Path binary;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        csv = Files.createTempFile("bench-", ".csv");
+        binary = Files.createTempFile("bench-", ".ctfb");
+
+        Random random = new Random(42);
+        LocalDate start = LocalDate.of(2023, 1, 1);
+        try (BufferedWriter w = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            w.write("userId,date,category,amount,unit,emissionFactor\n");
+            for (int i = 0; i < ROWS; i++) {
+                String[] c = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                String ef = random.nextBoolean() ? "" : String.valueOf(0.1 + random.nextDouble());
+                w.write((1 + random.nextInt(500)) + "," + start.plusDays(random.nextInt(730)) + "," + c[0] + ","
+                        + (random.nextDouble() * 100) + "," + c[1] + "," + ef + "\n");
+            }
+        }
+        BinaryFootprintFormat.convertCsv(csv, binary);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(csv);
+        Files.deleteIfExists(binary);
+    }
+
+    @Benchmark
+    public void csv(Blackhole bh) throws IOException {
+        try (CSVParser parser = CSVFormat.DEFAULT.withFirstRecordAsHeader()
+                .parse(Files.newBufferedReader(csv, StandardCharsets.UTF_8))) {
+            for (CSVRecord r : parser) {
+                bh.consume(IngestionService.toFootprint(r));
+            }
+        }
+    }
+
+    @Benchmark
+    public void binary(Blackhole bh) throws IOException {
+        try (BinaryFootprintFormat.Reader reader = new BinaryFootprintFormat.Reader(binary)) {
+            while (reader.hasNext()) {
+                bh.consume(reader.next());
+            }
+        }
+    }
+}
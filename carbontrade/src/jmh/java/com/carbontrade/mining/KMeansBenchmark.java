@@ -0,0 +1,85 @@
+package com.carbontrade.mining;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.tribuo.MutableDataset;
+import org.tribuo.clustering.ClusterID;
+import org.tribuo.clustering.ClusteringFactory;
+import org.tribuo.clustering.kmeans.KMeansTrainer;
+import org.tribuo.impl.ArrayExample;
+import org.tribuo.math.distance.L2Distance;
+import org.tribuo.provenance.SimpleDataSourceProvenance;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to cluster a feature matrix with the built-in {@link KMeans} (serial
+ * and parallel) against Tribuo's trainer, including Tribuo's dataset
+ * conversion since MiningService pays for it too. Data is a mixture of
+ * Gaussian blobs with the column count of a typical daily feature row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class KMeansBenchmark {
+
+    static final int COLUMNS = 10;
+    static final int K = 4;
+    static final int ITERATIONS = 100;
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private double[] data;
+    private String[] names;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        Random random = new Random(42);
+        double[][] centres = new double[K * 2][COLUMNS];
+        for (double[] centre : centres) {
+            for (int j = 0; j < COLUMNS; j++) {
+                centre[j] = random.nextDouble() * 50;
+            }
+        }
+        data = new double[rows * COLUMNS];
+        for (int i = 0; i < rows; i++) {
+            double[] centre = centres[random.nextInt(centres.length)];
+            for (int j = 0; j < COLUMNS; j++) {
+                data[i * COLUMNS + j] = centre[j] + random.nextGaussian() * 4;
+            }
+        }
+        names = new String[COLUMNS];
+        Arrays.setAll(names, j -> "f" + j);
+    }
+
+    @Benchmark
+    public KMeans.Result nativeSerial() {
+        return KMeans.fit(data, rows, COLUMNS, K, ITERATIONS, 42L, false);
+    }
+
+    @Benchmark
+    public KMeans.Result nativeParallel() {
+        return KMeans.fit(data, rows, COLUMNS, K, ITERATIONS, 42L, true);
+    }
+
+    @Benchmark
+    public void tribuo(Blackhole bh) {
+        ClusteringFactory factory = new ClusteringFactory();
+        MutableDataset<ClusterID> dataset = new MutableDataset<>(
+                new SimpleDataSourceProvenance("bench", OffsetDateTime.now(), factory), factory);
+        for (int i = 0; i < rows; i++) {
+            dataset.add(new ArrayExample<>(new ClusterID(0), names,
+                    Arrays.copyOfRange(data, i * COLUMNS, (i + 1) * COLUMNS)));
+        }
+        KMeansTrainer trainer = new KMeansTrainer(K, ITERATIONS, new L2Distance(),
+                KMeansTrainer.Initialisation.RANDOM, Runtime.getRuntime().availableProcessors(), 42L);
+        bh.consume(trainer.train(dataset));
+    }
+}
@@ -0,0 +1,165 @@
+package com.carbontrade.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request throughput of the blocking paths behind the API on platform threads
+ * (a pool the size of Tomcat's default 200) against one virtual thread per
+ * request, which is what {@code spring.threads.virtual.enabled=true} gives.
+ * One operation is {@link #REQUESTS} concurrent requests; scores are
+ * requests/sec.
+ * <ul>
+ * <li>{@code smtp}: a 20 ms network wait, like the verification mail.</li>
+ * <li>{@code kyc}: a 256 KiB upload written to disk.</li>
+ * <li>{@code sqlite}: a range sum through a single sqlite-jdbc connection
+ * handed out by a pool of one, as the app runs SQLite.</li>
+ * <li>{@code sqlite-shared}: the same query with no pool, so requests meet on
+ * the driver's {@code synchronized} natives, which pin virtual threads.
+ * Add {@code -jvmArgsAppend -Djdk.tracePinnedThreads=short} to see where.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BlockingIoBenchmark.REQUESTS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockingIoBenchmark {
+
+    static final int REQUESTS = 1_000;
+
+    private static final int PLATFORM_THREADS = 200; // server.tomcat.threads.max default
+    private static final int SMTP_MILLIS = 20;
+    private static final int UPLOAD_BYTES = 256 * 1024;
+    private static final int DAYS = 100_000;
+    private static final int RANGE = 365;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"smtp", "kyc", "sqlite", "sqlite-shared"})
+    public String load;
+
+    private ExecutorService executor;
+    private Path database;
+    private Connection connection;
+    private final Semaphore pool = new Semaphore(1, true);
+    private Path upload;
+    private Path uploads;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SQLException {
+        executor = "virtual".equals(threads)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+
+        database = Files.createTempFile("bench-", ".db");
+        connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+        try (Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE daily (id INTEGER PRIMARY KEY, kg REAL NOT NULL)");
+        }
+        Random random = new Random(42);
+        connection.setAutoCommit(false);
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO daily (id, kg) VALUES (?, ?)")) {
+            for (int i = 0; i < DAYS; i++) {
+                ps.setInt(1, i);
+                ps.setDouble(2, random.nextDouble() * 50);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        byte[] bytes = new byte[UPLOAD_BYTES];
+        random.nextBytes(bytes);
+        upload = Files.write(Files.createTempFile("bench-", ".upload"), bytes);
+        uploads = Files.createTempDirectory("bench-kyc-");
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException, SQLException {
+        executor.shutdownNow();
+        connection.close();
+        Files.deleteIfExists(database);
+        Files.deleteIfExists(upload);
+        try (var stored = Files.list(uploads)) {
+            for (Path p : stored.toList()) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(uploads);
+    }
+
+    @Benchmark
+    public long requests() throws Exception {
+        List<Future<Long>> pending = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            int request = i;
+            pending.add(executor.submit(() -> handle(request)));
+        }
+        long total = 0;
+        for (Future<Long> f : pending) {
+            total += f.get();
+        }
+        return total;
+    }
+
+    private long handle(int request) throws Exception {
+        switch (load) {
+            case "smtp" -> {
+                Thread.sleep(SMTP_MILLIS);
+                return request;
+            }
+            case "kyc" -> {
+                Path target = uploads.resolve(request + ".upload");
+                Files.copy(upload, target, StandardCopyOption.REPLACE_EXISTING);
+                return Files.size(target);
+            }
+            case "sqlite" -> {
+                pool.acquire();
+                try {
+                    return query(request);
+                } finally {
+                    pool.release();
+                }
+            }
+            case "sqlite-shared" -> {
+                return query(request);
+            }
+            default -> throw new IllegalArgumentException("Unknown load " + load);
+        }
+    }
+
+    private long query(int request) throws SQLException {
+        int from = (int) ((request * 7919L) % (DAYS - RANGE));
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT SUM(kg) FROM daily WHERE id BETWEEN ? AND ?")) {
+            ps.setInt(1, from);
+            ps.setInt(2, from + RANGE - 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? (long) rs.getDouble(1) : 0;
+            }
+        }
+    }
+}
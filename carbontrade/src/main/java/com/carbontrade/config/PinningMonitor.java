@@ -0,0 +1,101 @@
+package com.carbontrade.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs virtual threads that stay pinned to their carrier, from the JFR
+ * {@code jdk.VirtualThreadPinned} event. On Java 21 a virtual thread that
+ * blocks inside {@code synchronized} or a native frame holds its carrier;
+ * sqlite-jdbc does both on every call, and enough pinned request threads
+ * starve the carrier pool. Each call site is logged on its 1st, 2nd, 4th,
+ * 8th... occurrence, with the count. Only active with
+ * {@code spring.threads.virtual.enabled=true}.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class PinningMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(PinningMonitor.class);
+
+    private static final String EVENT = "jdk.VirtualThreadPinned";
+    private static final int SITE_FRAMES = 6;
+
+    private final Duration threshold;
+    private final Map<String, AtomicLong> sites = new ConcurrentHashMap<>();
+    private RecordingStream stream;
+
+    public PinningMonitor(@Value("${app.threads.pinning-threshold-ms:20}") long thresholdMillis) {
+        this.threshold = Duration.ofMillis(thresholdMillis);
+    }
+
+    @PostConstruct
+    public void start() {
+        stream = new RecordingStream();
+        stream.enable(EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(EVENT, this::onPinned);
+        stream.startAsync();
+        log.info("Watching for virtual threads pinned longer than {} ms", threshold.toMillis());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        String site = site(event.getStackTrace());
+        long count = sites.computeIfAbsent(site, s -> new AtomicLong()).incrementAndGet();
+        if (Long.bitCount(count) == 1) {
+            log.warn("Virtual thread {} pinned for {} ms (x{} at this site): {}",
+                    event.getThread() != null ? event.getThread().getJavaName() : "?",
+                    event.getDuration().toMillis(), count, site);
+        }
+    }
+
+    // The blocking JDK call and the frames that led to it; the park machinery above it is the same for every pin
+    private static String site(RecordedStackTrace stack) {
+        if (stack == null) {
+            return "(no stack)";
+        }
+        List<RecordedFrame> frames = stack.getFrames();
+        int first = 0;
+        while (first < frames.size() - 1 && isJdk(frames.get(first + 1))) {
+            first++;
+        }
+        StringBuilder site = new StringBuilder();
+        for (int i = first; i < Math.min(first + SITE_FRAMES, frames.size()); i++) {
+            RecordedFrame frame = frames.get(i);
+            if (i > first) {
+                site.append(" <- ");
+            }
+            site.append(frame.getMethod().getType().getName()).append('.').append(frame.getMethod().getName());
+            if (frame.getLineNumber() > 0) {
+                site.append(':').append(frame.getLineNumber());
+            }
+        }
+        return site.toString();
+    }
+
+    private static boolean isJdk(RecordedFrame frame) {
+        String type = frame.getMethod().getType().getName();
+        return type.startsWith("java.") || type.startsWith("jdk.") || type.startsWith("sun.");
+    }
+}
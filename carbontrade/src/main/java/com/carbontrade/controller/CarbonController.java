@@ -1,6 +1,8 @@
 package com.carbontrade.controller;
 
+import com.carbontrade.mining.EmissionFactorRegistry;
 import com.carbontrade.model.CarbonFootprint;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import java.time.LocalDate;
@@ -12,35 +14,39 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 public class CarbonController {
 
+    @Autowired
+    private EmissionFactorRegistry emissionFactors;
+
     @PostMapping("/calculate")
     public ResponseEntity<Map<String, Object>> calculateFootprint(@RequestBody Map<String, Object> request) {
         Double electricity = Double.valueOf(request.get("electricity").toString());
         Double travel = Double.valueOf(request.get("travel").toString());
         Integer dietType = Integer.valueOf(request.get("dietType").toString());
+        LocalDate today = LocalDate.now();
         
         // Create three separate footprint entries for different categories
         CarbonFootprint electricityFootprint = new CarbonFootprint();
         electricityFootprint.setCategory("ELECTRICITY");
         electricityFootprint.setAmount(electricity);
         electricityFootprint.setUnit("kWh");
-        electricityFootprint.setEmissionFactor(0.5); // kg CO2 per kWh
-        electricityFootprint.setDate(LocalDate.now());
+        electricityFootprint.setEmissionFactor(emissionFactors.factor("electricity", today)); // kg CO2 per kWh
+        electricityFootprint.setDate(today);
         electricityFootprint.calculateKgCO2e();
         
         CarbonFootprint travelFootprint = new CarbonFootprint();
         travelFootprint.setCategory("TRAVEL");
         travelFootprint.setAmount(travel);
         travelFootprint.setUnit("km");
-        travelFootprint.setEmissionFactor(0.2); // kg CO2 per km
-        travelFootprint.setDate(LocalDate.now());
+        travelFootprint.setEmissionFactor(emissionFactors.factor("car", today)); // kg CO2 per km
+        travelFootprint.setDate(today);
         travelFootprint.calculateKgCO2e();
         
         CarbonFootprint dietFootprint = new CarbonFootprint();
         dietFootprint.setCategory("DIET");
         dietFootprint.setAmount(dietType.doubleValue());
         dietFootprint.setUnit("type");
-        dietFootprint.setEmissionFactor(100.0); // kg CO2 per type level
-        dietFootprint.setDate(LocalDate.now());
+        dietFootprint.setEmissionFactor(emissionFactors.factor("diet", today)); // kg CO2 per type level
+        dietFootprint.setDate(today);
         dietFootprint.calculateKgCO2e();
         
         double totalKgCO2e = electricityFootprint.getKgCO2e() + 
@@ -63,8 +69,9 @@ public class CarbonController {
     public ResponseEntity<Map<String, String>> getInfo() {
         Map<String, String> info = new HashMap<>();
         info.put("message", "Carbon Footprint Calculator API");
-        info.put("electricityFactor", "0.5 kg CO2 per kWh");
-        info.put("travelFactor", "0.2 kg CO2 per km");
+        LocalDate today = LocalDate.now();
+        info.put("electricityFactor", emissionFactors.factor("electricity", today) + " kg CO2 per kWh");
+        info.put("travelFactor", emissionFactors.factor("car", today) + " kg CO2 per km");
         info.put("dietTypes", "1=Vegan, 2=Vegetarian, 3=Meat-eater");
         return ResponseEntity.ok(info);
     }
@@ -1,17 +1,48 @@
 package com.carbontrade.controller;
 
+import com.carbontrade.mining.AnomalyEventService;
+import com.carbontrade.mining.EmissionFactorService;
+import com.carbontrade.mining.FeatureCache;
+import com.carbontrade.mining.IngestJobService;
 import com.carbontrade.mining.IngestionService;
+import com.carbontrade.mining.MiningExecutor;
 import com.carbontrade.mining.MiningService;
+import com.carbontrade.mining.dto.CacheStats;
+import com.carbontrade.mining.dto.IngestJobStatus;
+import com.carbontrade.mining.dto.IngestResult;
 import com.carbontrade.mining.dto.Insights;
+import com.carbontrade.mining.dto.MiningExecutorStats;
+import com.carbontrade.model.AnomalyEvent;
+import com.carbontrade.model.EmissionFactor;
+import com.carbontrade.model.IngestJob;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("/mining")
@@ -21,9 +52,27 @@ public class MiningController {
     @Autowired
     private IngestionService ingestionService;
 
+    @Autowired
+    private IngestJobService ingestJobService;
+
     @Autowired
     private MiningService miningService;
 
+    @Autowired
+    private MiningExecutor miningExecutor;
+
+    @Autowired
+    private EmissionFactorService emissionFactorService;
+
+    @Autowired
+    private FeatureCache featureCache;
+
+    @Autowired
+    private AnomalyEventService anomalyEventService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @GetMapping("/health")
     public ResponseEntity<String> health() {
         return ResponseEntity.ok("Mining subsystem operational");
@@ -31,7 +80,8 @@ public class MiningController {
 
     @PostMapping("/ingest")
     public ResponseEntity<Map<String, Object>> ingestCarbonData(
-            @RequestParam(value = "file", required = false) MultipartFile file) {
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "mode", defaultValue = "async") String mode) {
 
         Map<String, Object> response = new HashMap<>();
 
@@ -42,29 +92,408 @@ public class MiningController {
         }
 
         try {
-            int recordsProcessed = ingestionService.importCsv(file);
+            if ("async".equalsIgnoreCase(mode)) {
+                IngestJob job = ingestJobService.submit(file);
+                response.put("success", true);
+                response.put("jobId", job.getId());
+                response.put("status", job.getStatus().name());
+                if (job.getStatus() == IngestJob.Status.DUPLICATE) {
+                    response.put("duplicateFile", true);
+                    response.put("message", "File was already ingested; nothing to do");
+                    return ResponseEntity.ok(response);
+                }
+                response.put("statusUrl", "/mining/ingest/" + job.getId());
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+            }
+
+            String contentHash = ingestionService.contentHash(file);
+            if (ingestionService.findIngestedFile(contentHash).isPresent()) {
+                response.put("success", true);
+                response.put("recordsProcessed", 0);
+                response.put("duplicateFile", true);
+                response.put("message", "File was already ingested; nothing to do");
+                return ResponseEntity.ok(response);
+            }
+
+            IngestResult result = "bulk".equalsIgnoreCase(mode)
+                    ? ingestionService.bulkLoad(file)
+                    : ingestionService.importCsv(file);
+            ingestionService.recordIngestedFile(contentHash, file.getOriginalFilename(),
+                    result.getRowsLoaded(), result.getDuplicatesSkipped());
+
+            response.put("success", true);
+            response.put("recordsProcessed", result.getRowsLoaded());
+            response.put("duplicatesSkipped", result.getDuplicatesSkipped());
+            response.put("elapsedMs", result.getElapsedMs());
+            response.put("rowsPerSecond", result.getRowsPerSecond());
+            response.put("message", "Successfully processed " + result.getRowsLoaded() + " records");
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * Raw request body instead of multipart (e.g. {@code curl --data-binary @data.csv.gz}).
+     * Nothing is spooled: plain, gzip or zstd content streams straight into the bulk pipeline.
+     */
+    @PostMapping("/ingest/stream")
+    public ResponseEntity<Map<String, Object>> ingestStream(HttpServletRequest request,
+            @RequestParam(value = "name", required = false) String name) {
+
+        Map<String, Object> response = new HashMap<>();
+        try {
+            IngestResult result = ingestionService.bulkLoadStream(request.getInputStream(), name);
+
+            response.put("success", true);
+            response.put("recordsProcessed", result.getRowsLoaded());
+            response.put("duplicatesSkipped", result.getDuplicatesSkipped());
+            response.put("elapsedMs", result.getElapsedMs());
+            response.put("rowsPerSecond", result.getRowsPerSecond());
+            response.put("message", "Successfully processed " + result.getRowsLoaded() + " records");
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    @GetMapping("/ingest/{jobId}")
+    public ResponseEntity<IngestJobStatus> ingestStatus(@PathVariable String jobId) {
+        return ingestJobService.status(jobId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @PostMapping("/ingest/{jobId}/resume")
+    public ResponseEntity<Map<String, Object>> resumeIngest(@PathVariable String jobId) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            return ingestJobService.resume(jobId)
+                    .map(job -> {
+                        response.put("success", true);
+                        response.put("jobId", job.getId());
+                        response.put("resumeFrom", job.getRowsCommitted());
+                        return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+                    })
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (IllegalStateException e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        }
+    }
+
+    @PostMapping("/rollup/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildRollup(
+            @RequestParam(value = "userId", required = false) Long userId) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            int rows = ingestionService.rebuildRollup(userId);
             response.put("success", true);
-            response.put("recordsProcessed", recordsProcessed);
-            response.put("message", "Successfully processed " + recordsProcessed + " records");
+            response.put("rollupRows", rows);
+            response.put("message", "Rebuilt daily rollup" + (userId != null ? " for user " + userId : ""));
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("error", e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    @GetMapping("/factors")
+    public ResponseEntity<List<EmissionFactor>> factors() {
+        return ResponseEntity.ok(emissionFactorService.list());
+    }
+
+    /**
+     * Body: {"factor": 0.4, "unit": "kWh", "effectiveFrom": "2024-01-01"}; unit and effectiveFrom are optional.
+     */
+    @PutMapping("/factors/{category}")
+    public ResponseEntity<Map<String, Object>> setFactor(@PathVariable String category,
+            @RequestBody Map<String, Object> request) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            double factor = Double.parseDouble(String.valueOf(request.get("factor")));
+            String unit = request.get("unit") != null ? request.get("unit").toString() : null;
+            LocalDate effectiveFrom = request.get("effectiveFrom") != null
+                    ? LocalDate.parse(request.get("effectiveFrom").toString())
+                    : null;
+
+            EmissionFactor saved = emissionFactorService.setFactor(category, factor, unit, effectiveFrom);
+            response.put("success", true);
+            response.put("category", saved.getCategory());
+            response.put("version", saved.getVersion());
+            response.put("message", "Factor published; affected rows are being recomputed");
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * Body: {"userIds": [1, 2] or "all", "start": "2024-01-01", "end": "2024-12-31", "k": 4 or "auto",
+     * "trends": false}.
+     * Streams one JSON line per user as each analysis finishes.
+     */
+    @PostMapping("/analyze/batch")
+    public ResponseEntity<?> analyzeBatch(@RequestBody Map<String, Object> request) {
+        List<Long> userIds;
+        LocalDate start;
+        LocalDate end;
+        int k;
+        boolean trends;
+        try {
+            userIds = parseUserIds(request.get("userIds"));
+            start = LocalDate.parse(String.valueOf(request.get("start")));
+            end = LocalDate.parse(String.valueOf(request.get("end")));
+            k = request.get("k") != null ? parseK(request.get("k").toString()) : 4;
+            trends = Boolean.parseBoolean(String.valueOf(request.get("trends")));
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(0L); // no timeout: a full run takes minutes
+        CompletableFuture<Void> job;
+        try {
+            job = miningService.analyzeBatchAsync(userIds, start, end, k, trends, result -> {
+                try {
+                    byte[] json = objectMapper.writeValueAsBytes(result);
+                    byte[] line = Arrays.copyOf(json, json.length + 1);
+                    line[json.length] = '\n';
+                    emitter.send(line, MediaType.APPLICATION_NDJSON);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return busy();
+        }
+        job.whenComplete((done, error) -> {
+            if (error == null) {
+                emitter.complete();
+            } else {
+                emitter.completeWithError(error);
+            }
+        });
+        emitter.onError(e -> job.cancel(true));
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+    }
+
+    // "auto" or a positive cluster count
+    private static int parseK(String value) {
+        if ("auto".equalsIgnoreCase(value.trim())) {
+            return MiningService.AUTO_K;
+        }
+        int k = Integer.parseInt(value.trim());
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1 or \"auto\"");
+        }
+        return k;
+    }
+
+    // null for "all", otherwise the listed ids
+    private static List<Long> parseUserIds(Object value) {
+        if ("all".equals(value)) {
+            return null;
+        }
+        if (!(value instanceof List<?> list)) {
+            throw new IllegalArgumentException("userIds must be a list of ids or \"all\"");
+        }
+        List<Long> ids = new ArrayList<>(list.size());
+        for (Object id : list) {
+            ids.add(Long.parseLong(String.valueOf(id)));
+        }
+        return ids;
+    }
+
+    /**
+     * Anomaly events recorded as ingests commit, oldest first. Pass the
+     * returned {@code next} as {@code after} to poll for newer ones.
+     */
+    @GetMapping("/anomalies/feed")
+    public ResponseEntity<Map<String, Object>> anomalyFeed(
+            @RequestParam(required = false) Long userId,
+            @RequestParam(defaultValue = "0") long after,
+            @RequestParam(defaultValue = "100") int limit) {
+        Map<String, Object> response = new HashMap<>();
+        if (limit < 1 || limit > 1000) {
+            response.put("success", false);
+            response.put("error", "limit must be between 1 and 1000");
             return ResponseEntity.badRequest().body(response);
         }
+        List<AnomalyEvent> events = anomalyEventService.feed(userId, after, limit);
+        response.put("success", true);
+        response.put("events", events);
+        response.put("next", events.isEmpty() ? after : events.get(events.size() - 1).getId());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/cache/stats")
+    public ResponseEntity<CacheStats> cacheStats() {
+        return ResponseEntity.ok(featureCache.stats());
+    }
+
+    @GetMapping("/executor/stats")
+    public ResponseEntity<MiningExecutorStats> executorStats() {
+        return ResponseEntity.ok(miningExecutor.stats());
     }
 
     // NEW ENDPOINT
+    /**
+     * {@code mode=minibatch} streams rows from the database instead of building
+     * the matrix in memory; it also accepts no userId, clustering every user's
+     * days together, and rejects {@code trends=true}. In full mode, {@code model} picks how the user's stored
+     * model is used: {@code warm} (default) starts from its centroids,
+     * {@code cold} retrains from a fresh seed, {@code score} only assigns the
+     * rows to it. {@code k=auto} tries k = 2..{@code mining.kselection.max-k}
+     * and keeps the best silhouette (full mode only). Anomalies are the rows
+     * at or above {@code percentile}, at most {@code topN} (0 = all in full
+     * mode, 50 in minibatch mode).
+     * <p>
+     * Runs on the {@link MiningExecutor}: 503 when its queue is full, 504 once
+     * {@code mining.executor.deadline-seconds} passes. Identical concurrent
+     * requests share one run, which is cancelled if every client disconnects.
+     * Full-mode results carry an ETag over the request and the user's data and
+     * model versions; a matching {@code If-None-Match} gets 304 without any
+     * database read, and an unchanged request is answered from the stored
+     * result.
+     */
     @GetMapping("/analyze")
-    public java.util.concurrent.CompletableFuture<ResponseEntity<Insights>> analyze(
-            @RequestParam Long userId,
+    public DeferredResult<ResponseEntity<?>> analyze(
+            @RequestParam(required = false) Long userId,
             @RequestParam String start,
             @RequestParam String end,
-            @RequestParam(defaultValue = "4") int k) {
-        return miningService.analyze(
-                userId,
-                LocalDate.parse(start),
-                LocalDate.parse(end),
-                k).thenApply(ResponseEntity::ok);
+            @RequestParam(defaultValue = "4") String k,
+            @RequestParam(defaultValue = "false") boolean trends,
+            @RequestParam(defaultValue = "full") String mode,
+            @RequestParam(defaultValue = "warm") String model,
+            @RequestParam(defaultValue = "85") double percentile,
+            @RequestParam(defaultValue = "0") int topN,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        int clusters;
+        try {
+            clusters = parseK(k);
+        } catch (IllegalArgumentException e) {
+            return answer(ResponseEntity.badRequest().build());
+        }
+        if (!(percentile >= 0 && percentile <= 100) || topN < 0) {
+            return answer(ResponseEntity.badRequest().build());
+        }
+        if ("minibatch".equalsIgnoreCase(mode)) {
+            // Streamed rows carry no trend columns
+            if (clusters == MiningService.AUTO_K || trends) {
+                return answer(ResponseEntity.badRequest().build());
+            }
+            try {
+                return defer(miningService.analyzeMiniBatch(
+                        userId,
+                        LocalDate.parse(start),
+                        LocalDate.parse(end),
+                        clusters,
+                        new MiningService.AnomalySelection(percentile, topN)));
+            } catch (RejectedExecutionException e) {
+                return answer(busy());
+            }
+        }
+        MiningService.ModelMode modelMode;
+        try {
+            modelMode = MiningService.ModelMode.valueOf(model.trim().toUpperCase(java.util.Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            modelMode = null;
+        }
+        if (userId == null || !"full".equalsIgnoreCase(mode) || modelMode == null) {
+            return answer(ResponseEntity.badRequest().build());
+        }
+        LocalDate from = LocalDate.parse(start);
+        LocalDate to = LocalDate.parse(end);
+        MiningService.AnomalySelection anomalies = new MiningService.AnomalySelection(percentile, topN);
+        String etag = miningService.analysisETag(userId, from, to, clusters, trends, modelMode, anomalies);
+        if (matchesAny(ifNoneMatch, etag)) {
+            return answer(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build());
+        }
+        try {
+            return defer(miningService.analyze(userId, from, to, clusters, trends, modelMode, anomalies));
+        } catch (RejectedExecutionException e) {
+            return answer(busy());
+        }
+    }
+
+    private static DeferredResult<ResponseEntity<?>> answer(ResponseEntity<?> response) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+        result.setResult(response);
+        return result;
+    }
+
+    // No servlet timeout: the executor deadline bounds the wait. A closed connection cancels this caller's share.
+    private static DeferredResult<ResponseEntity<?>> defer(CompletableFuture<Insights> job) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(0L);
+        result.onError(e -> job.cancel(true));
+        // Also runs after a normal answer; only a request that ended before its job cancels it
+        result.onCompletion(() -> {
+            if (!job.isDone()) {
+                job.cancel(true);
+            }
+        });
+        job.whenComplete((insights, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            // A caller that joined a job whose submission was then rejected gets the same 503
+            result.setResult(cause == null ? success(insights)
+                    : cause instanceof RejectedExecutionException ? busy() : failure(cause));
+        });
+        return result;
+    }
+
+    // Stored results carry an ETag; clients revalidate with If-None-Match rather than reuse blindly
+    private static ResponseEntity<Insights> success(Insights insights) {
+        if (insights.getETag() == null) {
+            return ResponseEntity.ok(insights);
+        }
+        return ResponseEntity.ok().eTag(insights.getETag()).cacheControl(CacheControl.noCache()).body(insights);
+    }
+
+    // If-None-Match holds "*" or a list of tags, which may be weak
+    private static boolean matchesAny(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ResponseEntity<Map<String, Object>> failure(Throwable error) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("error", error.getMessage());
+        if (error instanceof TimeoutException) {
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(response);
+        }
+        if (error instanceof CancellationException) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+        }
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+    }
+
+    private static ResponseEntity<Map<String, Object>> busy() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("error", "Mining queue is full, retry later");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "5").body(response);
     }
 }
@@ -0,0 +1,124 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.dto.Insights;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-user data versions, and the last {@link Insights} of each analysis
+ * request, so that a repeated {@code /mining/analyze} is answered without
+ * reading rows or clustering again.
+ * <p>
+ * A user's data version goes up with every commit that touches the user
+ * (changes to every user, such as factor recomputes, move all of them); the
+ * model version goes up with every save of one of the user's cluster models.
+ * A stored result is served while these and the user's category space are
+ * where they were when it was computed. The ETag hashes the request with
+ * those versions and a per-process epoch, since the counters live in memory
+ * and restart at zero.
+ */
+@Component
+public class AnalysisCache implements FootprintCommitListener {
+
+    /**
+     * Everything besides the request that an analysis result depends on.
+     */
+    public record Versions(long data, long model, int categories) {}
+
+    private record Entry(Versions versions, Insights insights) {}
+
+    private final CategoryIndex categoryIndex;
+    private final long epoch = new SecureRandom().nextLong();
+    private final Map<Long, AtomicLong> dataVersions = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicLong> modelVersions = new ConcurrentHashMap<>();
+    // Bumped by changes without a user; part of every user's data version
+    private final AtomicLong everyone = new AtomicLong();
+
+    // Access-ordered LRU
+    private final LinkedHashMap<List<Object>, Entry> entries;
+
+    public AnalysisCache(CategoryIndex categoryIndex,
+            @Value("${mining.analyze.result-cache.max-entries:256}") int maxEntries) {
+        this.categoryIndex = categoryIndex;
+        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public Versions versions(long userId) {
+        return new Versions(everyone.get() + counter(dataVersions, userId).get(),
+                counter(modelVersions, userId).get(), categoryIndex.version(userId));
+    }
+
+    /**
+     * Stored result for the request if it was computed at these versions.
+     */
+    public synchronized Insights get(List<Object> request, Versions versions) {
+        Entry entry = entries.get(request);
+        return entry != null && entry.versions().equals(versions) ? entry.insights() : null;
+    }
+
+    /**
+     * Stores a result computed from data read at {@code before} and sets its
+     * ETag. Nothing is stored if the user's data changed meanwhile. The model
+     * and category versions are taken from after the run, which may itself
+     * have saved a model or extended the category space.
+     */
+    public void put(List<Object> request, long userId, Versions before, Insights insights) {
+        Versions after = versions(userId);
+        if (after.data() != before.data()) {
+            return;
+        }
+        insights.setETag(etag(request, after));
+        synchronized (this) {
+            entries.put(request, new Entry(after, insights));
+        }
+    }
+
+    /**
+     * Quoted strong ETag for the request at these versions.
+     */
+    public String etag(List<Object> request, Versions versions) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((request + "|" + versions + "|" + epoch).getBytes(StandardCharsets.UTF_8));
+            return "\"" + HexFormat.of().formatHex(Arrays.copyOf(digest.digest(), 16)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void modelSaved(long userId) {
+        counter(modelVersions, userId).incrementAndGet();
+    }
+
+    @Override
+    public void afterCommit(List<FootprintChange> changes) {
+        for (FootprintChange change : changes) {
+            if (change.userId() == null) {
+                everyone.incrementAndGet();
+            } else {
+                counter(dataVersions, change.userId()).incrementAndGet();
+            }
+        }
+    }
+
+    private static AtomicLong counter(Map<Long, AtomicLong> versions, long userId) {
+        return versions.computeIfAbsent(userId, u -> new AtomicLong());
+    }
+}
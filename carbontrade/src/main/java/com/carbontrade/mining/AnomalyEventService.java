@@ -0,0 +1,205 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.AnomalyEvent;
+import com.carbontrade.model.ClusterModel;
+import com.carbontrade.repository.AnomalyEventRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Scores days as soon as their footprint is committed, against the user's
+ * latest stored {@link ClusterModelService cluster model}, and records the
+ * days above that model's anomaly threshold in anomaly_event.
+ * <p>
+ * Commit listeners run on the committing thread, so {@link #afterCommit}
+ * only adds the touched days to a per-user pending set; a single background
+ * thread scores them, and a burst of batches for one user is scored once.
+ * Features are rebuilt for the months containing touched days only (month
+ * totals then match what the model was trained on), bypassing the feature
+ * cache, and only the touched days are scored. Changes without a user
+ * (rollup rebuilds, factor recomputes) are not new activity and are skipped;
+ * a change spanning more than {@code mining.anomaly.events.max-days}, such as
+ * an upload of several months, is scored for its last that many days only.
+ */
+@Service
+public class AnomalyEventService implements FootprintCommitListener {
+
+    private static final Logger log = LoggerFactory.getLogger(AnomalyEventService.class);
+
+    private final ClusterModelService clusterModels;
+    private final FeatureEngineeringService featureEngineering;
+    private final AnomalyEventRepository events;
+    private final TransactionTemplate transactions;
+    private final boolean enabled;
+    private final int maxDays;
+    private final ExecutorService scorer;
+
+    // Touched days per user awaiting the scorer; guarded by itself
+    private final Map<Long, TreeSet<LocalDate>> pending = new HashMap<>();
+    private boolean scheduled;
+
+    @Autowired
+    public AnomalyEventService(ClusterModelService clusterModels, FeatureEngineeringService featureEngineering,
+            AnomalyEventRepository events, PlatformTransactionManager transactionManager,
+            @Value("${mining.anomaly.events.enabled:true}") boolean enabled,
+            @Value("${mining.anomaly.events.max-days:31}") int maxDays) {
+        this(clusterModels, featureEngineering, events, transactionManager, enabled, maxDays,
+                Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "anomaly-scorer");
+                    t.setDaemon(true);
+                    return t;
+                }));
+    }
+
+    AnomalyEventService(ClusterModelService clusterModels, FeatureEngineeringService featureEngineering,
+            AnomalyEventRepository events, PlatformTransactionManager transactionManager, boolean enabled,
+            int maxDays, ExecutorService scorer) {
+        this.clusterModels = clusterModels;
+        this.featureEngineering = featureEngineering;
+        this.events = events;
+        this.transactions = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.maxDays = maxDays;
+        this.scorer = scorer;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scorer.shutdownNow();
+    }
+
+    @Override
+    public void afterCommit(List<FootprintChange> changes) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (pending) {
+            for (FootprintChange change : changes) {
+                if (change.userId() == null || change.from() == null || change.to() == null) {
+                    continue;
+                }
+                LocalDate from = clip(change.from(), change.to(), maxDays);
+                TreeSet<LocalDate> days = pending.computeIfAbsent(change.userId(), u -> new TreeSet<>());
+                from.datesUntil(change.to().plusDays(1)).forEach(days::add);
+            }
+            if (!pending.isEmpty() && !scheduled) {
+                scheduled = true;
+                scorer.execute(this::drain);
+            }
+        }
+    }
+
+    // First day to score of a change from..to: the latest maxDays of it
+    static LocalDate clip(LocalDate from, LocalDate to, int maxDays) {
+        LocalDate earliest = to.minusDays(Math.max(maxDays, 1) - 1L);
+        return from.isBefore(earliest) ? earliest : from;
+    }
+
+    /**
+     * Events after {@code afterId} in detection order, optionally for one user.
+     * Pass the last id seen to continue the feed.
+     */
+    public List<AnomalyEvent> feed(Long userId, long afterId, int limit) {
+        PageRequest page = PageRequest.of(0, limit);
+        return userId != null
+                ? events.findByUserIdAndSupersededFalseAndIdGreaterThanOrderByIdAsc(userId, afterId, page)
+                : events.findBySupersededFalseAndIdGreaterThanOrderByIdAsc(afterId, page);
+    }
+
+    private void drain() {
+        while (true) {
+            Map<Long, TreeSet<LocalDate>> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+                batch = new HashMap<>(pending);
+                pending.clear();
+            }
+            batch.forEach((userId, days) -> {
+                try {
+                    score(userId, days);
+                } catch (RuntimeException e) {
+                    log.warn("Could not score committed days of user {}", userId, e);
+                }
+            });
+        }
+    }
+
+    private void score(long userId, TreeSet<LocalDate> days) {
+        Optional<ClusterModel> latest = clusterModels.latest(userId);
+        if (latest.isEmpty() || latest.get().getAnomalyThreshold() == null) {
+            return; // no analysis has trained a model yet
+        }
+        ClusterModel model = latest.get();
+        boolean trends = ClusterModelService.DAILY_TRENDS.equals(model.getGranularity());
+        double threshold = model.getAnomalyThreshold();
+
+        Map<YearMonth, List<LocalDate>> byMonth = new TreeMap<>();
+        for (LocalDate day : days) {
+            byMonth.computeIfAbsent(YearMonth.from(day), m -> new ArrayList<>()).add(day);
+        }
+
+        List<LocalDate> scored = new ArrayList<>(days.size());
+        List<AnomalyEvent> found = new ArrayList<>();
+        for (Map.Entry<YearMonth, List<LocalDate>> month : byMonth.entrySet()) {
+            FeatureMatrix matrix = featureEngineering.buildDailyFeaturesUncached(userId,
+                    month.getKey().atDay(1), month.getKey().atEndOfMonth(), trends);
+            Optional<double[]> centroids = clusterModels.centroidsFor(matrix, model);
+            if (matrix.isEmpty() || centroids.isEmpty()) {
+                continue;
+            }
+            double[][] rows = new double[model.getK()][];
+            for (int c = 0; c < rows.length; c++) {
+                rows[c] = Arrays.copyOfRange(centroids.get(), c * matrix.columns(),
+                        (c + 1) * matrix.columns());
+            }
+
+            for (LocalDate day : month.getValue()) {
+                int row = (int) (day.toEpochDay() - matrix.start().toEpochDay());
+                double score = MiningService.calculateAnomalyScore(matrix.data(), matrix.offset(row), rows);
+                scored.add(day);
+                if (score >= threshold) {
+                    AnomalyEvent event = new AnomalyEvent(userId, day, score, threshold);
+                    event.setGranularity(model.getGranularity());
+                    event.setK(model.getK());
+                    event.setDayTotal(matrix.get(row, FeatureMatrix.DAY_TOTAL));
+                    found.add(event);
+                }
+            }
+        }
+
+        if (scored.isEmpty()) {
+            return;
+        }
+        // A rescored day's event is superseded and replaced, or just superseded if no longer anomalous
+        transactions.executeWithoutResult(status -> {
+            events.supersede(userId, scored);
+            events.saveAll(found);
+        });
+        if (!found.isEmpty()) {
+            log.info("Recorded {} anomaly event(s) for user {}", found.size(), userId);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.CarbonFootprint;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact binary footprint feed ("CTFB"), all values little-endian:
+ * <pre>
+ * header   magic "CTFB" | u16 version | u16 reserved
+ *          u16 categoryCount | categoryCount x (u16 length, UTF-8 bytes)
+ *          u16 unitCount     | unitCount x (u16 length, UTF-8 bytes)
+ *          i64 recordCount
+ * records  recordCount x 32 bytes:
+ *          i64 userId | i32 epochDay | u16 category | u16 unit | f64 amount | f64 emissionFactor (NaN = default)
+ * </pre>
+ * Records are fixed width and read through a memory-mapped channel, so decoding
+ * a row is a handful of absolute reads with no per-field String allocation;
+ * category and unit strings come from the dictionary in the header.
+ */
+public final class BinaryFootprintFormat {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryFootprintFormat.class);
+
+    public static final byte[] MAGIC = {'C', 'T', 'F', 'B'};
+    public static final int VERSION = 1;
+    public static final int RECORD_BYTES = 32;
+
+    // Largest mapping window, kept a multiple of the record size
+    private static final long MAX_WINDOW = (Integer.MAX_VALUE / RECORD_BYTES) * (long) RECORD_BYTES;
+
+    private BinaryFootprintFormat() {
+    }
+
+    /**
+     * True if the stream starts with the CTFB magic. Reads (and consumes) at most four bytes.
+     */
+    public static boolean isBinary(InputStream in) throws IOException {
+        byte[] head = in.readNBytes(MAGIC.length);
+        return head.length == MAGIC.length
+                && head[0] == MAGIC[0] && head[1] == MAGIC[1] && head[2] == MAGIC[2] && head[3] == MAGIC[3];
+    }
+
+    /**
+     * Converts the existing {@code userId,date,category,amount,unit,emissionFactor}
+     * CSV layout into the binary format. Records are staged in a temporary file
+     * because the dictionaries are only known once the whole CSV has been read.
+     */
+    public static long convertCsv(Path csv, Path out) throws IOException {
+        Map<String, Integer> categories = new HashMap<>();
+        Map<String, Integer> units = new HashMap<>();
+        List<String> categoryList = new ArrayList<>();
+        List<String> unitList = new ArrayList<>();
+
+        Path staged = Files.createTempFile(out.toAbsolutePath().getParent(), "ctfb-", ".records");
+        long count = 0;
+
+        try {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+            try (CSVParser parser = CSVFormat.DEFAULT.withFirstRecordAsHeader()
+                    .parse(Files.newBufferedReader(csv, StandardCharsets.UTF_8));
+                 OutputStream records = new BufferedOutputStream(Files.newOutputStream(staged), 1 << 16)) {
+
+                for (CSVRecord r : parser) {
+                    String category = r.get("category");
+                    String unit = r.get("unit");
+                    String ef = r.isSet("emissionFactor") ? r.get("emissionFactor") : "";
+
+                    record.clear();
+                    record.putLong(Long.parseLong(r.get("userId")));
+                    record.putInt((int) LocalDate.parse(r.get("date")).toEpochDay());
+                    record.putShort((short) code(category, categories, categoryList));
+                    record.putShort((short) code(unit, units, unitList));
+                    record.putDouble(Double.parseDouble(r.get("amount")));
+                    record.putDouble(ef.isBlank() ? Double.NaN : Double.parseDouble(ef));
+                    records.write(record.array(), 0, RECORD_BYTES);
+                    count++;
+                }
+            }
+
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(out))) {
+                os.write(header(categoryList, unitList, count));
+                Files.copy(staged, os);
+            }
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+
+        return count;
+    }
+
+    private static int code(String value, Map<String, Integer> codes, List<String> list) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            if (list.size() >= 0xFFFF) {
+                throw new IllegalArgumentException("Too many distinct values for a u16 dictionary: " + value);
+            }
+            code = list.size();
+            codes.put(value, code);
+            list.add(value);
+        }
+        return code;
+    }
+
+    private static byte[] header(List<String> categories, List<String> units, long count) {
+        List<byte[]> cat = categories.stream().map(s -> s.getBytes(StandardCharsets.UTF_8)).toList();
+        List<byte[]> uni = units.stream().map(s -> s.getBytes(StandardCharsets.UTF_8)).toList();
+
+        long size = 4 + 2 + 2 + 2 + 2 + 8;
+        for (byte[] b : cat) size += 2 + b.length;
+        for (byte[] b : uni) size += 2 + b.length;
+        if (size > MAX_WINDOW) {
+            throw new IllegalArgumentException("CTFB dictionaries take " + size + " bytes, more than a reader maps");
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put(MAGIC).putShort((short) VERSION).putShort((short) 0);
+        putDictionary(buf, cat);
+        putDictionary(buf, uni);
+        buf.putLong(count);
+        return buf.array();
+    }
+
+    private static void putDictionary(ByteBuffer buf, List<byte[]> entries) {
+        buf.putShort((short) entries.size());
+        for (byte[] b : entries) {
+            if (b.length > 0xFFFF) {
+                throw new IllegalArgumentException("Dictionary value longer than 65535 bytes");
+            }
+            buf.putShort((short) b.length);
+            buf.put(b);
+        }
+    }
+
+    /**
+     * Memory-mapped reader. Category and unit strings are decoded once from the
+     * header. Records without a factor are returned with none, for the writer
+     * to fill in from {@link EmissionFactorRegistry}. A header that runs past
+     * the end of the file, or declares more records than the file holds, is
+     * rejected when the reader is opened.
+     */
+    public static final class Reader implements Iterator<CarbonFootprint>, Closeable {
+
+        private final FileChannel channel;
+        private final String[] categories;
+        private final String[] units;
+        private final long recordsOffset;
+        private final long recordCount;
+
+        private MappedByteBuffer window;
+        private long windowStart = -1;
+        private long windowEnd = -1;
+        private long index;
+
+        public Reader(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                // The dictionaries have no size limit short of u16 x u16, so the header is mapped rather than buffered
+                long size = channel.size();
+                ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_WINDOW))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+
+                byte[] magic = new byte[MAGIC.length];
+                int version;
+                try {
+                    head.get(magic);
+                    version = Short.toUnsignedInt(head.getShort());
+                    head.getShort();
+                } catch (BufferUnderflowException e) {
+                    throw new IOException("Not a CTFB file: " + file);
+                }
+                if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                    throw new IOException("Not a CTFB v" + VERSION + " file: " + file);
+                }
+
+                try {
+                    this.categories = readDictionary(head);
+                    this.units = readDictionary(head);
+                    this.recordCount = head.getLong();
+                } catch (BufferUnderflowException e) {
+                    throw new IOException("Truncated CTFB header: " + file);
+                }
+                this.recordsOffset = head.position();
+
+                long available = (size - recordsOffset) / RECORD_BYTES;
+                if (recordCount < 0 || recordCount > available) {
+                    throw new IOException("CTFB header declares " + recordCount + " records but " + file
+                            + " holds " + available);
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public long recordCount() {
+            return recordCount;
+        }
+
+        /**
+         * Moves the cursor past the first {@code n} records without decoding them.
+         */
+        public void skip(long n) {
+            index = Math.min(recordCount, index + n);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < recordCount;
+        }
+
+        @Override
+        public CarbonFootprint next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            long record = index++;
+            int pos = position(record);
+            double ef = window.getDouble(pos + 24);
+
+            CarbonFootprint cf = new CarbonFootprint();
+            cf.setUserId(window.getLong(pos));
+            cf.setDate(LocalDate.ofEpochDay(window.getInt(pos + 8)));
+            cf.setCategory(lookup(categories, window.getShort(pos + 12), record));
+            cf.setUnit(lookup(units, window.getShort(pos + 14), record));
+            cf.setAmount(window.getDouble(pos + 16));
+            if (!Double.isNaN(ef)) {
+                cf.setEmissionFactor(ef);
+                cf.calculateKgCO2e();
+            }
+            return cf;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            channel.close();
+        }
+
+        private int position(long record) {
+            long offset = recordsOffset + record * RECORD_BYTES;
+            if (offset < windowStart || offset + RECORD_BYTES > windowEnd) {
+                try {
+                    long size = Math.min(MAX_WINDOW, recordsOffset + recordCount * RECORD_BYTES - offset);
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+                    window.order(ByteOrder.LITTLE_ENDIAN);
+                    windowStart = offset;
+                    windowEnd = offset + size;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return (int) (offset - windowStart);
+        }
+
+        private static String lookup(String[] dictionary, short code, long record) {
+            int i = Short.toUnsignedInt(code);
+            if (i >= dictionary.length) {
+                throw new IllegalStateException("CTFB record " + record + " uses code " + i
+                        + " outside a dictionary of " + dictionary.length);
+            }
+            return dictionary[i];
+        }
+
+        private static String[] readDictionary(ByteBuffer head) {
+            String[] values = new String[Short.toUnsignedInt(head.getShort())];
+            for (int i = 0; i < values.length; i++) {
+                byte[] bytes = new byte[Short.toUnsignedInt(head.getShort())];
+                head.get(bytes);
+                values[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Command-line converter: {@code BinaryFootprintFormat <in.csv> <out.ctfb>}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            log.error("Usage: BinaryFootprintFormat <in.csv> <out.ctfb>");
+            System.exit(2);
+        }
+        long started = System.nanoTime();
+        long rows = convertCsv(Path.of(args[0]), Path.of(args[1]));
+        log.info("Converted {} rows in {} ms", rows, (System.nanoTime() - started) / 1_000_000);
+    }
+}
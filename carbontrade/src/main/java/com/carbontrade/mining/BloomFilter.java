@@ -0,0 +1,61 @@
+package com.carbontrade.mining;
+
+/**
+ * Minimal bloom filter over pre-hashed 64-bit keys (Kirsch-Mitzenmacher
+ * double hashing). Not thread-safe; callers synchronize.
+ */
+final class BloomFilter {
+
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+    private final long capacity;
+    private long inserted;
+
+    BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long n = Math.max(1, expectedInsertions);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+
+        this.numBits = Math.max(64, m);
+        this.bits = new long[(int) ((numBits + 63) >>> 6)];
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+        this.capacity = n;
+    }
+
+    boolean mightContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, numBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void put(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, numBits);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        inserted++;
+    }
+
+    /**
+     * Past its sizing the false-positive rate climbs; the owner should rebuild.
+     */
+    boolean isSaturated() {
+        return inserted > capacity;
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    long inserted() {
+        return inserted;
+    }
+}
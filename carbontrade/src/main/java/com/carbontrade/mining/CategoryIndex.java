@@ -0,0 +1,262 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.FootprintDictionary.Kind;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps category codes to one-hot feature columns so that a user's feature
+ * vectors keep the same shape across date ranges.
+ * <p>
+ * The index is append-only: a category keeps its column forever and new
+ * categories are added at the end, so the columns of an older
+ * {@link Space#version()} are always a prefix of a newer one and centroids
+ * from an earlier model can be padded with zeros instead of retrained.
+ * <ul>
+ * <li>{@code global} (default): every dictionary category, in code order. The
+ * dictionary is itself persisted and append-only, and the version is its
+ * size.</li>
+ * <li>{@code user}: only categories the user has had, in the order their
+ * rows were first committed, persisted in user_category_index.</li>
+ * </ul>
+ * In user scope, columns are registered by writers: {@link #register} runs
+ * inside the transaction that commits the rows, on the connection that
+ * already holds the write lock, and a space is reloaded after such a commit.
+ * Analysis only reads the index. A build that meets a category not
+ * registered yet gets it as a transient trailing column, and a space that
+ * differs from the current {@link #version} is never cached.
+ */
+@Component
+@DependsOn("entityManagerFactory") // user_category_index is created by Hibernate's schema update
+public class CategoryIndex implements FootprintCommitListener {
+
+    private static final Logger log = LoggerFactory.getLogger(CategoryIndex.class);
+
+    public enum Scope { GLOBAL, USER }
+
+    /**
+     * Category code of each one-hot column; the version is the column count.
+     */
+    public record Space(int[] codes) {
+
+        public int version() {
+            return codes.length;
+        }
+    }
+
+    // The next position is taken inside the insert, under SQLite's write lock; an indexed code is left alone
+    static final String REGISTER_SQL = """
+            INSERT OR IGNORE INTO user_category_index (user_id, category_code, position)
+            SELECT ?, ?, COALESCE(MAX(position) + 1, 0) FROM user_category_index WHERE user_id = ?
+            """;
+
+    // Categories in the rollup without a column, appended per user in order of their first day
+    static final String BACKFILL_SQL = """
+            INSERT INTO user_category_index (user_id, category_code, position)
+            SELECT r.user_id, r.category_code,
+                   COALESCE((SELECT MAX(i.position) + 1 FROM user_category_index i WHERE i.user_id = r.user_id), 0)
+                       + ROW_NUMBER() OVER (PARTITION BY r.user_id ORDER BY MIN(r.date), r.category_code) - 1
+            FROM footprint_daily_rollup r
+            WHERE NOT EXISTS (SELECT 1 FROM user_category_index i
+                              WHERE i.user_id = r.user_id AND i.category_code = r.category_code)
+            """;
+
+    private final FootprintDictionary dictionary;
+    private final DataSource dataSource;
+    private final Scope scope;
+    private final Map<Long, Space> userSpaces = new ConcurrentHashMap<>();
+
+    public CategoryIndex(FootprintDictionary dictionary, DataSource dataSource,
+            @Value("${mining.features.category-space:global}") String scope) {
+        this.dictionary = dictionary;
+        this.dataSource = dataSource;
+        this.scope = Scope.valueOf(scope.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public Scope scope() {
+        return scope;
+    }
+
+    /**
+     * Current version for a user; used to key cached feature matrices.
+     */
+    public int version(long userId) {
+        return scope == Scope.GLOBAL ? dictionary.size(Kind.CATEGORY) : userSpace(userId).version();
+    }
+
+    /**
+     * The column space for a user, with any of {@code seenCodes} it does not
+     * contain yet appended for this build only. Never writes.
+     */
+    public Space space(long userId, int[] seenCodes) {
+        if (scope == Scope.GLOBAL) {
+            int size = dictionary.size(Kind.CATEGORY);
+            for (int code : seenCodes) {
+                size = Math.max(size, code + 1);
+            }
+            int[] codes = new int[size];
+            Arrays.setAll(codes, i -> i);
+            return new Space(codes);
+        }
+
+        Space space = userSpace(userId);
+        int[] codes = space.codes();
+        int size = codes.length;
+        for (int code : seenCodes) {
+            if (indexOf(codes, size, code) < 0) {
+                if (size == codes.length) {
+                    codes = Arrays.copyOf(codes, size + seenCodes.length);
+                }
+                codes[size++] = code;
+            }
+        }
+        return size == space.version() ? space : new Space(Arrays.copyOf(codes, size));
+    }
+
+    /**
+     * Gives each user's categories a column, on the writer's connection and
+     * inside its transaction. Codes already in a loaded space cost nothing;
+     * the rest are inserted unless another commit indexed them first. No-op
+     * in global scope.
+     */
+    public void register(Connection conn, Map<Long, ? extends Collection<Integer>> codesByUser)
+            throws SQLException {
+        if (scope == Scope.GLOBAL || codesByUser.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(REGISTER_SQL)) {
+            boolean pending = false;
+            for (Map.Entry<Long, ? extends Collection<Integer>> e : codesByUser.entrySet()) {
+                Space known = userSpaces.get(e.getKey());
+                for (int code : e.getValue()) {
+                    if (known != null && indexOf(known, code) >= 0) {
+                        continue;
+                    }
+                    ps.setLong(1, e.getKey());
+                    ps.setInt(2, code);
+                    ps.setLong(3, e.getKey());
+                    ps.addBatch();
+                    pending = true;
+                }
+            }
+            if (pending) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Registers every category in footprint_daily_rollup that has no column
+     * yet, for one user or (userId null) everyone, inside the caller's
+     * transaction. Returns the number of columns added.
+     */
+    public int backfill(Connection conn, Long userId) throws SQLException {
+        if (scope == Scope.GLOBAL) {
+            return 0;
+        }
+        String sql = BACKFILL_SQL + (userId != null ? " AND r.user_id = ?" : "")
+                + " GROUP BY r.user_id, r.category_code";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (userId != null) {
+                ps.setLong(1, userId);
+            }
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Indexes rows committed before categories were registered on ingest.
+     * Ordered after the rollup is built for existing data.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    public void backfillOnStartup() throws SQLException {
+        if (scope == Scope.GLOBAL) {
+            return;
+        }
+        int added;
+        try (Connection conn = dataSource.getConnection()) {
+            added = backfill(conn, null);
+        }
+        userSpaces.clear();
+        if (added > 0) {
+            log.info("Indexed {} user categories from footprint_daily_rollup", added);
+        }
+    }
+
+    /**
+     * Drops the cached spaces of committed users, so the next read sees
+     * columns their transaction registered.
+     */
+    @Override
+    public void afterCommit(List<FootprintChange> changes) {
+        if (scope == Scope.GLOBAL) {
+            return;
+        }
+        for (FootprintChange change : changes) {
+            if (change.userId() == null) {
+                userSpaces.clear();
+                return;
+            }
+            userSpaces.remove(change.userId());
+        }
+    }
+
+    private Space userSpace(long userId) {
+        return userSpaces.computeIfAbsent(userId, this::load);
+    }
+
+    private Space load(long userId) {
+        String sql = "SELECT category_code FROM user_category_index WHERE user_id = ? ORDER BY position";
+        int[] codes = new int[8];
+        int size = 0;
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (size == codes.length) {
+                        codes = Arrays.copyOf(codes, size * 2);
+                    }
+                    codes[size++] = rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not load the category index for user " + userId, e);
+        }
+        return new Space(Arrays.copyOf(codes, size));
+    }
+
+    private static int indexOf(Space space, int code) {
+        return indexOf(space.codes(), space.codes().length, code);
+    }
+
+    // Linear scan: a user has a handful of categories
+    private static int indexOf(int[] codes, int size, int code) {
+        for (int i = 0; i < size; i++) {
+            if (codes[i] == code) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
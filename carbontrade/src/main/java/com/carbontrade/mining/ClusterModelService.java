@@ -0,0 +1,183 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.ClusterModel;
+import com.carbontrade.repository.ClusterModelRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Stores the centroids of each user's last analysis and maps them onto later
+ * feature matrices.
+ * <p>
+ * A model is keyed by user, granularity (daily rows, with or without trend
+ * columns) and k. Its columns are matched to a new matrix by name, so a model
+ * trained before the category space grew still applies: categories it never
+ * saw start at zero, and columns the matrix no longer has are dropped.
+ * <p>
+ * The key has no date range, so a model trained on a window that lies inside
+ * the stored model's window, and is shorter, does not replace it: a short
+ * look at a few days must not discard centroids (and the anomaly event
+ * threshold) learned from months.
+ */
+@Service
+public class ClusterModelService {
+
+    private final ClusterModelRepository repository;
+    private final AnalysisCache analysisCache;
+    private final TransactionTemplate transactions;
+
+    public static final String DAILY = "daily";
+    public static final String DAILY_TRENDS = "daily+trends";
+
+    public ClusterModelService(ClusterModelRepository repository, AnalysisCache analysisCache,
+            PlatformTransactionManager transactionManager) {
+        this.repository = repository;
+        this.analysisCache = analysisCache;
+        this.transactions = new TransactionTemplate(transactionManager);
+    }
+
+    public static String granularity(FeatureMatrix matrix) {
+        return matrix.trendColumn() >= 0 ? DAILY_TRENDS : DAILY;
+    }
+
+    /**
+     * The user's most recently trained model of any granularity and k.
+     */
+    public Optional<ClusterModel> latest(long userId) {
+        return repository.findFirstByUserIdOrderByUpdatedAtDesc(userId);
+    }
+
+    /**
+     * Stored centroids for the matrix's user as a row-major {@code k * columns}
+     * array in the matrix's column order, if a compatible model exists.
+     */
+    public Optional<double[]> centroidsFor(FeatureMatrix matrix, int k) {
+        return repository.findByUserIdAndGranularityAndK(matrix.userId(), granularity(matrix), k)
+                .flatMap(model -> centroidsFor(matrix, model));
+    }
+
+    /**
+     * A model's centroids mapped onto the matrix's columns, as above.
+     */
+    public Optional<double[]> centroidsFor(FeatureMatrix matrix, ClusterModel model) {
+        int k = model.getK();
+        String[] storedNames = model.getColumnNames().split("\n", -1);
+        double[] storedCentroids = decode(model.getCentroids());
+        if (storedCentroids.length != k * storedNames.length) {
+            return Optional.empty();
+        }
+
+        int columns = matrix.columns();
+        int[] target = new int[storedNames.length];
+        for (int j = 0; j < storedNames.length; j++) {
+            target[j] = matrix.column(storedNames[j]);
+        }
+
+        double[] centroids = new double[k * columns];
+        for (int c = 0; c < k; c++) {
+            for (int j = 0; j < storedNames.length; j++) {
+                if (target[j] >= 0) {
+                    centroids[c * columns + target[j]] = storedCentroids[c * storedNames.length + j];
+                }
+            }
+        }
+        return Optional.of(centroids);
+    }
+
+    /**
+     * The model a training run would store, detached from the database, so
+     * callers holding a read cursor can defer {@link #saveAll} until it closes.
+     *
+     * @param anomalyThreshold score above which a newly committed day is an anomaly event
+     */
+    public ClusterModel snapshot(FeatureMatrix matrix, KMeans.Result result, double anomalyThreshold) {
+        ClusterModel model = new ClusterModel(matrix.userId(), granularity(matrix), result.k());
+        model.setCategorySpaceVersion(matrix.categorySpaceVersion());
+        model.setColumnNames(String.join("\n", matrix.columnNames()));
+        model.setCentroids(encode(result.centroids()));
+        model.setTrainedFrom(matrix.start());
+        model.setTrainedTo(matrix.date(matrix.rows() - 1));
+        model.setIterations(result.iterations());
+        model.setInertia(result.inertia());
+        model.setAnomalyThreshold(Double.isNaN(anomalyThreshold) ? null : anomalyThreshold);
+        model.setUpdatedAt(OffsetDateTime.now());
+        return model;
+    }
+
+    /**
+     * Replaces the user's model for the matrix's granularity and k, unless
+     * the stored one covers a longer window around this one.
+     */
+    public void save(FeatureMatrix matrix, KMeans.Result result, double anomalyThreshold) {
+        saveAll(List.of(snapshot(matrix, result, anomalyThreshold)));
+    }
+
+    /**
+     * Stores {@link #snapshot}s in one transaction, each replacing the model
+     * with its user, granularity and k under the same window rule as
+     * {@link #save}. Returns how many were stored.
+     */
+    public synchronized int saveAll(Collection<ClusterModel> trained) {
+        if (trained.isEmpty()) {
+            return 0;
+        }
+        List<ClusterModel> saved = transactions.execute(status -> {
+            List<ClusterModel> replaced = new ArrayList<>(trained.size());
+            for (ClusterModel model : trained) {
+                Optional<ClusterModel> existing = repository.findByUserIdAndGranularityAndK(model.getUserId(),
+                        model.getGranularity(), model.getK());
+                if (existing.isPresent() && isPartialWindow(model, existing.get())) {
+                    continue;
+                }
+                ClusterModel target = existing.orElseGet(() -> new ClusterModel(model.getUserId(),
+                        model.getGranularity(), model.getK()));
+                target.setCategorySpaceVersion(model.getCategorySpaceVersion());
+                target.setColumnNames(model.getColumnNames());
+                target.setCentroids(model.getCentroids());
+                target.setTrainedFrom(model.getTrainedFrom());
+                target.setTrainedTo(model.getTrainedTo());
+                target.setIterations(model.getIterations());
+                target.setInertia(model.getInertia());
+                target.setAnomalyThreshold(model.getAnomalyThreshold());
+                target.setUpdatedAt(model.getUpdatedAt());
+                replaced.add(target);
+            }
+            return repository.saveAll(replaced);
+        });
+        saved.forEach(model -> analysisCache.modelSaved(model.getUserId()));
+        return saved.size();
+    }
+
+    // Trained on fewer days, all of them inside the stored model's window
+    static boolean isPartialWindow(ClusterModel trained, ClusterModel stored) {
+        if (stored.getTrainedFrom() == null || stored.getTrainedTo() == null) {
+            return false;
+        }
+        boolean inside = !trained.getTrainedFrom().isBefore(stored.getTrainedFrom())
+                && !trained.getTrainedTo().isAfter(stored.getTrainedTo());
+        boolean same = trained.getTrainedFrom().equals(stored.getTrainedFrom())
+                && trained.getTrainedTo().equals(stored.getTrainedTo());
+        return inside && !same;
+    }
+
+    static byte[] encode(double[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asDoubleBuffer().put(values);
+        return buffer.array();
+    }
+
+    static double[] decode(byte[] bytes) {
+        double[] values = new double[bytes.length / Double.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values);
+        return values;
+    }
+}
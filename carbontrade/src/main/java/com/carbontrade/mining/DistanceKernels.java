@@ -0,0 +1,74 @@
+package com.carbontrade.mining;
+
+/**
+ * Squared Euclidean distance kernels shared by
+ * {@link KMeans}, {@link MiniBatchKMeans}, {@link KSelection} and anomaly
+ * scoring. Rows and centroids are slices of flat {@code double[]}s.
+ * <p>
+ * The loops are scalar by default. The incubating Vector API is opt-in: a
+ * build with {@code -Pvector} compiles the SIMD kernels (src/vector/java),
+ * and a JVM started with {@code --add-modules jdk.incubator.vector
+ * -Dmining.vector=true} then uses the platform's preferred SIMD width.
+ * Without any of the three the scalar loop runs and nothing warns about an
+ * incubator module. Callers compare squared distances and take at most one
+ * square root for the distance they report. The vector path adds lanes in a
+ * different order, so the last bits of a sum can differ from the scalar one.
+ */
+public final class DistanceKernels {
+
+    /** A squared-distance body; the SIMD one is built separately. */
+    @FunctionalInterface
+    interface Kernel {
+        double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length);
+    }
+
+    private static final Kernel VECTOR = vectorKernel();
+
+    private DistanceKernels() {}
+
+    /** Whether the SIMD path is in use. */
+    public static boolean vectorized() {
+        return VECTOR != null;
+    }
+
+    public static double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        return VECTOR != null
+                ? VECTOR.squaredDistance(a, aOffset, b, bOffset, length)
+                : scalarSquaredDistance(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Squared distance from the row at {@code data[offset]} to the nearest of
+     * {@code centroids}.
+     */
+    public static double nearestSquaredDistance(double[] data, int offset, double[][] centroids) {
+        double best = Double.MAX_VALUE;
+        for (double[] centroid : centroids) {
+            best = Math.min(best, squaredDistance(data, offset, centroid, 0, centroid.length));
+        }
+        return best;
+    }
+
+    static double scalarSquaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0;
+        for (int j = 0; j < length; j++) {
+            double d = a[aOffset + j] - b[bOffset + j];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    // Loaded by name, so the default build neither compiles nor links against the incubator module
+    private static Kernel vectorKernel() {
+        if (!Boolean.getBoolean("mining.vector")
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (Kernel) Class.forName("com.carbontrade.mining.VectorKernels")
+                    .getDeclaredMethod("kernel").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null; // built without -Pvector
+        }
+    }
+}
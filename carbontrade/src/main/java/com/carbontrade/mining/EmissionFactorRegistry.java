@@ -0,0 +1,235 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.FootprintDictionary.Kind;
+import com.carbontrade.model.CarbonFootprint;
+import com.carbontrade.model.EmissionFactor;
+import com.carbontrade.repository.EmissionFactorRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Default emission factors, served from an immutable snapshot of the
+ * emission_factor table. Lookups are an array index by category code plus a
+ * binary search over effective dates, with no locking; {@link #reload()}
+ * builds a new snapshot and swaps it in atomically.
+ */
+@Component
+public class EmissionFactorRegistry {
+
+    public static final double NO_FACTOR = 0.0;
+
+    private final EmissionFactorRepository repository;
+    private final FootprintDictionary dictionary;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+    private volatile boolean seeded;
+
+    public EmissionFactorRegistry(EmissionFactorRepository repository, FootprintDictionary dictionary) {
+        this.repository = repository;
+        this.dictionary = dictionary;
+    }
+
+    @PostConstruct
+    public void init() throws SQLException {
+        if (repository.count() == 0) {
+            seed();
+        }
+        reload();
+    }
+
+    /**
+     * Rebuilds the snapshot from the table. Readers keep using the previous
+     * snapshot until the swap.
+     */
+    public void reload() {
+        snapshot.set(Snapshot.of(repository.findAll()));
+    }
+
+    /**
+     * Highest factor version in the current snapshot; 0 when the table is empty.
+     */
+    public long version() {
+        return snapshot.get().version;
+    }
+
+    /**
+     * True if this process created the initial factors, i.e. rows already in
+     * carbon_footprint were written under the old hard-coded defaults.
+     */
+    public boolean wasSeeded() {
+        return seeded;
+    }
+
+    /**
+     * Factor for a category code on a day, or {@link #NO_FACTOR}.
+     */
+    public double factor(int categoryCode, long epochDay) {
+        Snapshot s = snapshot.get();
+        int i = s.find(categoryCode, epochDay);
+        return i < 0 ? NO_FACTOR : s.factors[categoryCode][i];
+    }
+
+    public double factor(String category, LocalDate date) {
+        int code = dictionary.code(Kind.CATEGORY, category);
+        return code == FootprintDictionary.UNKNOWN ? NO_FACTOR : factor(code, date.toEpochDay());
+    }
+
+    /**
+     * Fills in the default factor, its version and kgCO2e for a row whose
+     * source gave no factor. The category code must already be set. Rows with
+     * no registered factor get {@link #NO_FACTOR} at version 0, so a factor
+     * added later still recomputes them.
+     */
+    public void applyDefault(CarbonFootprint cf) {
+        if (cf.getEmissionFactor() != null) {
+            return;
+        }
+        Snapshot s = snapshot.get();
+        int code = cf.getCategoryCode();
+        int i = s.find(code, cf.getDate().toEpochDay());
+        cf.setEmissionFactor(i < 0 ? NO_FACTOR : s.factors[code][i]);
+        cf.setFactorVersion(i < 0 ? 0L : s.versions[code][i]);
+        cf.calculateKgCO2e();
+    }
+
+    /**
+     * First effective day after {@code from} (null meaning an open start) at
+     * which another factor for the category takes over, or {@code null}.
+     */
+    public LocalDate nextEffectiveFrom(int categoryCode, LocalDate from) {
+        Snapshot s = snapshot.get();
+        if (categoryCode >= s.from.length || s.from[categoryCode] == null) {
+            return null;
+        }
+        long day = from == null ? Long.MIN_VALUE : from.toEpochDay();
+        for (long f : s.from[categoryCode]) {
+            if (f > day) {
+                return LocalDate.ofEpochDay(f);
+            }
+        }
+        return null;
+    }
+
+    // The factors that used to be hard-coded in IngestionService and CarbonController
+    private void seed() throws SQLException {
+        List<EmissionFactor> defaults = new ArrayList<>();
+        defaults.add(seedFactor("electricity", 0.417, "kWh"));
+        defaults.add(seedFactor("car", 0.192, "km"));
+        defaults.add(seedFactor("flight", 0.255, "km"));
+        defaults.add(seedFactor("diet", 100.0, "type"));
+        repository.saveAll(defaults);
+        seeded = true;
+    }
+
+    private EmissionFactor seedFactor(String category, double factor, String unit) throws SQLException {
+        int code = dictionary.encode(Kind.CATEGORY, category);
+        EmissionFactor ef = new EmissionFactor(code, category, factor, unit, null, 1);
+        ef.setRecomputedAt(ef.getCreatedAt());
+        return ef;
+    }
+
+    /**
+     * Per category code, the effective-from days in ascending order (an open
+     * start sorts first as Long.MIN_VALUE) with the factor and version in
+     * force from each. Where two versions share a start day the newer wins.
+     */
+    static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(0, new long[0][], new double[0][], new long[0][]);
+
+        final long version;
+        final long[][] from;
+        final double[][] factors;
+        final long[][] versions;
+
+        private Snapshot(long version, long[][] from, double[][] factors, long[][] versions) {
+            this.version = version;
+            this.from = from;
+            this.factors = factors;
+            this.versions = versions;
+        }
+
+        static Snapshot of(List<EmissionFactor> entries) {
+            if (entries.isEmpty()) {
+                return EMPTY;
+            }
+
+            List<EmissionFactor> sorted = new ArrayList<>(entries);
+            sorted.sort(Comparator.comparingInt(EmissionFactor::getCategoryCode)
+                    .thenComparingLong(Snapshot::fromDay)
+                    .thenComparingLong(EmissionFactor::getVersion));
+
+            int codes = sorted.get(sorted.size() - 1).getCategoryCode() + 1;
+            long[][] from = new long[codes][];
+            double[][] factors = new double[codes][];
+            long[][] versions = new long[codes][];
+            long version = 0;
+
+            int start = 0;
+            while (start < sorted.size()) {
+                int code = sorted.get(start).getCategoryCode();
+                int end = start;
+                while (end < sorted.size() && sorted.get(end).getCategoryCode() == code) {
+                    end++;
+                }
+
+                long[] f = new long[end - start];
+                double[] v = new double[end - start];
+                long[] ver = new long[end - start];
+                int n = 0;
+                for (int i = start; i < end; i++) {
+                    EmissionFactor ef = sorted.get(i);
+                    long day = fromDay(ef);
+                    if (n > 0 && f[n - 1] == day) {
+                        n--; // same start day: the later (higher) version replaces it
+                    }
+                    f[n] = day;
+                    v[n] = ef.getFactor();
+                    ver[n] = ef.getVersion();
+                    n++;
+                    version = Math.max(version, ef.getVersion());
+                }
+
+                from[code] = Arrays.copyOf(f, n);
+                factors[code] = Arrays.copyOf(v, n);
+                versions[code] = Arrays.copyOf(ver, n);
+                start = end;
+            }
+            return new Snapshot(version, from, factors, versions);
+        }
+
+        /**
+         * Index of the factor in force for the code on the day, or -1.
+         */
+        int find(int code, long epochDay) {
+            if (code < 0 || code >= from.length || from[code] == null) {
+                return -1;
+            }
+            long[] f = from[code];
+            int lo = 0;
+            int hi = f.length - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (f[mid] <= epochDay) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        private static long fromDay(EmissionFactor ef) {
+            return ef.getEffectiveFrom() == null ? Long.MIN_VALUE : ef.getEffectiveFrom().toEpochDay();
+        }
+    }
+}
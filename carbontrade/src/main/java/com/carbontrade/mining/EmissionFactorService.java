@@ -0,0 +1,261 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.FootprintDictionary.Kind;
+import com.carbontrade.model.EmissionFactor;
+import com.carbontrade.repository.EmissionFactorRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Changes default emission factors and brings stored rows up to date.
+ * <p>
+ * A change is a new emission_factor row with the next version; the registry
+ * snapshot is swapped immediately, so rows ingested from then on use it. A
+ * background task then recomputes kgCO2e for rows of that category inside
+ * the factor's effective range that were written with an older default.
+ * Rows whose source supplied its own factor (factor_version NULL) are never
+ * touched. Each batch is a short transaction on the ingest writer thread, so
+ * recomputation interleaves with imports instead of competing with them, and
+ * adjusts footprint_daily_rollup by the same difference.
+ */
+@Service
+public class EmissionFactorService {
+
+    private static final Logger log = LoggerFactory.getLogger(EmissionFactorService.class);
+
+    private final EmissionFactorRepository repository;
+    private final EmissionFactorRegistry registry;
+    private final FootprintDictionary dictionary;
+    private final IngestionPipeline pipeline;
+    private final FootprintCommitListeners commitListeners;
+    private final DataSource dataSource;
+    private final int batchSize;
+    private final ExecutorService executor;
+
+    public EmissionFactorService(EmissionFactorRepository repository, EmissionFactorRegistry registry,
+            FootprintDictionary dictionary, IngestionPipeline pipeline, FootprintCommitListeners commitListeners,
+            DataSource dataSource, @Value("${mining.factors.recompute-batch-size:5000}") int batchSize) {
+        this.repository = repository;
+        this.registry = registry;
+        this.dictionary = dictionary;
+        this.pipeline = pipeline;
+        this.commitListeners = commitListeners;
+        this.dataSource = dataSource;
+        this.batchSize = batchSize;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "factor-recompute");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public List<EmissionFactor> list() {
+        List<EmissionFactor> all = repository.findAll();
+        all.sort(Comparator.comparing(EmissionFactor::getCategory)
+                .thenComparingLong(EmissionFactor::getVersion));
+        return all;
+    }
+
+    /**
+     * Records a new factor for a category from {@code effectiveFrom} (null for
+     * all dates), publishes it and schedules the recompute of affected rows.
+     */
+    public synchronized EmissionFactor setFactor(String category, double factor, String unit,
+            LocalDate effectiveFrom) throws SQLException {
+        if (factor < 0 || Double.isNaN(factor) || Double.isInfinite(factor)) {
+            throw new IllegalArgumentException("Emission factor must be a non-negative number");
+        }
+        int code = dictionary.encode(Kind.CATEGORY, category);
+        EmissionFactor saved = repository.save(new EmissionFactor(code,
+                FootprintDictionary.normalize(Kind.CATEGORY, category), factor, unit, effectiveFrom,
+                registry.version() + 1));
+        registry.reload();
+        schedule(saved);
+        return saved;
+    }
+
+    /**
+     * Stamps rows written before the registry existed and resumes recomputes
+     * that a previous process did not finish.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverRecomputes() {
+        if (registry.wasSeeded()) {
+            try {
+                pipeline.onWriter(() -> {
+                    adoptLegacyRows();
+                    return null;
+                });
+            } catch (Exception e) {
+                log.warn("Could not attach legacy footprint rows to the seeded emission factors", e);
+            }
+        }
+        for (EmissionFactor ef : repository.findByRecomputedAtIsNull()) {
+            schedule(ef);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void schedule(EmissionFactor ef) {
+        executor.execute(() -> {
+            try {
+                recompute(ef);
+            } catch (Exception e) {
+                log.error("Recompute for emission factor {} (v{}) failed", ef.getCategory(), ef.getVersion(), e);
+            }
+        });
+    }
+
+    private void recompute(EmissionFactor ef) throws Exception {
+        LocalDate until = registry.nextEffectiveFrom(ef.getCategoryCode(), ef.getEffectiveFrom());
+        String where = "category_code = ? AND factor_version < ?"
+                + (ef.getEffectiveFrom() != null ? " AND date >= ?" : "")
+                + (until != null ? " AND date < ?" : "");
+        String selectIds = "SELECT id FROM carbon_footprint WHERE id > ? AND " + where + " ORDER BY id LIMIT ?";
+        String update = "UPDATE carbon_footprint SET emission_factor = ?, kgco2e = amount * ?, factor_version = ?"
+                + " WHERE id BETWEEN ? AND ? AND " + where;
+        // Applied before the update, while kgco2e still holds the old values
+        String adjustRollup = "INSERT INTO footprint_daily_rollup (user_id, date, category_code, kgco2e, row_count)"
+                + " SELECT user_id, date, category_code, SUM(amount * ? - kgco2e), 0 FROM carbon_footprint"
+                + " WHERE id BETWEEN ? AND ? AND " + where + " GROUP BY user_id, date, category_code"
+                + " ON CONFLICT (user_id, date, category_code) DO UPDATE SET kgco2e = kgco2e + excluded.kgco2e";
+
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            long afterId = lastId;
+            long[] batch = pipeline.onWriter(() -> recomputeBatch(selectIds, adjustRollup, update, ef, until, afterId));
+            if (batch == null) {
+                break;
+            }
+            lastId = batch[0];
+            total += batch[1];
+        }
+
+        ef.setRecomputedAt(OffsetDateTime.now());
+        ef.setRowsRecomputed(total);
+        repository.save(ef);
+        log.info("Recomputed {} footprint rows for emission factor {} (v{})", total, ef.getCategory(),
+                ef.getVersion());
+    }
+
+    /**
+     * One keyset page of the recompute in its own transaction. Returns the last
+     * id scanned and the rows updated, or null when the range is exhausted.
+     */
+    private long[] recomputeBatch(String selectIds, String adjustRollup, String update, EmissionFactor ef,
+            LocalDate until, long afterId) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                long firstId = -1;
+                long lastId = -1;
+                try (PreparedStatement ps = conn.prepareStatement(selectIds)) {
+                    ps.setLong(1, afterId);
+                    int next = bindRange(ps, 2, ef, until);
+                    ps.setInt(next, batchSize);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            if (firstId < 0) {
+                                firstId = rs.getLong(1);
+                            }
+                            lastId = rs.getLong(1);
+                        }
+                    }
+                }
+                if (firstId < 0) {
+                    conn.commit();
+                    return null;
+                }
+
+                try (PreparedStatement ps = conn.prepareStatement(adjustRollup)) {
+                    ps.setDouble(1, ef.getFactor());
+                    ps.setLong(2, firstId);
+                    ps.setLong(3, lastId);
+                    bindRange(ps, 4, ef, until);
+                    ps.executeUpdate();
+                }
+
+                int updated;
+                try (PreparedStatement ps = conn.prepareStatement(update)) {
+                    ps.setDouble(1, ef.getFactor());
+                    ps.setDouble(2, ef.getFactor());
+                    ps.setLong(3, ef.getVersion());
+                    ps.setLong(4, firstId);
+                    ps.setLong(5, lastId);
+                    bindRange(ps, 6, ef, until);
+                    updated = ps.executeUpdate();
+                }
+                conn.commit();
+                if (updated > 0) {
+                    commitListeners.publish(List.of(new FootprintChange(null, ef.getEffectiveFrom(),
+                            until != null ? until.minusDays(1) : null)));
+                }
+                return new long[]{lastId, updated};
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private static int bindRange(PreparedStatement ps, int index, EmissionFactor ef, LocalDate until)
+            throws SQLException {
+        ps.setInt(index++, ef.getCategoryCode());
+        ps.setLong(index++, ef.getVersion());
+        if (ef.getEffectiveFrom() != null) {
+            ps.setDate(index++, Date.valueOf(ef.getEffectiveFrom()));
+        }
+        if (until != null) {
+            ps.setDate(index++, Date.valueOf(until));
+        }
+        return index;
+    }
+
+    /**
+     * Rows stored before factors were versioned carry no factor_version. Those
+     * whose factor equals the seeded default for their category (0.0 for
+     * categories without one) are assumed to have been defaulted and are
+     * attached to the registry, so later factor changes reach them.
+     */
+    private void adoptLegacyRows() throws SQLException {
+        String sql = "UPDATE carbon_footprint SET factor_version = ?"
+                + " WHERE factor_version IS NULL AND category_code = ? AND emission_factor = ?";
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int code = 0; code < dictionary.size(Kind.CATEGORY); code++) {
+                double factor = registry.factor(code, 0);
+                ps.setLong(1, factor == EmissionFactorRegistry.NO_FACTOR ? 0 : registry.version());
+                ps.setInt(2, code);
+                ps.setDouble(3, factor);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+}
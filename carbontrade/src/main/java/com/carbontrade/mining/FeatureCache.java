@@ -0,0 +1,159 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.dto.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * LRU cache of built feature matrices, bounded by an estimate of their heap size.
+ * <p>
+ * Entries are dropped when a committed ingest batch touches their user and
+ * date range (see {@link FootprintCommitListener}), not on a timer. A build
+ * that races with such a commit is not cached, since it may predate the rows,
+ * and neither is one whose category space is not the version in its key.
+ */
+@Component
+public class FeatureCache implements FootprintCommitListener {
+
+    /**
+     * A matrix for [start, end] is built from rows back to {@code start - lookbackDays}.
+     */
+    record Key(long userId, LocalDate start, LocalDate end, int categorySpaceVersion, int lookbackDays) {
+
+        LocalDate dataStart() {
+            return start.minusDays(lookbackDays);
+        }
+    }
+
+    private record Entry(FeatureMatrix matrix, long bytes) {}
+
+    private final long maxBytes;
+
+    // Access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Long, Set<Key>> keysByUser = new HashMap<>();
+    private long bytes;
+    private long generation;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public FeatureCache(@Value("${mining.features.cache.max-bytes:67108864}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Cached matrix for the key, or the builder's result (cached if it fits).
+     */
+    public FeatureMatrix get(Key key, Supplier<FeatureMatrix> builder) {
+        return get(key, builder, generation());
+    }
+
+    /**
+     * As {@link #get(Key, Supplier)} for a builder working from data read
+     * earlier: the result is only cached if nothing was invalidated since
+     * {@code readGeneration}.
+     */
+    public FeatureMatrix get(Key key, Supplier<FeatureMatrix> builder, long readGeneration) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry.matrix();
+            }
+            misses++;
+        }
+
+        FeatureMatrix matrix = builder.get();
+        long size = matrix.estimateBytes();
+
+        synchronized (this) {
+            if (generation == readGeneration && size <= maxBytes
+                    && matrix.categorySpaceVersion() == key.categorySpaceVersion()) {
+                Entry previous = entries.put(key, new Entry(matrix, size));
+                if (previous != null) {
+                    bytes -= previous.bytes();
+                }
+                keysByUser.computeIfAbsent(key.userId(), u -> new HashSet<>()).add(key);
+                bytes += size;
+                evictToFit();
+            }
+        }
+        return matrix;
+    }
+
+    @Override
+    public synchronized void afterCommit(List<FootprintChange> changes) {
+        generation++;
+        for (FootprintChange change : changes) {
+            if (change.userId() == null) {
+                Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Key, Entry> e = it.next();
+                    if (change.touches(e.getKey().userId(), e.getKey().dataStart(), e.getKey().end())) {
+                        it.remove();
+                        forget(e.getKey(), e.getValue());
+                        invalidations++;
+                    }
+                }
+                continue;
+            }
+
+            Set<Key> keys = keysByUser.get(change.userId());
+            if (keys == null) {
+                continue;
+            }
+            for (Key key : List.copyOf(keys)) {
+                if (change.touches(key.userId(), key.dataStart(), key.end())) {
+                    forget(key, entries.remove(key));
+                    invalidations++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidation counter; read it before loading the data a build will use.
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized CacheStats stats() {
+        return new CacheStats(hits, misses, evictions, invalidations, entries.size(), bytes, maxBytes);
+    }
+
+    private void evictToFit() {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<Key, Entry> eldest = it.next();
+            it.remove();
+            forget(eldest.getKey(), eldest.getValue());
+            evictions++;
+        }
+    }
+
+    // Bookkeeping for an entry already removed from the map
+    private void forget(Key key, Entry entry) {
+        bytes -= entry.bytes();
+        Set<Key> keys = keysByUser.get(key.userId());
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysByUser.remove(key.userId());
+            }
+        }
+    }
+}
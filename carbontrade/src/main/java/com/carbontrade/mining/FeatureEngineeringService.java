@@ -1,87 +1,402 @@
 package com.carbontrade.mining;
 
-import com.carbontrade.model.CarbonFootprint;
-import com.carbontrade.repository.CarbonFootprintRepository;
+import com.carbontrade.mining.FootprintDictionary.Kind;
+import com.carbontrade.repository.FootprintAggregateRepository;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
-import java.time.YearMonth;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 @Service
 public class FeatureEngineeringService {
 
-    private final CarbonFootprintRepository repository;
+    // Users read per page of a batch scan; within the repository's bound-parameter limit
+    static final int SCAN_PAGE_USERS = Math.min(256, FootprintAggregateRepository.MAX_BOUND_USERS);
 
-    public FeatureEngineeringService(CarbonFootprintRepository repository) {
-        this.repository = repository;
+    private final FootprintAggregateRepository aggregates;
+    private final FeatureCache cache;
+    private final FootprintDictionary dictionary;
+    private final CategoryIndex categoryIndex;
+
+    public FeatureEngineeringService(FootprintAggregateRepository aggregates, FeatureCache cache,
+            FootprintDictionary dictionary, CategoryIndex categoryIndex) {
+        this.aggregates = aggregates;
+        this.cache = cache;
+        this.dictionary = dictionary;
+        this.categoryIndex = categoryIndex;
+    }
+
+    /**
+     * One feature row per day between start and end date, in a shared
+     * read-only {@link FeatureMatrix}. Category columns follow the
+     * {@link CategoryIndex}, so they do not depend on the range. Results are
+     * cached until an ingest touching the user and range commits.
+     */
+    public FeatureMatrix buildDailyFeatures(Long userId, LocalDate start, LocalDate end) {
+        return buildDailyFeatures(userId, start, end, false);
+    }
+
+    /**
+     * As {@link #buildDailyFeatures(Long, LocalDate, LocalDate)}, optionally
+     * followed by the rolling trend columns of {@link RollingDailyStats}. Trend
+     * windows reach back before {@code start}, so the first rows are complete.
+     */
+    public FeatureMatrix buildDailyFeatures(Long userId, LocalDate start, LocalDate end, boolean trends) {
+        FeatureCache.Key key = new FeatureCache.Key(userId, start, end, categoryIndex.version(userId),
+                lookback(trends));
+        return cache.get(key, () -> computeDailyFeatures(userId, start, end, trends));
+    }
+
+    /**
+     * As {@link #buildDailyFeatures(Long, LocalDate, LocalDate, boolean)} but
+     * bypassing the cache, for short one-off windows (such as days that were
+     * just committed) that would only churn it.
+     */
+    public FeatureMatrix buildDailyFeaturesUncached(Long userId, LocalDate start, LocalDate end, boolean trends) {
+        return computeDailyFeatures(userId, start, end, trends);
+    }
+
+    /**
+     * Feature matrices for several users, read from the rollup a page of
+     * users at a time. Each page is read in full and its statement closed
+     * before its users are handed to {@code sink} as deferred builds, so the
+     * sink may block (for back-pressure) without holding a read lock that
+     * would keep writers out. Requested users without data in the range get
+     * an empty matrix; {@code userIds} null means every user with data, found
+     * by keyset paging over user ids. Users are handed off in ascending id
+     * order, and the call runs on the calling thread until the last page.
+     */
+    public void scanDailyFeatures(Collection<Long> userIds, LocalDate start, LocalDate end, boolean trends,
+            BiConsumer<Long, Supplier<FeatureMatrix>> sink) {
+        long readGeneration = cache.generation();
+        forEachPage(userIds, start.minusDays(lookback(trends)), end, (users, totals) -> {
+            for (Long userId : users) {
+                DailyTotals done = totals.remove(userId);
+                DailyTotals userTotals = done != null ? done : new DailyTotals();
+                FeatureCache.Key key = new FeatureCache.Key(userId, start, end, categoryIndex.version(userId),
+                        lookback(trends));
+                sink.accept(userId, () -> cache.get(key,
+                        () -> computeDailyFeatures(userId, start, end, trends, userTotals), readGeneration));
+            }
+        });
     }
 
-    public record FeatureRow(Long userId, LocalDate date, double[] features, double target) {
+    /**
+     * Receives one streamed feature row; {@code features} is reused for the
+     * next row, so copy it to keep it.
+     */
+    @FunctionalInterface
+    public interface FeatureRowSink {
+        void accept(long userId, LocalDate date, double[] features);
     }
 
     /**
-     * Produces one feature vector per day between start and end date.
+     * Streams daily feature rows for many users, in user then date order,
+     * without building matrices. Every day of the range is emitted for each
+     * user with data in it. Columns match a {@link FeatureMatrix} over the
+     * global category space (without trends), so rows of different users are
+     * comparable. The rollup is read a page of users at a time like
+     * {@link #scanDailyFeatures}, and rows are only emitted once the page's
+     * statement is closed, so a slow sink never holds the read lock. Memory
+     * is one page of summed totals and one month of rows.
+     *
+     * @param userIds users to stream, or null for every user
+     * @param columns row width from {@link #streamedColumns()}; categories
+     *                registered since then have no column and are skipped
      */
-    public List<FeatureRow> buildDailyFeatures(Long userId, LocalDate start, LocalDate end) {
+    public void streamDailyFeatures(Collection<Long> userIds, LocalDate start, LocalDate end, int columns,
+            FeatureRowSink sink) {
+        int categories = columns - FeatureMatrix.FIRST_CATEGORY;
+        MonthBuffer month = new MonthBuffer(columns, start, end, sink);
+        forEachPage(userIds, start, end, (users, totals) -> {
+            for (Long userId : users) {
+                DailyTotals userTotals = totals.get(userId);
+                if (userTotals == null) {
+                    continue;
+                }
+                for (int i = 0; i < userTotals.size; i++) {
+                    if (userTotals.codes[i] < categories) {
+                        month.add(userId, userTotals.days[i], FeatureMatrix.FIRST_CATEGORY + userTotals.codes[i],
+                                userTotals.kgCO2e[i]);
+                    }
+                }
+            }
+        });
+        month.finishUser();
+    }
 
-        List<CarbonFootprint> rows = repository.findByUserIdAndDateBetween(userId, start, end);
+    /**
+     * Current row width of {@link #streamDailyFeatures}; fix it once for
+     * repeated passes over the same data.
+     */
+    public int streamedColumns() {
+        return FeatureMatrix.FIRST_CATEGORY + dictionary.size(Kind.CATEGORY);
+    }
 
-        // Unique categories -> one-hot vector space
-        List<String> categories = rows.stream()
-                .map(CarbonFootprint::getCategory)
-                .map(String::toLowerCase)
-                .distinct()
-                .sorted()
-                .toList();
+    /**
+     * Reads the rollup between {@code from} and {@code end} a page of users at
+     * a time and hands each page's totals, by user, to {@code page} once the
+     * page's statement is closed. Pages hold ascending user ids: the requested
+     * ones, or (userIds null) every user with data, found by keyset paging.
+     */
+    private void forEachPage(Collection<Long> userIds, LocalDate from, LocalDate end,
+            BiConsumer<List<Long>, Map<Long, DailyTotals>> page) {
+        if (userIds != null) {
+            List<Long> sorted = new ArrayList<>(new TreeSet<>(userIds));
+            for (int i = 0; i < sorted.size(); i += SCAN_PAGE_USERS) {
+                List<Long> users = sorted.subList(i, Math.min(sorted.size(), i + SCAN_PAGE_USERS));
+                page.accept(users, readPage(users, from, end));
+            }
+            return;
+        }
 
-        Map<String, Integer> catIndex = new HashMap<>();
-        for (int i = 0; i < categories.size(); i++) {
-            catIndex.put(categories.get(i), i);
+        long after = Long.MIN_VALUE;
+        while (true) {
+            List<Long> users = aggregates.usersWithData(from, end, after, SCAN_PAGE_USERS);
+            if (users.isEmpty()) {
+                return;
+            }
+            page.accept(users, readPage(users, from, end));
+            if (users.size() < SCAN_PAGE_USERS) {
+                return;
+            }
+            after = users.get(users.size() - 1);
         }
+    }
+
+    private Map<Long, DailyTotals> readPage(List<Long> users, LocalDate from, LocalDate end) {
+        Map<Long, DailyTotals> totals = new HashMap<>();
+        aggregates.dailyCategoryTotals(users, from, end, (userId, epochDay, categoryCode, kgCO2e) ->
+                totals.computeIfAbsent(userId, u -> new DailyTotals()).add(epochDay, categoryCode, kgCO2e));
+        return totals;
+    }
+
+    // Days before start that the trend windows need
+    private static int lookback(boolean trends) {
+        return trends ? RollingDailyStats.LONG_WINDOW - 1 : 0;
+    }
+
+    private FeatureMatrix computeDailyFeatures(Long userId, LocalDate start, LocalDate end, boolean trends) {
+        DailyTotals totals = new DailyTotals();
+        aggregates.dailyCategoryTotals(userId, start.minusDays(lookback(trends)), end, totals::add);
+        return computeDailyFeatures(userId, start, end, trends, totals);
+    }
+
+    /**
+     * The database streams one summed row per (day, category) into primitive
+     * buffers; the matrix is then filled by offset, with no per-day objects.
+     * Totals dated before {@code start} only feed the trend windows.
+     */
+    private FeatureMatrix computeDailyFeatures(Long userId, LocalDate start, LocalDate end, boolean trends,
+            DailyTotals totals) {
+        long startDay = start.toEpochDay();
 
-        // Aggregate per day
-        Map<LocalDate, double[]> dayCatTotals = new HashMap<>();
-        Map<LocalDate, Double> dayTotals = new HashMap<>();
+        // Categories present in the range, mapped to their stable one-hot columns
+        int maxCode = -1;
+        for (int i = 0; i < totals.size; i++) {
+            if (totals.days[i] >= startDay) {
+                maxCode = Math.max(maxCode, totals.codes[i]);
+            }
+        }
+        boolean[] seen = new boolean[maxCode + 1];
+        int seenCount = 0;
+        for (int i = 0; i < totals.size; i++) {
+            if (totals.days[i] >= startDay && !seen[totals.codes[i]]) {
+                seen[totals.codes[i]] = true;
+                seenCount++;
+            }
+        }
+        int[] seenCodes = new int[seenCount];
+        for (int code = 0, n = 0; code <= maxCode; code++) {
+            if (seen[code]) {
+                seenCodes[n++] = code;
+            }
+        }
 
-        for (CarbonFootprint cf : rows) {
-            LocalDate d = cf.getDate();
-            dayCatTotals.computeIfAbsent(d, k -> new double[categories.size()]);
-            int idx = catIndex.get(cf.getCategory().toLowerCase());
-            dayCatTotals.get(d)[idx] += cf.getKgCO2e();
-            dayTotals.merge(d, cf.getKgCO2e(), Double::sum);
+        CategoryIndex.Space space = categoryIndex.space(userId, seenCodes);
+        int[] categoryCodes = space.codes();
+        int categories = categoryCodes.length;
+        int[] catIndex = new int[maxCode + 1];
+        for (int c = 0; c < categories; c++) {
+            if (categoryCodes[c] <= maxCode) {
+                catIndex[categoryCodes[c]] = c;
+            }
         }
 
-        // Monthly trend feature
-        Map<YearMonth, Double> monthlyTotals = rows.stream().collect(
-                Collectors.groupingBy(cf -> YearMonth.from(cf.getDate()),
-                        Collectors.summingDouble(CarbonFootprint::getKgCO2e)));
+        int trendColumn = trends ? FeatureMatrix.FIRST_CATEGORY + categories : -1;
+        String[] names = new String[FeatureMatrix.FIRST_CATEGORY + categories
+                + (trends ? RollingDailyStats.COLUMNS.length : 0)];
+        names[FeatureMatrix.MONTH_TOTAL] = "monthTotal";
+        names[FeatureMatrix.WEEKDAY] = "weekday";
+        names[FeatureMatrix.MONTH] = "month";
+        names[FeatureMatrix.DAY_TOTAL] = "dayTotal";
+        for (int c = 0; c < categories; c++) {
+            String value = dictionary.value(Kind.CATEGORY, categoryCodes[c]);
+            names[FeatureMatrix.FIRST_CATEGORY + c] = "category:" + (value != null ? value : categoryCodes[c]);
+        }
+        if (trends) {
+            System.arraycopy(RollingDailyStats.COLUMNS, 0, names, trendColumn, RollingDailyStats.COLUMNS.length);
+        }
 
-        List<FeatureRow> featureRows = new ArrayList<>();
+        // Rows are indexed by day offset from the start of the range
+        int days = (int) Math.max(0, end.toEpochDay() - startDay + 1);
+        int columns = names.length;
+        int startMonth = monthIndex(start);
+        double[] data = new double[days * columns];
+        double[] monthlyTotals = new double[Math.max(0, monthIndex(end) - startMonth + 1)];
+        int[] dayMonth = new int[days];
 
         LocalDate pointer = start;
-        while (!pointer.isAfter(end)) {
+        for (int day = 0; day < days; day++) {
+            int row = day * columns;
+            dayMonth[day] = monthIndex(pointer) - startMonth;
+            data[row + FeatureMatrix.WEEKDAY] = pointer.getDayOfWeek().getValue(); // 1..7
+            data[row + FeatureMatrix.MONTH] = pointer.getMonthValue(); // 1..12
+            pointer = pointer.plusDays(1);
+        }
 
-            double todaySum = dayTotals.getOrDefault(pointer, 0.0);
-            double[] categoryVector = dayCatTotals.getOrDefault(pointer, new double[categories.size()]);
+        double[] lookbackTotals = new double[lookback(trends)];
+        for (int i = 0; i < totals.size; i++) {
+            int day = (int) (totals.days[i] - startDay);
+            double kg = totals.kgCO2e[i];
+            if (day < 0) {
+                lookbackTotals[lookbackTotals.length + day] += kg;
+                continue;
+            }
+            int row = day * columns;
+            data[row + FeatureMatrix.FIRST_CATEGORY + catIndex[totals.codes[i]]] += kg;
+            data[row + FeatureMatrix.DAY_TOTAL] += kg;
+            monthlyTotals[dayMonth[day]] += kg;
+        }
 
-            double weekday = pointer.getDayOfWeek().getValue(); // 1..7
-            double month = pointer.getMonthValue(); // 1..12
-            double monthTotal = monthlyTotals.getOrDefault(YearMonth.from(pointer), 0.0);
+        for (int day = 0; day < days; day++) {
+            data[day * columns + FeatureMatrix.MONTH_TOTAL] = monthlyTotals[dayMonth[day]];
+        }
 
-            double[] vector = new double[4 + categoryVector.length];
-            vector[0] = monthTotal;
-            vector[1] = weekday;
-            vector[2] = month;
-            vector[3] = todaySum;
+        // Trend columns in the same day order, one O(1) window update per day
+        if (trends) {
+            RollingDailyStats trailing = new RollingDailyStats();
+            for (double kg : lookbackTotals) {
+                trailing.append(kg);
+            }
+            for (int day = 0; day < days; day++) {
+                int row = day * columns;
+                trailing.append(data[row + FeatureMatrix.DAY_TOTAL]);
+                trailing.write(data, row + trendColumn);
+            }
+        }
 
-            System.arraycopy(categoryVector, 0, vector, 4, categoryVector.length);
+        return new FeatureMatrix(userId, start, days, data, names, categoryCodes, space.version(), trendColumn);
+    }
 
-            featureRows.add(new FeatureRow(userId, pointer, vector, todaySum));
-            pointer = pointer.plusDays(1);
+    private static int monthIndex(LocalDate date) {
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    /**
+     * Rows of the current user's current month. The month total column is
+     * only known once the month is complete, so rows are held until then;
+     * days without data are filled in as zero rows.
+     */
+    private static final class MonthBuffer {
+        final int columns;
+        final long startDay;
+        final long endDay;
+        final FeatureRowSink sink;
+        final double[] rows;
+        final double[] out;
+        long userId;
+        boolean active;
+        long firstDay; // first buffered day
+        int days;      // buffered days
+        double monthTotal;
+
+        MonthBuffer(int columns, LocalDate start, LocalDate end, FeatureRowSink sink) {
+            this.columns = columns;
+            this.startDay = start.toEpochDay();
+            this.endDay = end.toEpochDay();
+            this.sink = sink;
+            this.rows = new double[31 * columns];
+            this.out = new double[columns];
+        }
+
+        void add(long user, long epochDay, int column, double kg) {
+            if (!active || user != userId) {
+                finishUser();
+                userId = user;
+                active = true;
+                firstDay = startDay;
+                days = 0;
+                monthTotal = 0;
+            }
+            advanceTo(epochDay);
+            int row = (int) (epochDay - firstDay) * columns;
+            rows[row + column] += kg;
+            rows[row + FeatureMatrix.DAY_TOTAL] += kg;
+            monthTotal += kg;
+        }
+
+        void finishUser() {
+            if (active) {
+                advanceTo(endDay);
+                flush();
+                active = false;
+            }
+        }
+
+        // Opens zero rows up to and including the day, flushing at month ends
+        private void advanceTo(long epochDay) {
+            while (firstDay + days <= epochDay) {
+                LocalDate date = LocalDate.ofEpochDay(firstDay + days);
+                if (days > 0 && date.getDayOfMonth() == 1) {
+                    flush();
+                    continue;
+                }
+                int row = days * columns;
+                Arrays.fill(rows, row, row + columns, 0.0);
+                rows[row + FeatureMatrix.WEEKDAY] = date.getDayOfWeek().getValue();
+                rows[row + FeatureMatrix.MONTH] = date.getMonthValue();
+                days++;
+            }
+        }
+
+        private void flush() {
+            for (int d = 0; d < days; d++) {
+                System.arraycopy(rows, d * columns, out, 0, columns);
+                out[FeatureMatrix.MONTH_TOTAL] = monthTotal;
+                sink.accept(userId, LocalDate.ofEpochDay(firstDay + d), out);
+            }
+            firstDay += days;
+            days = 0;
+            monthTotal = 0;
         }
+    }
 
-        return featureRows;
+    // Growable column buffers for the streamed (day, category) totals
+    private static final class DailyTotals {
+        long[] days = new long[256];
+        int[] codes = new int[256];
+        double[] kgCO2e = new double[256];
+        int size;
+
+        void add(long epochDay, int categoryCode, double kg) {
+            if (size == days.length) {
+                days = Arrays.copyOf(days, size * 2);
+                codes = Arrays.copyOf(codes, size * 2);
+                kgCO2e = Arrays.copyOf(kgCO2e, size * 2);
+            }
+            days[size] = epochDay;
+            codes[size] = categoryCode;
+            kgCO2e[size] = kg;
+            size++;
+        }
     }
 }
@@ -0,0 +1,159 @@
+package com.carbontrade.mining;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Daily feature vectors for one user and date range, stored row-major in a
+ * single {@code double[]}. Row {@code r} is the day {@code start + r}; column
+ * names are kept once for the whole matrix.
+ * <p>
+ * Instances are shared through {@link FeatureCache} and must be treated as
+ * read-only, including the array returned by {@link #data()}.
+ */
+public final class FeatureMatrix {
+
+    public static final int MONTH_TOTAL = 0;
+    public static final int WEEKDAY = 1;
+    public static final int MONTH = 2;
+    public static final int DAY_TOTAL = 3;
+    /** First one-hot category column. */
+    public static final int FIRST_CATEGORY = 4;
+
+    private final Long userId;
+    private final LocalDate start;
+    private final int rows;
+    private final int columns;
+    private final double[] data;
+    private final String[] columnNames;
+    private final int[] categoryCodes;
+    private final int categorySpaceVersion;
+    private final int trendColumn;
+    private final Map<String, Integer> columnIndex;
+
+    FeatureMatrix(Long userId, LocalDate start, int rows, double[] data, String[] columnNames,
+            int[] categoryCodes, int categorySpaceVersion, int trendColumn) {
+        if (data.length != rows * columnNames.length) {
+            throw new IllegalArgumentException("Matrix data does not match " + rows + " x " + columnNames.length);
+        }
+        this.userId = userId;
+        this.start = start;
+        this.rows = rows;
+        this.columns = columnNames.length;
+        this.data = data;
+        this.columnNames = columnNames;
+        this.categoryCodes = categoryCodes;
+        this.categorySpaceVersion = categorySpaceVersion;
+        this.trendColumn = trendColumn;
+        this.columnIndex = new HashMap<>(columns * 2);
+        for (int c = 0; c < columns; c++) {
+            columnIndex.put(columnNames[c], c);
+        }
+    }
+
+    public Long userId() {
+        return userId;
+    }
+
+    public LocalDate start() {
+        return start;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    public boolean isEmpty() {
+        return rows == 0;
+    }
+
+    public LocalDate date(int row) {
+        return start.plusDays(row);
+    }
+
+    public double get(int row, int column) {
+        return data[row * columns + column];
+    }
+
+    /**
+     * Value the model predicts for a row: the day's total kgCO2e.
+     */
+    public double target(int row) {
+        return data[row * columns + DAY_TOTAL];
+    }
+
+    /**
+     * Offset of a row's first value in {@link #data()}.
+     */
+    public int offset(int row) {
+        return row * columns;
+    }
+
+    /**
+     * The backing array; read-only.
+     */
+    public double[] data() {
+        return data;
+    }
+
+    public double[] copyRow(int row) {
+        return Arrays.copyOfRange(data, row * columns, (row + 1) * columns);
+    }
+
+    public String columnName(int column) {
+        return columnNames[column];
+    }
+
+    public String[] columnNames() {
+        return columnNames.clone();
+    }
+
+    /**
+     * Column for a name, or -1.
+     */
+    public int column(String name) {
+        Integer c = columnIndex.get(name);
+        return c == null ? -1 : c;
+    }
+
+    /**
+     * Dictionary category code of a one-hot column.
+     */
+    public int categoryCode(int column) {
+        return categoryCodes[column - FIRST_CATEGORY];
+    }
+
+    /**
+     * Version of the {@link CategoryIndex} space the one-hot columns follow.
+     * Matrices of a lower version have a prefix of this matrix's category
+     * columns.
+     */
+    public int categorySpaceVersion() {
+        return categorySpaceVersion;
+    }
+
+    /**
+     * First of the {@code sum7, mean7, sum30, mean30, ewma7} columns, or -1 if
+     * the matrix was built without trends.
+     */
+    public int trendColumn() {
+        return trendColumn;
+    }
+
+    /**
+     * Approximate heap footprint, used to weigh cache entries.
+     */
+    long estimateBytes() {
+        long size = 128 + 8L * data.length + 4L * categoryCodes.length;
+        for (String name : columnNames) {
+            size += 64 + 2L * name.length();
+        }
+        return size;
+    }
+}
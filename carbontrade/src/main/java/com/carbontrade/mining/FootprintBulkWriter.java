@@ -0,0 +1,213 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.FootprintDictionary.Kind;
+import com.carbontrade.model.CarbonFootprint;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Iterator;
+
+/**
+ * Writes footprint rows straight through JDBC, bypassing the JPA persistence
+ * context. Rows are sent as prepared-statement batches and committed in large
+ * explicit transactions, which is what SQLite needs to load millions of rows
+ * quickly (IDENTITY ids stop Hibernate from batching inserts).
+ */
+@Component
+public class FootprintBulkWriter {
+
+    static final String INSERT_SQL = """
+            INSERT INTO carbon_footprint
+                (user_id, date, category_code, amount, unit_code, emission_factor, kgco2e, factor_version)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private final DataSource dataSource;
+    private final FootprintDeduplicator deduplicator;
+    private final FootprintDictionary dictionary;
+    private final EmissionFactorRegistry factors;
+    private final FootprintRollup rollup;
+    private final FootprintCommitListeners commitListeners;
+
+    @Value("${mining.ingest.jdbc-batch-size:1000}")
+    private int jdbcBatchSize;
+
+    @Value("${mining.ingest.rows-per-transaction:50000}")
+    private int rowsPerTransaction;
+
+    public FootprintBulkWriter(DataSource dataSource, FootprintDeduplicator deduplicator,
+            FootprintDictionary dictionary, EmissionFactorRegistry factors, FootprintRollup rollup,
+            FootprintCommitListeners commitListeners) {
+        this.dataSource = dataSource;
+        this.deduplicator = deduplicator;
+        this.dictionary = dictionary;
+        this.factors = factors;
+        this.rollup = rollup;
+        this.commitListeners = commitListeners;
+    }
+
+    /**
+     * Rows inserted, duplicates skipped and records the parser rejected (null
+     * rows). Every record taken from the source is one of these, so
+     * {@link #recordsConsumed()} is the resume position.
+     */
+    public record Result(long inserted, long duplicates, long rejected) {
+        public long recordsConsumed() {
+            return inserted + duplicates + rejected;
+        }
+    }
+
+    /**
+     * Called on the writer's connection just before each commit, so callers
+     * can record progress atomically with the rows it covers.
+     */
+    @FunctionalInterface
+    public interface CommitHook {
+        CommitHook NONE = (conn, soFar) -> {};
+
+        /**
+         * @param soFar totals for this call once the pending commit succeeds
+         */
+        void beforeCommit(Connection conn, Result soFar) throws SQLException;
+    }
+
+    /**
+     * Drains the iterator into carbon_footprint, skipping rows whose natural
+     * key is already stored, and returns what was committed. Category and unit
+     * codes are resolved through {@link FootprintDictionary}; a spelling it has
+     * not seen forces an early commit so the new code is durable first. Rows
+     * without a factor get the current default from {@link EmissionFactorRegistry}.
+     * A null row is a record the parser rejected; it is counted and skipped.
+     * footprint_daily_rollup is updated in the same transactions via {@link FootprintRollup},
+     * and {@link FootprintCommitListener}s hear about each commit.
+     */
+    public Result write(Iterator<CarbonFootprint> rows) throws SQLException {
+        return write(rows, CommitHook.NONE);
+    }
+
+    public Result write(Iterator<CarbonFootprint> rows, CommitHook hook) throws SQLException {
+        long inserted = 0;
+        long duplicates = 0;
+        long rejected = 0;
+        FootprintRollup.Delta rollupDelta = rollup.newDelta();
+
+        try (Connection conn = dataSource.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+                int pendingBatch = 0;
+                int pendingTx = 0;
+
+                while (rows.hasNext()) {
+                    CarbonFootprint cf = rows.next();
+                    if (cf == null) {
+                        rejected++;
+                        continue;
+                    }
+
+                    if (!dictionary.applyCodes(cf)) {
+                        // New category or unit: commit its dictionary row before any other thread can see the code
+                        if (pendingBatch > 0) {
+                            ps.executeBatch();
+                            pendingBatch = 0;
+                        }
+                        int categoryCode = cf.getCategoryCode() != null ? cf.getCategoryCode()
+                                : dictionary.register(conn, Kind.CATEGORY, cf.getCategory());
+                        int unitCode = cf.getUnitCode() != null ? cf.getUnitCode()
+                                : dictionary.register(conn, Kind.UNIT, cf.getUnit());
+                        rollupDelta.flush(conn);
+                        hook.beforeCommit(conn, new Result(inserted + pendingTx, duplicates, rejected));
+                        conn.commit();
+                        commitListeners.publish(rollupDelta.drain());
+                        inserted += pendingTx;
+                        pendingTx = 0;
+                        dictionary.publish(Kind.CATEGORY, cf.getCategory(), categoryCode);
+                        dictionary.publish(Kind.UNIT, cf.getUnit(), unitCode);
+                        cf.setCategoryCode(categoryCode);
+                        cf.setUnitCode(unitCode);
+                    }
+                    factors.applyDefault(cf);
+
+                    if (deduplicator.mightExist(cf)) {
+                        // Possible hit, or the user's filter is still to be built: flush so the lookup
+                        // (and the build) also see rows queued in this transaction
+                        if (pendingBatch > 0) {
+                            ps.executeBatch();
+                            pendingBatch = 0;
+                        }
+                        if (deduplicator.exists(conn, cf)) {
+                            duplicates++;
+                            continue;
+                        }
+                    }
+
+                    bind(ps, cf);
+                    ps.addBatch();
+                    rollupDelta.add(cf);
+                    pendingBatch++;
+                    pendingTx++;
+
+                    if (pendingBatch >= jdbcBatchSize) {
+                        ps.executeBatch();
+                        pendingBatch = 0;
+                    }
+                    if (pendingTx >= rowsPerTransaction) {
+                        if (pendingBatch > 0) {
+                            ps.executeBatch();
+                            pendingBatch = 0;
+                        }
+                        rollupDelta.flush(conn);
+                        hook.beforeCommit(conn, new Result(inserted + pendingTx, duplicates, rejected));
+                        conn.commit();
+                        commitListeners.publish(rollupDelta.drain());
+                        inserted += pendingTx;
+                        pendingTx = 0;
+                    }
+                }
+
+                if (pendingBatch > 0) {
+                    ps.executeBatch();
+                }
+                rollupDelta.flush(conn);
+                hook.beforeCommit(conn, new Result(inserted + pendingTx, duplicates, rejected));
+                conn.commit();
+                commitListeners.publish(rollupDelta.drain());
+                inserted += pendingTx;
+            } catch (Throwable e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+
+        return new Result(inserted, duplicates, rejected);
+    }
+
+    private void bind(PreparedStatement ps, CarbonFootprint cf) throws SQLException {
+        ps.setLong(1, cf.getUserId());
+        // Same binding Hibernate uses for LocalDate, so both write paths store identical values
+        ps.setDate(2, Date.valueOf(cf.getDate()));
+        ps.setInt(3, cf.getCategoryCode());
+        ps.setDouble(4, cf.getAmount());
+        ps.setInt(5, cf.getUnitCode());
+        if (cf.getEmissionFactor() != null) {
+            ps.setDouble(6, cf.getEmissionFactor());
+        } else {
+            ps.setNull(6, Types.DOUBLE);
+        }
+        ps.setDouble(7, cf.getKgCO2e());
+        if (cf.getFactorVersion() != null) {
+            ps.setLong(8, cf.getFactorVersion());
+        } else {
+            ps.setNull(8, Types.BIGINT);
+        }
+    }
+}
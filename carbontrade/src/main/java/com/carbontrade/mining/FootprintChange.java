@@ -0,0 +1,23 @@
+package com.carbontrade.mining;
+
+import java.time.LocalDate;
+
+/**
+ * Committed change to a user's footprint rows within a date range. A null
+ * userId means every user; a null bound means the range is open on that side.
+ */
+public record FootprintChange(Long userId, LocalDate from, LocalDate to) {
+
+    public static FootprintChange everything() {
+        return new FootprintChange(null, null, null);
+    }
+
+    /**
+     * True if this change may affect data of the user between start and end (inclusive).
+     */
+    public boolean touches(long user, LocalDate start, LocalDate end) {
+        return (userId == null || userId == user)
+                && (from == null || !from.isAfter(end))
+                && (to == null || !to.isBefore(start));
+    }
+}
@@ -0,0 +1,15 @@
+package com.carbontrade.mining;
+
+import java.util.List;
+
+/**
+ * Extension point called after rows are committed to carbon_footprint (by
+ * any ingest path, factor recompute or rollup rebuild). Implementations are
+ * picked up as Spring beans and run on the committing thread, so they must
+ * be quick; a listener that throws is logged and does not fail the commit.
+ */
+@FunctionalInterface
+public interface FootprintCommitListener {
+
+    void afterCommit(List<FootprintChange> changes);
+}
@@ -0,0 +1,38 @@
+package com.carbontrade.mining;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Fans committed changes out to every {@link FootprintCommitListener}. The
+ * listeners are resolved lazily, so they may depend on ingest components
+ * without creating a cycle.
+ */
+@Component
+public class FootprintCommitListeners {
+
+    private static final Logger log = LoggerFactory.getLogger(FootprintCommitListeners.class);
+
+    private final ObjectProvider<FootprintCommitListener> listeners;
+
+    public FootprintCommitListeners(ObjectProvider<FootprintCommitListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    public void publish(List<FootprintChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        listeners.orderedStream().forEach(listener -> {
+            try {
+                listener.afterCommit(changes);
+            } catch (RuntimeException e) {
+                log.warn("Footprint commit listener {} failed", listener.getClass().getSimpleName(), e);
+            }
+        });
+    }
+}
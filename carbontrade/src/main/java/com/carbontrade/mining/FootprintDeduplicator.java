@@ -0,0 +1,211 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.CarbonFootprint;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Natural-key deduplication on (userId, date, categoryCode, amount, unitCode).
+ * Rows must already carry their {@link FootprintDictionary} codes.
+ * <p>
+ * Each user gets an in-memory bloom filter holding the keys committed when it
+ * was built plus every key recorded through this class since. Both paths that
+ * insert into carbon_footprint ({@link FootprintBulkWriter} and
+ * {@link IngestionService#importCsv}) record their rows here, so within this
+ * process a miss means the row is new and costs a few bit probes; only a
+ * possible hit falls through to an indexed lookup. Rows inserted by anything
+ * else (another process, manual SQL) are not seen until the user's filter is
+ * built again, and deleted rows only leave stale bits that cost a lookup.
+ * <p>
+ * A user's filter is built from the database on their first possible hit,
+ * after the caller has flushed its pending rows, under a lock of its own, so
+ * imports of other users are not held up. A full filter grows by chaining a
+ * larger one rather than being rebuilt, which would drop keys of rows not yet
+ * committed. At most {@code mining.ingest.dedup.max-users} filters are kept,
+ * least recently used first out; a user evicted while another import of
+ * theirs has an open transaction can miss that transaction's rows, so the
+ * limit should comfortably exceed the users imported at once.
+ */
+@Component
+public class FootprintDeduplicator {
+
+    static final String EXISTS_SQL = """
+            SELECT 1 FROM carbon_footprint
+            WHERE user_id = ? AND date = ? AND category_code = ? AND amount = ? AND unit_code = ?
+            LIMIT 1
+            """;
+
+    static final String USER_KEYS_SQL = "SELECT date, category_code, amount, unit_code FROM carbon_footprint WHERE user_id = ?";
+
+    private static final int MIN_CAPACITY = 4096;
+
+    private final boolean enabled;
+    private final double falsePositiveRate;
+
+    // Access-ordered LRU, guarded by itself; only lookups happen under this lock
+    private final Map<Long, UserFilter> filters;
+
+    public FootprintDeduplicator(@Value("${mining.ingest.dedup.enabled:true}") boolean enabled,
+            @Value("${mining.ingest.dedup.false-positive-rate:0.01}") double falsePositiveRate,
+            @Value("${mining.ingest.dedup.max-users:10000}") int maxUsers) {
+        this.enabled = enabled;
+        this.falsePositiveRate = falsePositiveRate;
+        this.filters = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, UserFilter> eldest) {
+                return size() > maxUsers;
+            }
+        };
+    }
+
+    /**
+     * In-memory pre-check. {@code false} means the row is definitely new and its
+     * key has been recorded; {@code true} means the caller must flush its
+     * pending rows and confirm with {@link #exists}, which is also where a
+     * user's filter is first built.
+     */
+    public boolean mightExist(CarbonFootprint cf) {
+        if (!enabled) {
+            return false;
+        }
+
+        UserFilter filter = filter(cf.getUserId());
+        long hash = keyHash(cf);
+        synchronized (filter) {
+            if (!filter.loaded() || filter.mightContain(hash)) {
+                return true;
+            }
+            filter.put(hash);
+            return false;
+        }
+    }
+
+    /**
+     * Authoritative lookup. Uses the caller's connection so rows already written
+     * in its open transaction are visible, and records the key if the row is new.
+     */
+    public boolean exists(Connection conn, CarbonFootprint cf) throws SQLException {
+        boolean found;
+        try (PreparedStatement ps = conn.prepareStatement(EXISTS_SQL)) {
+            ps.setLong(1, cf.getUserId());
+            ps.setDate(2, Date.valueOf(cf.getDate()));
+            ps.setInt(3, cf.getCategoryCode());
+            ps.setDouble(4, cf.getAmount());
+            ps.setInt(5, cf.getUnitCode());
+            try (ResultSet rs = ps.executeQuery()) {
+                found = rs.next();
+            }
+        }
+
+        if (enabled) {
+            UserFilter filter = filter(cf.getUserId());
+            synchronized (filter) {
+                if (!filter.loaded()) {
+                    load(conn, cf.getUserId(), filter);
+                }
+                if (!found) {
+                    filter.put(keyHash(cf));
+                }
+            }
+        }
+        return found;
+    }
+
+    private UserFilter filter(Long userId) {
+        synchronized (filters) {
+            return filters.computeIfAbsent(userId, u -> new UserFilter());
+        }
+    }
+
+    private void load(Connection conn, Long userId, UserFilter filter) throws SQLException {
+        List<Long> hashes = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(USER_KEYS_SQL)) {
+            ps.setLong(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    hashes.add(keyHash(userId, rs.getDate(1).toLocalDate().toEpochDay(), rs.getInt(2),
+                            rs.getDouble(3), rs.getInt(4)));
+                }
+            }
+        }
+
+        filter.grow(Math.max(MIN_CAPACITY, hashes.size() * 2L), falsePositiveRate / 2);
+        for (long h : hashes) {
+            filter.put(h);
+        }
+    }
+
+    private static long keyHash(CarbonFootprint cf) {
+        return keyHash(cf.getUserId(), cf.getDate().toEpochDay(), cf.getCategoryCode(), cf.getAmount(),
+                cf.getUnitCode());
+    }
+
+    static long keyHash(long userId, long epochDay, int categoryCode, double amount, int unitCode) {
+        long h = fmix(userId * 0x9E3779B97F4A7C15L + epochDay);
+        h = fmix(h ^ Double.doubleToLongBits(amount));
+        h = fmix(h ^ (((long) categoryCode << 32) | (unitCode & 0xFFFFFFFFL)));
+        return h;
+    }
+
+    // MurmurHash3 64-bit finalizer
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * One user's keys as a chain of bloom filters, each twice the size and
+     * half the false-positive rate of the one before, so the chain as a whole
+     * stays under the configured rate however far it grows.
+     */
+    static final class UserFilter {
+
+        private final List<BloomFilter> stages = new ArrayList<>();
+        private double nextRate;
+
+        boolean loaded() {
+            return !stages.isEmpty();
+        }
+
+        boolean mightContain(long hash) {
+            for (int i = stages.size() - 1; i >= 0; i--) {
+                if (stages.get(i).mightContain(hash)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void put(long hash) {
+            BloomFilter current = stages.get(stages.size() - 1);
+            if (current.isSaturated()) {
+                grow(current.capacity() * 2, nextRate);
+                current = stages.get(stages.size() - 1);
+            }
+            current.put(hash);
+        }
+
+        void grow(long capacity, double falsePositiveRate) {
+            stages.add(new BloomFilter(capacity, falsePositiveRate));
+            nextRate = falsePositiveRate / 2;
+        }
+
+        int stages() {
+            return stages.size();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.CarbonFootprint;
+import jakarta.annotation.PostConstruct;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Small integer codes for footprint categories and units, backed by the
+ * footprint_dictionary table and cached in both directions.
+ * <p>
+ * Reads ({@link #code}, {@link #value}) are lock-free. Codes are dense per
+ * kind, so callers can index plain arrays by them. A new value is inserted on
+ * the caller's connection and only becomes visible in the cache through
+ * {@link #publish} once that transaction has committed, so a rolled-back
+ * batch can never leave a cached code without a dictionary row.
+ * <p>
+ * The next code is taken from the table inside the insert, which SQLite runs
+ * under its write lock, so a rolled-back registration leaves no gap. When two
+ * writers register the same value, the second insert waits for the first
+ * transaction and then adopts its code instead of failing on
+ * uk_dictionary_value. No Java lock is held while SQL runs: a writer waiting
+ * on another's transaction must not block that one from publishing.
+ */
+@Component
+@DependsOn("entityManagerFactory") // footprint_dictionary is created by Hibernate's schema update
+public class FootprintDictionary {
+
+    public enum Kind { CATEGORY, UNIT }
+
+    public static final int UNKNOWN = -1;
+
+    static final String INSERT_SQL = """
+            INSERT OR IGNORE INTO footprint_dictionary (kind, code, value)
+            SELECT ?, COALESCE(MAX(code) + 1, 0), ? FROM footprint_dictionary WHERE kind = ?
+            """;
+
+    static final String CODE_SQL = "SELECT code FROM footprint_dictionary WHERE kind = ? AND value = ?";
+
+    private final DataSource dataSource;
+    private final Map<Kind, Table> tables = new EnumMap<>(Kind.class);
+
+    public FootprintDictionary(DataSource dataSource) {
+        this.dataSource = dataSource;
+        for (Kind kind : Kind.values()) {
+            tables.put(kind, new Table());
+        }
+    }
+
+    @PostConstruct
+    public void load() throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT kind, code, value FROM footprint_dictionary ORDER BY code")) {
+            while (rs.next()) {
+                Table table = tables.get(Kind.valueOf(rs.getString(1)));
+                table.add(rs.getInt(2), rs.getString(3));
+            }
+        }
+    }
+
+    /**
+     * Canonical spelling: categories are case-insensitive, units are only trimmed.
+     */
+    public static String normalize(Kind kind, String raw) {
+        String trimmed = raw.trim();
+        return kind == Kind.CATEGORY ? trimmed.toLowerCase(Locale.ROOT) : trimmed;
+    }
+
+    /**
+     * Cached code for a raw value, or {@link #UNKNOWN}. Raw spellings are
+     * remembered, so a value is normalized at most once.
+     */
+    public int code(Kind kind, String raw) {
+        Table table = tables.get(kind);
+        Integer code = table.byRaw.get(raw);
+        if (code != null) {
+            return code;
+        }
+        code = table.byValue.get(normalize(kind, raw));
+        if (code == null) {
+            return UNKNOWN;
+        }
+        table.byRaw.put(raw, code);
+        return code;
+    }
+
+    /**
+     * Canonical value for a code, or {@code null} if the code is unknown.
+     */
+    public String value(Kind kind, int code) {
+        String[] values = tables.get(kind).values;
+        return code >= 0 && code < values.length ? values[code] : null;
+    }
+
+    /**
+     * Number of codes in use for a kind; codes run from 0 to size - 1.
+     */
+    public int size(Kind kind) {
+        return tables.get(kind).values.length;
+    }
+
+    /**
+     * Inserts a value that {@link #code} did not know on the given connection
+     * and returns its code, or the code another writer committed for it first.
+     * The caller must {@link #publish} it after commit.
+     */
+    public int register(Connection conn, Kind kind, String raw) throws SQLException {
+        String value = normalize(kind, raw);
+        Integer existing = tables.get(kind).byValue.get(value);
+        if (existing != null) {
+            return existing;
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+            ps.setString(1, kind.name());
+            ps.setString(2, value);
+            ps.setString(3, kind.name());
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = conn.prepareStatement(CODE_SQL)) {
+            ps.setString(1, kind.name());
+            ps.setString(2, value);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("footprint_dictionary has no " + kind + " '" + value + "' after insert");
+                }
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Makes a committed registration visible to lock-free readers.
+     */
+    public synchronized void publish(Kind kind, String raw, int code) {
+        Table table = tables.get(kind);
+        table.add(code, normalize(kind, raw));
+        table.byRaw.put(raw, code);
+    }
+
+    /**
+     * Registers and publishes in one autocommit step, for callers that are
+     * not inside a transaction of their own.
+     */
+    public int encode(Kind kind, String raw) throws SQLException {
+        int code = code(kind, raw);
+        if (code != UNKNOWN) {
+            return code;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            code = register(conn, kind, raw);
+        }
+        publish(kind, raw, code);
+        return code;
+    }
+
+    /**
+     * Sets both codes on a row, registering unseen spellings in autocommit mode.
+     */
+    public void encode(CarbonFootprint cf) throws SQLException {
+        if (!applyCodes(cf)) {
+            cf.setCategoryCode(encode(Kind.CATEGORY, cf.getCategory()));
+            cf.setUnitCode(encode(Kind.UNIT, cf.getUnit()));
+        }
+    }
+
+    /**
+     * Fills in category and unit codes from the cache. Returns false if either
+     * value still needs to be registered.
+     */
+    public boolean applyCodes(CarbonFootprint cf) {
+        if (cf.getCategoryCode() == null) {
+            int code = code(Kind.CATEGORY, cf.getCategory());
+            if (code != UNKNOWN) {
+                cf.setCategoryCode(code);
+            }
+        }
+        if (cf.getUnitCode() == null) {
+            int code = code(Kind.UNIT, cf.getUnit());
+            if (code != UNKNOWN) {
+                cf.setUnitCode(code);
+            }
+        }
+        return cf.getCategoryCode() != null && cf.getUnitCode() != null;
+    }
+
+    private static final class Table {
+        final Map<String, Integer> byValue = new ConcurrentHashMap<>();
+        final Map<String, Integer> byRaw = new ConcurrentHashMap<>();
+        volatile String[] values = new String[0];
+
+        // Called under the dictionary lock (or during load); readers see the new array atomically
+        void add(int code, String value) {
+            String[] current = values;
+            String[] next = Arrays.copyOf(current, Math.max(current.length, code + 1));
+            next[code] = value;
+            values = next;
+            byValue.put(value, code);
+        }
+    }
+}
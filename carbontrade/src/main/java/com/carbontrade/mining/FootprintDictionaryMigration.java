@@ -0,0 +1,122 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.FootprintDictionary.Kind;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves carbon_footprint rows written before dictionary encoding from the
+ * legacy category/unit text columns to category_code/unit_code. Runs once at
+ * startup, before interrupted ingest jobs are resumed; a database without
+ * legacy text left to convert is a no-op.
+ */
+@Component
+public class FootprintDictionaryMigration implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(FootprintDictionaryMigration.class);
+
+    private final DataSource dataSource;
+    private final FootprintDictionary dictionary;
+
+    public FootprintDictionaryMigration(DataSource dataSource, FootprintDictionary dictionary) {
+        this.dataSource = dataSource;
+        this.dictionary = dictionary;
+    }
+
+    private record Registration(Kind kind, String raw, int code) {}
+
+    @Override
+    public void run(ApplicationArguments args) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            if (!hasColumn(conn, "category") || !hasColumn(conn, "unit")) {
+                return;
+            }
+
+            List<Registration> registered = new ArrayList<>();
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                long converted = encodeColumn(conn, Kind.CATEGORY, "category", "category_code", registered);
+                encodeColumn(conn, Kind.UNIT, "unit", "unit_code", registered);
+
+                try (Statement st = conn.createStatement()) {
+                    // Superseded by idx_footprint_key_codes
+                    st.executeUpdate("DROP INDEX IF EXISTS idx_footprint_natural_key");
+                }
+                conn.commit();
+
+                if (converted > 0) {
+                    log.info("Dictionary-encoded {} legacy footprint rows ({} new spellings)",
+                            converted, registered.size());
+                }
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+
+            for (Registration r : registered) {
+                dictionary.publish(r.kind(), r.raw(), r.code());
+            }
+        }
+    }
+
+    /**
+     * Codes every distinct legacy spelling and clears the text, so the column
+     * stops costing space. Returns the number of rows updated.
+     */
+    private long encodeColumn(Connection conn, Kind kind, String textColumn, String codeColumn,
+            List<Registration> registered) throws SQLException {
+        List<String> spellings = new ArrayList<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT DISTINCT " + textColumn + " FROM carbon_footprint WHERE "
+                     + codeColumn + " IS NULL AND " + textColumn + " IS NOT NULL")) {
+            while (rs.next()) {
+                spellings.add(rs.getString(1));
+            }
+        }
+
+        // Spellings that differ only in case share a code that is not published yet
+        Map<String, Integer> pending = new HashMap<>();
+        long updated = 0;
+        String sql = "UPDATE carbon_footprint SET " + codeColumn + " = ?, " + textColumn + " = NULL WHERE "
+                + textColumn + " = ? AND " + codeColumn + " IS NULL";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (String raw : spellings) {
+                int code = dictionary.code(kind, raw);
+                if (code == FootprintDictionary.UNKNOWN) {
+                    String value = FootprintDictionary.normalize(kind, raw);
+                    Integer reserved = pending.get(value);
+                    code = reserved != null ? reserved : dictionary.register(conn, kind, raw);
+                    pending.put(value, code);
+                    registered.add(new Registration(kind, raw, code));
+                }
+                ps.setInt(1, code);
+                ps.setString(2, raw);
+                updated += ps.executeUpdate();
+            }
+        }
+        return updated;
+    }
+
+    private static boolean hasColumn(Connection conn, String column) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(null, null, "carbon_footprint", column)) {
+            return rs.next();
+        }
+    }
+}
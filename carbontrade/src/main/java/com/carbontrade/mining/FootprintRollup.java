@@ -0,0 +1,160 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.CarbonFootprint;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps footprint_daily_rollup in step with carbon_footprint. Writers collect
+ * a {@link Delta} for the rows of a transaction and flush it on the same
+ * connection just before committing, so the rollup never disagrees with the
+ * committed rows. {@link #rebuild} recomputes it from scratch. Both also
+ * register the categories they write with the {@link CategoryIndex}.
+ */
+@Component
+public class FootprintRollup {
+
+    static final String UPSERT_SQL = """
+            INSERT INTO footprint_daily_rollup (user_id, date, category_code, kgco2e, row_count)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (user_id, date, category_code)
+            DO UPDATE SET kgco2e = kgco2e + excluded.kgco2e, row_count = row_count + excluded.row_count
+            """;
+
+    static final String REBUILD_SQL = """
+            INSERT INTO footprint_daily_rollup (user_id, date, category_code, kgco2e, row_count)
+            SELECT user_id, date, category_code, SUM(kgco2e), COUNT(*)
+            FROM carbon_footprint
+            WHERE category_code IS NOT NULL
+            """;
+
+    static final String GROUP_BY = " GROUP BY user_id, date, category_code";
+
+    private final CategoryIndex categoryIndex;
+
+    public FootprintRollup(CategoryIndex categoryIndex) {
+        this.categoryIndex = categoryIndex;
+    }
+
+    public Delta newDelta() {
+        return new Delta(categoryIndex);
+    }
+
+    /**
+     * Replaces the rollup (of one user, or of everyone when userId is null)
+     * with sums over carbon_footprint, inside the caller's transaction.
+     * Returns the number of rollup rows written.
+     */
+    public int rebuild(Connection conn, Long userId) throws SQLException {
+        String where = userId != null ? " WHERE user_id = ?" : "";
+        try (PreparedStatement delete = conn.prepareStatement("DELETE FROM footprint_daily_rollup" + where);
+             PreparedStatement insert = conn.prepareStatement(REBUILD_SQL
+                     + (userId != null ? " AND user_id = ?" : "") + GROUP_BY)) {
+            if (userId != null) {
+                delete.setLong(1, userId);
+                insert.setLong(1, userId);
+            }
+            delete.executeUpdate();
+            int rows = insert.executeUpdate();
+            categoryIndex.backfill(conn, userId);
+            return rows;
+        }
+    }
+
+    /**
+     * True if carbon_footprint has rows but the rollup has none, i.e. the
+     * rollup has never been built for existing data.
+     */
+    public boolean isMissing(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT EXISTS (SELECT 1 FROM carbon_footprint)"
+                     + " AND NOT EXISTS (SELECT 1 FROM footprint_daily_rollup)")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Per-transaction sums, so a batch of readings for the same day and
+     * category costs one upsert. Not thread-safe.
+     */
+    public static final class Delta {
+
+        private record Key(long userId, long epochDay, int categoryCode) {}
+
+        private final CategoryIndex categoryIndex;
+        private final Map<Key, double[]> sums = new HashMap<>();
+
+        private Delta(CategoryIndex categoryIndex) {
+            this.categoryIndex = categoryIndex;
+        }
+
+        /**
+         * Records an inserted row; it must carry its category code.
+         */
+        public void add(CarbonFootprint cf) {
+            double[] sum = sums.computeIfAbsent(
+                    new Key(cf.getUserId(), cf.getDate().toEpochDay(), cf.getCategoryCode()), k -> new double[2]);
+            sum[0] += cf.getKgCO2e();
+            sum[1]++;
+        }
+
+        /**
+         * Applies the collected sums, and registers their categories, on the
+         * connection. Call once per
+         * transaction, just before commit, then {@link #drain()} after it.
+         */
+        public void flush(Connection conn) throws SQLException {
+            if (sums.isEmpty()) {
+                return;
+            }
+            Map<Long, Set<Integer>> categories = new HashMap<>();
+            try (PreparedStatement ps = conn.prepareStatement(UPSERT_SQL)) {
+                for (Map.Entry<Key, double[]> e : sums.entrySet()) {
+                    Key key = e.getKey();
+                    ps.setLong(1, key.userId());
+                    // Same binding as carbon_footprint.date
+                    ps.setDate(2, Date.valueOf(LocalDate.ofEpochDay(key.epochDay())));
+                    ps.setInt(3, key.categoryCode());
+                    ps.setDouble(4, e.getValue()[0]);
+                    ps.setLong(5, (long) e.getValue()[1]);
+                    ps.addBatch();
+                    categories.computeIfAbsent(key.userId(), u -> new TreeSet<>()).add(key.categoryCode());
+                }
+                ps.executeBatch();
+            }
+            categoryIndex.register(conn, categories);
+        }
+
+        /**
+         * The committed rows as one date span per user, for
+         * {@link FootprintCommitListener}s; starts a new delta.
+         */
+        public List<FootprintChange> drain() {
+            Map<Long, long[]> spans = new HashMap<>();
+            for (Key key : sums.keySet()) {
+                long[] span = spans.computeIfAbsent(key.userId(), u -> new long[]{Long.MAX_VALUE, Long.MIN_VALUE});
+                span[0] = Math.min(span[0], key.epochDay());
+                span[1] = Math.max(span[1], key.epochDay());
+            }
+            sums.clear();
+
+            List<FootprintChange> changes = new ArrayList<>(spans.size());
+            spans.forEach((userId, span) -> changes.add(
+                    new FootprintChange(userId, LocalDate.ofEpochDay(span[0]), LocalDate.ofEpochDay(span[1]))));
+            return changes;
+        }
+    }
+}
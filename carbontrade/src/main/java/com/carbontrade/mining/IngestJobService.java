@@ -0,0 +1,300 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.dto.IngestJobStatus;
+import com.carbontrade.model.IngestJob;
+import com.carbontrade.repository.IngestJobRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.sql.PreparedStatement;
+import java.time.OffsetDateTime;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs CSV (or binary CTFB) ingestion as background jobs. Uploads are spooled
+ * to disk as sent, gzip or zstd compressed or not, and the HTTP request
+ * returns immediately with a job id; the job then streams the spooled file
+ * through the ingest pipeline on a dedicated executor.
+ * <p>
+ * The number of committed source records is written to ingest_job inside the
+ * same transaction as the rows themselves, so a failed or interrupted job
+ * resumes from its last committed batch rather than from row zero.
+ */
+@Service
+public class IngestJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestJobService.class);
+
+    private static final String UPDATE_PROGRESS_SQL =
+            "UPDATE ingest_job SET rows_committed = ?, duplicates_skipped = ?, rows_rejected = ? WHERE id = ?";
+
+    private final IngestJobRepository jobRepository;
+    private final IngestionService ingestionService;
+    private final Path spoolDir;
+    private final ExecutorService executor;
+    private final int maxAttempts;
+    private final long maxRejectedRows;
+
+    // Live counters for jobs running on this node
+    private final Map<String, Progress> running = new ConcurrentHashMap<>();
+
+    public IngestJobService(IngestJobRepository jobRepository, IngestionService ingestionService,
+            @Value("${mining.ingest.spool-dir:ingest-spool}") String spoolDir,
+            @Value("${mining.ingest.job-workers:1}") int jobWorkers,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${mining.ingest.max-attempts:5}") int maxAttempts,
+            @Value("${mining.ingest.max-rejected-rows:1000}") long maxRejectedRows) {
+        this.jobRepository = jobRepository;
+        this.ingestionService = ingestionService;
+        this.spoolDir = Paths.get(spoolDir).toAbsolutePath();
+        this.maxAttempts = maxAttempts;
+        this.maxRejectedRows = maxRejectedRows;
+
+        try {
+            Files.createDirectories(this.spoolDir);
+        } catch (Exception e) {
+            throw new RuntimeException("Could not initialize ingest spool directory", e);
+        }
+
+        // Job threads mostly wait on the spool file and the pipeline, so they may be virtual; the
+        // pipeline's parse workers (CPU) and JDBC writer (pinned by the driver) stay platform threads
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threads = virtualThreads
+                ? Thread.ofVirtual().name("ingest-job-", 1).factory()
+                : r -> {
+                    Thread t = new Thread(r, "ingest-job-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                };
+        this.executor = Executors.newFixedThreadPool(Math.max(1, jobWorkers), threads);
+    }
+
+    /**
+     * Spools the upload to disk, hashing it on the way, and schedules a job.
+     * A file whose content hash was already ingested is recorded as a
+     * DUPLICATE job and never runs.
+     */
+    public IngestJob submit(MultipartFile file) throws Exception {
+        String id = UUID.randomUUID().toString();
+        Path target = spoolDir.resolve(id + ".upload");
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            Files.copy(in, target);
+        }
+        String contentHash = HexFormat.of().formatHex(digest.digest());
+
+        if (ingestionService.findIngestedFile(contentHash).isPresent()) {
+            Files.deleteIfExists(target);
+            IngestJob duplicate = new IngestJob(id, file.getOriginalFilename(), null, contentHash);
+            duplicate.setStatus(IngestJob.Status.DUPLICATE);
+            duplicate.setFinishedAt(OffsetDateTime.now());
+            return jobRepository.save(duplicate);
+        }
+
+        IngestJob job = jobRepository.save(new IngestJob(id, file.getOriginalFilename(), target.toString(),
+                contentHash));
+        schedule(job.getId());
+        return job;
+    }
+
+    /**
+     * Re-queues a failed job; it picks up after its last committed batch. A
+     * job that already ran {@code mining.ingest.max-attempts} times is not
+     * resumed, since it most likely fails at the same record every time.
+     */
+    public Optional<IngestJob> resume(String id) {
+        Optional<IngestJob> found = jobRepository.findById(id);
+        found.ifPresent(job -> {
+            if (job.getStatus() != IngestJob.Status.FAILED) {
+                throw new IllegalStateException("Only FAILED jobs can be resumed (job is " + job.getStatus() + ")");
+            }
+            if (maxAttempts > 0 && job.getAttempts() >= maxAttempts) {
+                throw new IllegalStateException("Job already failed " + job.getAttempts()
+                        + " attempts at record " + job.getRowsCommitted() + ": " + job.getLastError());
+            }
+            // Of concurrent resumes only the one whose update moves the job out of FAILED schedules it
+            if (jobRepository.transition(id, IngestJob.Status.FAILED, IngestJob.Status.QUEUED) != 1) {
+                throw new IllegalStateException("Job is already being resumed");
+            }
+            job.setStatus(IngestJob.Status.QUEUED);
+            schedule(id);
+        });
+        return found;
+    }
+
+    public Optional<IngestJobStatus> status(String id) {
+        return jobRepository.findById(id).map(job -> {
+            Progress p = running.get(id);
+            if (p == null) {
+                return new IngestJobStatus(job, job.getRowsCommitted(), job.getRowsCommitted(),
+                        job.getDuplicatesSkipped(), job.getRowsRejected(), job.getRowsPerSecond());
+            }
+            return new IngestJobStatus(job, p.resumedFrom + p.parsed.sum(), p.committed.get(),
+                    p.duplicates.get(), p.rejected.get(), p.rowsPerSecond());
+        });
+    }
+
+    /**
+     * Jobs left QUEUED or RUNNING by a previous process are picked up again.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverInterruptedJobs() {
+        for (IngestJob job : jobRepository.findByStatusIn(EnumSet.of(IngestJob.Status.QUEUED,
+                IngestJob.Status.RUNNING))) {
+            log.info("Resuming ingest job {} from record {}", job.getId(), job.getRowsCommitted());
+            schedule(job.getId());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void schedule(String id) {
+        executor.execute(() -> run(id));
+    }
+
+    private void run(String id) {
+        IngestJob job = jobRepository.findById(id).orElse(null);
+        if (job == null) {
+            return;
+        }
+
+        long resumeFrom = job.getRowsCommitted();
+        long duplicatesBefore = job.getDuplicatesSkipped();
+        long rejectedBefore = job.getRowsRejected();
+        Progress progress = new Progress(resumeFrom, duplicatesBefore, rejectedBefore);
+        running.put(id, progress);
+
+        job.setStatus(IngestJob.Status.RUNNING);
+        job.setAttempts(job.getAttempts() + 1);
+        job.setStartedAt(OffsetDateTime.now());
+        job.setFinishedAt(null);
+        jobRepository.save(job);
+
+        Path spooled = Path.of(job.getSpoolPath());
+        FootprintBulkWriter.CommitHook recordProgress = (conn, soFar) -> {
+            long records = resumeFrom + soFar.recordsConsumed();
+            long duplicates = duplicatesBefore + soFar.duplicates();
+            long rejected = rejectedBefore + soFar.rejected();
+            try (PreparedStatement ps = conn.prepareStatement(UPDATE_PROGRESS_SQL)) {
+                ps.setLong(1, records);
+                ps.setLong(2, duplicates);
+                ps.setLong(3, rejected);
+                ps.setString(4, id);
+                ps.executeUpdate();
+            }
+            progress.committed.set(records);
+            progress.duplicates.set(duplicates);
+            progress.rejected.set(rejected);
+        };
+
+        try {
+            boolean compressed;
+            try (InputStream in = Files.newInputStream(spooled)) {
+                compressed = UploadCompression.detect(in) != UploadCompression.NONE;
+            }
+            boolean binary;
+            try (InputStream in = UploadCompression.decompress(Files.newInputStream(spooled))) {
+                binary = BinaryFootprintFormat.isBinary(in);
+            }
+
+            if (binary) {
+                // The binary reader maps the file, so a compressed upload is inflated beside it first
+                Path mapped = compressed ? spooled.resolveSibling(id + ".ctfb") : spooled;
+                try {
+                    if (compressed) {
+                        try (InputStream in = UploadCompression.decompress(Files.newInputStream(spooled))) {
+                            Files.copy(in, mapped, StandardCopyOption.REPLACE_EXISTING);
+                        }
+                    }
+                    ingestionService.loadBinary(mapped, resumeFrom, progress.parsed, recordProgress);
+                } finally {
+                    if (compressed) {
+                        Files.deleteIfExists(mapped);
+                    }
+                }
+            } else {
+                // Compressed CSV streams straight into the parser; a resume re-inflates and skips
+                try (InputStream in = UploadCompression.decompress(Files.newInputStream(spooled))) {
+                    ingestionService.loadCsv(in, resumeFrom, progress.parsed,
+                            Math.max(0, maxRejectedRows - rejectedBefore), recordProgress);
+                }
+            }
+
+            job.setRowsCommitted(progress.committed.get());
+            job.setDuplicatesSkipped(progress.duplicates.get());
+            job.setRowsRejected(progress.rejected.get());
+            job.setRowsPerSecond(progress.rowsPerSecond());
+            job.setStatus(IngestJob.Status.COMPLETED);
+            job.setFinishedAt(OffsetDateTime.now());
+            jobRepository.save(job);
+
+            ingestionService.recordIngestedFile(job.getContentHash(), job.getFileName(),
+                    job.getRowsCommitted() - job.getDuplicatesSkipped() - job.getRowsRejected(),
+                    job.getDuplicatesSkipped());
+
+            Files.deleteIfExists(spooled);
+        } catch (Exception e) {
+            log.warn("Ingest job {} failed after {} committed records", id, progress.committed.get(), e);
+
+            // The committed count in the database is authoritative; the last batch may have rolled back
+            IngestJob failed = jobRepository.findById(id).orElse(job);
+            failed.setStatus(IngestJob.Status.FAILED);
+            failed.setRowsPerSecond(progress.rowsPerSecond());
+            failed.setErrorCount(failed.getErrorCount() + 1);
+            failed.setLastError(e.getMessage());
+            failed.setFinishedAt(OffsetDateTime.now());
+            jobRepository.save(failed);
+        } finally {
+            running.remove(id);
+        }
+    }
+
+    private static final class Progress {
+        final long resumedFrom;
+        final long startedNanos = System.nanoTime();
+        final LongAdder parsed = new LongAdder();
+        final AtomicLong committed;
+        final AtomicLong duplicates;
+        final AtomicLong rejected;
+
+        Progress(long resumedFrom, long duplicatesBefore, long rejectedBefore) {
+            this.resumedFrom = resumedFrom;
+            this.committed = new AtomicLong(resumedFrom);
+            this.duplicates = new AtomicLong(duplicatesBefore);
+            this.rejected = new AtomicLong(rejectedBefore);
+        }
+
+        double rowsPerSecond() {
+            double seconds = (System.nanoTime() - startedNanos) / 1e9;
+            return seconds > 0 ? (committed.get() - resumedFrom) / seconds : 0;
+        }
+    }
+}
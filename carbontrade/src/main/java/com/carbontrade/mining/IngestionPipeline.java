@@ -0,0 +1,255 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.CarbonFootprint;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Three-stage ingest pipeline:
+ * <ol>
+ *     <li>reader (the calling thread) cuts the source into numbered chunks,</li>
+ *     <li>a pool of workers parses, validates and enriches each chunk,</li>
+ *     <li>a single writer thread commits chunks in their original order.</li>
+ * </ol>
+ * A semaphore caps the number of chunks between reader and writer, so a slow
+ * database pushes back on the reader instead of buffering the whole file.
+ * The writer executor has exactly one thread because SQLite only allows one
+ * writer at a time; concurrent imports queue behind each other there.
+ * <p>
+ * If the source, a parse worker or the writer fails (errors included), or the
+ * reader is interrupted, the writer rolls back its open transaction and the
+ * failure is rethrown; batches committed before it stay committed.
+ */
+@Component
+public class IngestionPipeline {
+
+    private final FootprintBulkWriter bulkWriter;
+    private final ExecutorService parseWorkers;
+    private final ExecutorService writer;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+
+    public IngestionPipeline(FootprintBulkWriter bulkWriter,
+            @Value("${mining.ingest.parse-workers:0}") int parseWorkers,
+            @Value("${mining.ingest.chunk-size:1000}") int chunkSize,
+            @Value("${mining.ingest.max-chunks-in-flight:0}") int maxChunksInFlight) {
+        int workers = parseWorkers > 0 ? parseWorkers : Runtime.getRuntime().availableProcessors();
+
+        this.bulkWriter = bulkWriter;
+        this.parseWorkers = Executors.newFixedThreadPool(workers, namedDaemon("ingest-parse-"));
+        this.writer = Executors.newSingleThreadExecutor(namedDaemon("ingest-writer-"));
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight > 0 ? maxChunksInFlight : workers * 4;
+    }
+
+    /**
+     * Runs every element of the source through the parser on the worker pool
+     * and writes the results in source order.
+     */
+    public <S> FootprintBulkWriter.Result run(Iterator<S> source, Function<S, CarbonFootprint> parser)
+            throws Exception {
+        return run(source, parser, FootprintBulkWriter.CommitHook.NONE);
+    }
+
+    public <S> FootprintBulkWriter.Result run(Iterator<S> source, Function<S, CarbonFootprint> parser,
+            FootprintBulkWriter.CommitHook hook) throws Exception {
+        Semaphore permits = new Semaphore(maxChunksInFlight);
+        BlockingQueue<ParsedChunk> parsed = new LinkedBlockingQueue<>();
+        OrderedRows ordered = new OrderedRows(parsed, permits);
+
+        Future<FootprintBulkWriter.Result> written = writer.submit(() -> bulkWriter.write(ordered, hook));
+
+        long seq = 0;
+        try {
+            reading:
+            while (source.hasNext() && !written.isDone()) {
+                List<S> raw = new ArrayList<>(chunkSize);
+                while (raw.size() < chunkSize && source.hasNext()) {
+                    raw.add(source.next());
+                }
+
+                while (!permits.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    if (written.isDone()) {
+                        // Writer gave up; its exception is surfaced below
+                        break reading;
+                    }
+                }
+
+                long chunkSeq = seq++;
+                parseWorkers.execute(() -> parsed.add(parse(chunkSeq, raw, parser)));
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Ingest reader interrupted");
+            }
+        } catch (Throwable e) {
+            // Only a source read to the end may commit; anything else, interrupts included, rolls back
+            parsed.add(ParsedChunk.failed(e));
+            throw e;
+        }
+        parsed.add(ParsedChunk.end(seq));
+
+        return await(written);
+    }
+
+    /**
+     * Writes rows that need no parsing (e.g. decoded binary records) on the
+     * writer thread, so they still serialize with every other import.
+     */
+    public FootprintBulkWriter.Result write(Iterator<CarbonFootprint> rows, FootprintBulkWriter.CommitHook hook)
+            throws Exception {
+        return onWriter(() -> bulkWriter.write(rows, hook));
+    }
+
+    /**
+     * Runs other carbon_footprint maintenance on the writer thread and waits
+     * for it. Keep each call to one short transaction so imports are not held up.
+     */
+    public <T> T onWriter(Callable<T> work) throws Exception {
+        return await(writer.submit(work));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        parseWorkers.shutdownNow();
+        writer.shutdownNow();
+    }
+
+    private static <T> T await(Future<T> result) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private static <S> ParsedChunk parse(long seq, List<S> raw, Function<S, CarbonFootprint> parser) {
+        try {
+            List<CarbonFootprint> rows = new ArrayList<>(raw.size());
+            for (S record : raw) {
+                rows.add(parser.apply(record));
+            }
+            return new ParsedChunk(seq, rows, null, -1);
+        } catch (Throwable e) {
+            // Errors too: a chunk that never arrives would leave the writer waiting forever
+            return ParsedChunk.failed(e);
+        }
+    }
+
+    private static ThreadFactory namedDaemon(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private record ParsedChunk(long seq, List<CarbonFootprint> rows, Throwable error, long totalChunks) {
+
+        static ParsedChunk failed(Throwable error) {
+            return new ParsedChunk(-1, List.of(), error, -1);
+        }
+
+        static ParsedChunk end(long totalChunks) {
+            return new ParsedChunk(-1, List.of(), null, totalChunks);
+        }
+    }
+
+    /**
+     * Writer-side view of the pipeline: re-sequences chunks as workers finish
+     * them and hands rows to the bulk writer strictly in source order.
+     */
+    private static final class OrderedRows implements Iterator<CarbonFootprint> {
+
+        private final BlockingQueue<ParsedChunk> parsed;
+        private final Semaphore permits;
+        private final Map<Long, List<CarbonFootprint>> pending = new HashMap<>();
+        private Iterator<CarbonFootprint> current = Collections.emptyIterator();
+        private long nextSeq = 0;
+        private long totalChunks = -1;
+
+        OrderedRows(BlockingQueue<ParsedChunk> parsed, Semaphore permits) {
+            this.parsed = parsed;
+            this.permits = permits;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (totalChunks >= 0 && nextSeq >= totalChunks) {
+                    return false;
+                }
+
+                List<CarbonFootprint> chunk = pending.remove(nextSeq);
+                while (chunk == null) {
+                    ParsedChunk c = take();
+                    if (c.error() != null) {
+                        throw abort(c.error());
+                    }
+                    if (c.totalChunks() >= 0) {
+                        totalChunks = c.totalChunks();
+                        if (nextSeq >= totalChunks) {
+                            return false;
+                        }
+                        continue;
+                    }
+                    pending.put(c.seq(), c.rows());
+                    chunk = pending.remove(nextSeq);
+                }
+
+                permits.release();
+                nextSeq++;
+                current = chunk.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public CarbonFootprint next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        private static RuntimeException abort(Throwable error) {
+            if (error instanceof Error e) {
+                throw e;
+            }
+            return error instanceof RuntimeException e ? e : new IllegalStateException("Ingest aborted", error);
+        }
+
+        private ParsedChunk take() {
+            try {
+                return parsed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ingest writer interrupted", e);
+            }
+        }
+    }
+}
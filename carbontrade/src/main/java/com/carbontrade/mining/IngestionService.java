@@ -1,86 +1,353 @@
 package com.carbontrade.mining;
 
+import com.carbontrade.mining.dto.IngestResult;
 import com.carbontrade.model.CarbonFootprint;
+import com.carbontrade.model.IngestedFile;
 import com.carbontrade.repository.CarbonFootprintRepository;
+import com.carbontrade.repository.IngestedFileRepository;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.sql.DataSource;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 public class IngestionService {
 
+    private static final Logger log = LoggerFactory.getLogger(IngestionService.class);
+
     private final CarbonFootprintRepository repository;
+    private final IngestedFileRepository ingestedFileRepository;
+    private final IngestionPipeline pipeline;
+    private final FootprintDeduplicator deduplicator;
+    private final FootprintDictionary dictionary;
+    private final EmissionFactorRegistry factors;
+    private final FootprintRollup rollup;
+    private final FootprintCommitListeners commitListeners;
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactions;
 
-    public IngestionService(CarbonFootprintRepository repository) {
+    public IngestionService(CarbonFootprintRepository repository, IngestedFileRepository ingestedFileRepository,
+            IngestionPipeline pipeline, FootprintDeduplicator deduplicator, FootprintDictionary dictionary,
+            EmissionFactorRegistry factors, FootprintRollup rollup, FootprintCommitListeners commitListeners,
+            DataSource dataSource, JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
         this.repository = repository;
+        this.ingestedFileRepository = ingestedFileRepository;
+        this.pipeline = pipeline;
+        this.deduplicator = deduplicator;
+        this.dictionary = dictionary;
+        this.factors = factors;
+        this.rollup = rollup;
+        this.commitListeners = commitListeners;
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactions = new TransactionTemplate(transactionManager);
     }
 
     /**
      * Expect CSV columns:
      * userId,date,category,amount,unit,emissionFactor(optional)
      */
-    public int importCsv(MultipartFile file) throws Exception {
+    public IngestResult importCsv(MultipartFile file) throws Exception {
+        long started = System.nanoTime();
         List<CarbonFootprint> batch = new ArrayList<>();
+        long total = 0;
+        long duplicates = 0;
 
-        try (CSVParser parser = CSVFormat.DEFAULT
-                .withFirstRecordAsHeader()
-                .parse(new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
+        try (CSVParser parser = openCsv(file); Connection conn = dataSource.getConnection()) {
 
             for (CSVRecord r : parser) {
-                Long userId = Long.valueOf(r.get("userId"));
-                LocalDate date = LocalDate.parse(r.get("date"));
-                String category = r.get("category");
-                double amount = Double.parseDouble(r.get("amount"));
-                String unit = r.get("unit");
-
-                Double ef = (r.isSet("emissionFactor") && !r.get("emissionFactor").isBlank())
-                        ? Double.valueOf(r.get("emissionFactor"))
-                        : null;
-
-                if (ef == null) {
-                    ef = defaultEmissionFactor(category);
-                }
+                CarbonFootprint cf = toFootprint(r);
+                dictionary.encode(cf);
+                factors.applyDefault(cf);
 
-                CarbonFootprint cf = new CarbonFootprint();
-                cf.setUserId(userId);
-                cf.setDate(date);
-                cf.setCategory(category);
-                cf.setAmount(amount);
-                cf.setUnit(unit);
-                cf.setEmissionFactor(ef);
-                cf.calculateKgCO2e();
+                if (deduplicator.mightExist(cf)) {
+                    // Save what we have so the lookup can see earlier rows of this file
+                    if (!batch.isEmpty()) {
+                        saveBatch(batch);
+                        total += batch.size();
+                        batch.clear();
+                    }
+                    if (deduplicator.exists(conn, cf)) {
+                        duplicates++;
+                        continue;
+                    }
+                }
 
                 batch.add(cf);
 
                 if (batch.size() >= 1000) {
-                    repository.saveAll(batch);
+                    saveBatch(batch);
+                    total += batch.size();
                     batch.clear();
                 }
             }
         }
 
         if (!batch.isEmpty()) {
+            saveBatch(batch);
+            total += batch.size();
+        }
+
+        return new IngestResult(total, duplicates, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Saves through JPA and updates the rollup in the same transaction; the
+     * JDBC callback runs on the connection bound to the JPA transaction.
+     */
+    private void saveBatch(List<CarbonFootprint> batch) {
+        FootprintRollup.Delta delta = rollup.newDelta();
+        batch.forEach(delta::add);
+        transactions.executeWithoutResult(status -> {
             repository.saveAll(batch);
+            jdbcTemplate.execute((ConnectionCallback<Void>) conn -> {
+                delta.flush(conn);
+                return null;
+            });
+        });
+        commitListeners.publish(delta.drain());
+    }
+
+    /**
+     * Recomputes footprint_daily_rollup from carbon_footprint for one user, or
+     * for everyone when userId is null. Runs on the ingest writer thread so it
+     * cannot interleave with a bulk load. Returns the rollup rows written.
+     */
+    public int rebuildRollup(Long userId) throws Exception {
+        return pipeline.onWriter(() -> {
+            try (Connection conn = dataSource.getConnection()) {
+                boolean autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                try {
+                    int rows = rollup.rebuild(conn, userId);
+                    conn.commit();
+                    commitListeners.publish(List.of(new FootprintChange(userId, null, null)));
+                    return rows;
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(autoCommit);
+                }
+            }
+        });
+    }
+
+    /**
+     * Builds the rollup for data that predates it. Ordered ahead of ingest job
+     * recovery, which would otherwise make the rollup look populated.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void buildMissingRollup() throws Exception {
+        boolean missing;
+        try (Connection conn = dataSource.getConnection()) {
+            missing = rollup.isMissing(conn);
+        }
+        if (missing) {
+            log.info("Built footprint_daily_rollup for existing data: {} rows", rebuildRollup(null));
+        }
+    }
+
+    /**
+     * Same CSV layout as {@link #importCsv}, but records are parsed on the
+     * {@link IngestionPipeline} worker pool and written through
+     * {@link FootprintBulkWriter} instead of the JPA repository.
+     * Uploads in {@link BinaryFootprintFormat} are recognised by their magic bytes,
+     * and gzip or zstd compressed uploads are decompressed on the fly.
+     */
+    public IngestResult bulkLoad(MultipartFile file) throws Exception {
+        try (InputStream in = file.getInputStream()) {
+            return bulkLoad(in);
+        }
+    }
+
+    public IngestResult bulkLoad(InputStream upload) throws Exception {
+        long started = System.nanoTime();
+
+        FootprintBulkWriter.Result result;
+        try (InputStream in = UploadCompression.decompress(upload)) {
+            in.mark(4);
+            boolean binary = BinaryFootprintFormat.isBinary(in);
+            in.reset();
+
+            if (binary) {
+                // The binary reader maps the file, so it needs a real path
+                Path spooled = Files.createTempFile("ingest-", ".ctfb");
+                try {
+                    Files.copy(in, spooled, StandardCopyOption.REPLACE_EXISTING);
+                    result = loadBinary(spooled, 0, new LongAdder(), FootprintBulkWriter.CommitHook.NONE);
+                } finally {
+                    Files.deleteIfExists(spooled);
+                }
+            } else {
+                // Synchronous loads stay strict: the first bad record fails the request
+                result = loadCsv(in, 0, new LongAdder(), 0, FootprintBulkWriter.CommitHook.NONE);
+            }
         }
 
-        return batch.size(); // Note: This return value is now incorrect as it only counts the last batch. We
-                             // should fix it.
+        long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+        return new IngestResult(result.inserted(), result.duplicates(), elapsedMs);
     }
 
-    private double defaultEmissionFactor(String category) {
-        return switch (category.toLowerCase()) {
-            case "electricity" -> 0.417; // kgCO2e per kWh
-            case "car" -> 0.192; // kgCO2e per km
-            case "flight" -> 0.255; // kgCO2e per km
-            default -> 0.0;
-        };
+    /**
+     * Bulk loads a raw upload stream, such as a request body, without spooling
+     * it anywhere. The content hash is only known once the stream is consumed,
+     * so a re-sent stream is not skipped up front; row deduplication still
+     * drops its rows. The hash is recorded for later multipart uploads.
+     */
+    public IngestResult bulkLoadStream(InputStream body, String fileName) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        IngestResult result = bulkLoad(new DigestInputStream(body, digest));
+        recordIngestedFile(HexFormat.of().formatHex(digest.digest()), fileName, result.getRowsLoaded(),
+                result.getDuplicatesSkipped());
+        return result;
+    }
+
+    /**
+     * SHA-256 of the upload, used to recognise a file that was already ingested.
+     */
+    public String contentHash(MultipartFile file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public Optional<IngestedFile> findIngestedFile(String contentHash) {
+        return ingestedFileRepository.findById(contentHash);
+    }
+
+    public void recordIngestedFile(String contentHash, String fileName, long rowsInserted, long duplicates) {
+        ingestedFileRepository.save(new IngestedFile(contentHash, fileName, rowsInserted, duplicates));
+    }
+
+    /**
+     * Bulk loads a CSV stream (already decompressed) through the pipeline, skipping
+     * the first {@code skipRecords} data records (used to resume a partially committed job).
+     * Records that fail to parse are skipped and counted in the result's
+     * {@code rejected}, up to {@code maxRejected}; one more fails the load.
+     */
+    public FootprintBulkWriter.Result loadCsv(InputStream in, long skipRecords, LongAdder rowsParsed,
+            long maxRejected, FootprintBulkWriter.CommitHook hook) throws Exception {
+        LongAdder rejected = new LongAdder();
+        try (CSVParser parser = openCsv(in)) {
+            Iterator<CSVRecord> records = parser.iterator();
+            for (long i = 0; i < skipRecords && records.hasNext(); i++) {
+                records.next();
+            }
+
+            return pipeline.run(records, r -> {
+                CarbonFootprint cf;
+                try {
+                    cf = toFootprint(r);
+                } catch (RuntimeException e) {
+                    rejected.increment();
+                    if (rejected.sum() > maxRejected) {
+                        throw new IllegalArgumentException("More than " + maxRejected
+                                + " records failed to parse; last: " + e.getMessage(), e);
+                    }
+                    log.debug("Skipping unparseable record: {}", e.getMessage());
+                    rowsParsed.increment();
+                    return null;
+                }
+                // Known spellings are coded (and defaulted) here, off the writer thread
+                if (dictionary.applyCodes(cf)) {
+                    factors.applyDefault(cf);
+                }
+                rowsParsed.increment();
+                return cf;
+            }, hook);
+        }
+    }
+
+    /**
+     * Bulk loads a {@link BinaryFootprintFormat} file. Decoding is cheap enough
+     * to run inline on the writer thread, so the parse workers are skipped.
+     */
+    public FootprintBulkWriter.Result loadBinary(Path file, long skipRecords, LongAdder rowsParsed,
+            FootprintBulkWriter.CommitHook hook) throws Exception {
+        try (BinaryFootprintFormat.Reader reader = new BinaryFootprintFormat.Reader(file)) {
+            reader.skip(skipRecords);
+
+            return pipeline.write(new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return reader.hasNext();
+                }
+
+                @Override
+                public CarbonFootprint next() {
+                    CarbonFootprint cf = reader.next();
+                    rowsParsed.increment();
+                    return cf;
+                }
+            }, hook);
+        }
+    }
+
+    private CSVParser openCsv(MultipartFile file) throws Exception {
+        return openCsv(UploadCompression.decompress(file.getInputStream()));
+    }
+
+    private CSVParser openCsv(InputStream in) throws Exception {
+        return CSVFormat.DEFAULT
+                .withFirstRecordAsHeader()
+                .parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    static CarbonFootprint toFootprint(CSVRecord r) {
+        Long userId = Long.valueOf(r.get("userId"));
+        LocalDate date = LocalDate.parse(r.get("date"));
+        String category = r.get("category");
+        double amount = Double.parseDouble(r.get("amount"));
+        String unit = r.get("unit");
+
+        Double ef = (r.isSet("emissionFactor") && !r.get("emissionFactor").isBlank())
+                ? Double.valueOf(r.get("emissionFactor"))
+                : null;
+
+        CarbonFootprint cf = new CarbonFootprint();
+        cf.setUserId(userId);
+        cf.setDate(date);
+        cf.setCategory(category);
+        cf.setAmount(amount);
+        cf.setUnit(unit);
+        cf.setEmissionFactor(ef);
+        cf.calculateKgCO2e(); // no-op without a factor; the default is applied once the category is coded
+        return cf;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,342 @@
+package com.carbontrade.mining;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.stream.IntStream;
+
+/**
+ * Lloyd's k-means over a row-major {@code double[]} with k-means++ seeding
+ * and Hamerly's bounds.
+ * <p>
+ * Each point keeps an upper bound on the distance to its centroid and a lower
+ * bound on the distance to any other centroid. Centroid movement loosens
+ * both, and a point is only re-scanned against all k centroids when its upper
+ * bound exceeds max(lower bound, half the distance from its centroid to the
+ * nearest other one). Once clusters settle, most points skip the scan. The
+ * assignment step and the centroid sums run over row chunks in parallel when
+ * asked to; each chunk writes only its own points and partial sums.
+ */
+public final class KMeans {
+
+    /** Rows per parallel task; small inputs are not worth splitting. */
+    static final int CHUNK = 2048;
+
+    /**
+     * Centroids are row-major ({@code k * columns}); {@code inertia} is the
+     * sum of squared distances to the assigned centroids.
+     */
+    public record Result(int k, int columns, double[] centroids, int[] assignments, double inertia,
+                         int iterations, boolean converged) {
+
+        public double[] centroid(int cluster) {
+            return Arrays.copyOfRange(centroids, cluster * columns, (cluster + 1) * columns);
+        }
+
+        public double[][] centroidArrays() {
+            double[][] result = new double[k][];
+            for (int c = 0; c < k; c++) {
+                result[c] = centroid(c);
+            }
+            return result;
+        }
+    }
+
+    private final double[] data;
+    private final int rows;
+    private final int cols;
+    private final int k;
+    private final boolean parallel;
+
+    private final double[] centroids;
+    private final int[] assignment;
+    private final double[] upper;
+    private final double[] lower;
+
+    private KMeans(double[] data, int rows, int cols, int k, boolean parallel) {
+        this.data = data;
+        this.rows = rows;
+        this.cols = cols;
+        this.k = k;
+        this.parallel = parallel && rows >= 2 * CHUNK;
+        this.centroids = new double[k * cols];
+        this.assignment = new int[rows];
+        this.upper = new double[rows];
+        this.lower = new double[rows];
+    }
+
+    /**
+     * Clusters {@code rows} points of {@code cols} values each.
+     *
+     * @param parallel spread assignment over the current fork/join pool
+     */
+    public static Result fit(double[] data, int rows, int cols, int k, int maxIterations, long seed,
+            boolean parallel) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        if (rows < k) {
+            throw new IllegalArgumentException("Cannot form " + k + " clusters from " + rows + " points");
+        }
+        if (data.length < rows * cols) {
+            throw new IllegalArgumentException("Data holds fewer than " + rows + " x " + cols + " values");
+        }
+        KMeans km = new KMeans(data, rows, cols, k, parallel);
+        km.seed(new Random(seed));
+        return km.run(maxIterations);
+    }
+
+    /**
+     * Continues from given centroids ({@code k * cols}, row-major) instead of
+     * seeding, e.g. a stored model retrained after new days arrived; it then
+     * typically converges within a few iterations.
+     */
+    public static Result fitFrom(double[] data, int rows, int cols, double[] initialCentroids, int maxIterations,
+            boolean parallel) {
+        int k = initialCentroids.length / cols;
+        if (k < 1 || initialCentroids.length != k * cols) {
+            throw new IllegalArgumentException("Initial centroids do not have " + cols + " columns");
+        }
+        if (rows < 1 || data.length < rows * cols) {
+            throw new IllegalArgumentException("Data holds fewer than " + rows + " x " + cols + " values");
+        }
+        KMeans km = new KMeans(data, rows, cols, k, parallel);
+        System.arraycopy(initialCentroids, 0, km.centroids, 0, initialCentroids.length);
+        return km.run(maxIterations);
+    }
+
+    /**
+     * Nearest-centroid labels for every row, without training; the result's
+     * iteration count is 0.
+     */
+    public static Result assign(double[] data, int rows, int cols, double[] centroids) {
+        KMeans km = new KMeans(data, rows, cols, centroids.length / cols, false);
+        System.arraycopy(centroids, 0, km.centroids, 0, centroids.length);
+        return km.run(0);
+    }
+
+    /**
+     * k-means++: each next centroid is a point drawn with probability
+     * proportional to its squared distance from the nearest centroid so far.
+     */
+    private void seed(Random random) {
+        double[] nearest = new double[rows];
+        int first = random.nextInt(rows);
+        System.arraycopy(data, first * cols, centroids, 0, cols);
+        double total = 0;
+        for (int i = 0; i < rows; i++) {
+            nearest[i] = squaredDistance(i, 0);
+            total += nearest[i];
+        }
+
+        for (int c = 1; c < k; c++) {
+            int pick;
+            if (total <= 0) {
+                pick = random.nextInt(rows); // every point sits on a centroid already
+            } else {
+                double target = random.nextDouble() * total;
+                pick = rows - 1;
+                for (int i = 0; i < rows; i++) {
+                    target -= nearest[i];
+                    if (target <= 0) {
+                        pick = i;
+                        break;
+                    }
+                }
+            }
+            System.arraycopy(data, pick * cols, centroids, c * cols, cols);
+
+            total = 0;
+            for (int i = 0; i < rows; i++) {
+                nearest[i] = Math.min(nearest[i], squaredDistance(i, c));
+                total += nearest[i];
+            }
+        }
+    }
+
+    private Result run(int maxIterations) {
+        double[] halfGap = new double[k];
+        double[] movement = new double[k];
+        double[] previous = new double[k * cols];
+
+        sumOverChunks(this::initialAssign);
+
+        int iteration = 0;
+        boolean converged = false;
+        while (iteration < maxIterations) {
+            // Interrupted by MiningExecutor on cancellation or deadline
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("k-means cancelled after " + iteration + " iterations");
+            }
+            iteration++;
+
+            System.arraycopy(centroids, 0, previous, 0, centroids.length);
+            updateCentroids();
+            double maxMove = 0;
+            double secondMove = 0;
+            int maxMoved = -1;
+            for (int c = 0; c < k; c++) {
+                movement[c] = Math.sqrt(squaredDistance(previous, c, centroids, c));
+                if (movement[c] > maxMove) {
+                    secondMove = maxMove;
+                    maxMove = movement[c];
+                    maxMoved = c;
+                } else if (movement[c] > secondMove) {
+                    secondMove = movement[c];
+                }
+            }
+            if (maxMove == 0) {
+                converged = true;
+                break;
+            }
+
+            computeHalfGaps(halfGap);
+            int moved = maxMoved;
+            double max = maxMove;
+            double second = secondMove;
+            int changed = sumOverChunks((from, to) -> assign(from, to, halfGap, movement, moved, max, second));
+            if (changed == 0) {
+                converged = true; // centroids are already the means of this assignment
+                break;
+            }
+        }
+
+        double inertia = 0;
+        for (int i = 0; i < rows; i++) {
+            inertia += squaredDistance(i, assignment[i]);
+        }
+        return new Result(k, cols, centroids.clone(), assignment.clone(), inertia, iteration, converged);
+    }
+
+    private int initialAssign(int from, int to) {
+        for (int i = from; i < to; i++) {
+            scan(i);
+        }
+        return to - from;
+    }
+
+    /**
+     * Hamerly's assignment step for rows [from, to); returns how many points
+     * changed cluster.
+     */
+    private int assign(int from, int to, double[] halfGap, double[] movement, int maxMoved, double maxMove,
+            double secondMove) {
+        int changed = 0;
+        for (int i = from; i < to; i++) {
+            int a = assignment[i];
+            upper[i] += movement[a];
+            lower[i] -= a == maxMoved ? secondMove : maxMove;
+
+            double bound = Math.max(halfGap[a], lower[i]);
+            if (upper[i] <= bound) {
+                continue;
+            }
+            upper[i] = Math.sqrt(squaredDistance(i, a));
+            if (upper[i] <= bound) {
+                continue;
+            }
+            if (scan(i) != a) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    // Exact nearest and second-nearest centroid; resets both bounds
+    private int scan(int i) {
+        double best = Double.MAX_VALUE;
+        double second = Double.MAX_VALUE;
+        int bestCluster = 0;
+        for (int c = 0; c < k; c++) {
+            double d = squaredDistance(i, c);
+            if (d < best) {
+                second = best;
+                best = d;
+                bestCluster = c;
+            } else if (d < second) {
+                second = d;
+            }
+        }
+        assignment[i] = bestCluster;
+        upper[i] = Math.sqrt(best);
+        lower[i] = k > 1 ? Math.sqrt(second) : Double.MAX_VALUE;
+        return bestCluster;
+    }
+
+    // Half the distance from each centroid to its nearest neighbour
+    private void computeHalfGaps(double[] halfGap) {
+        Arrays.fill(halfGap, Double.MAX_VALUE);
+        for (int a = 0; a < k; a++) {
+            for (int b = a + 1; b < k; b++) {
+                double half = 0.5 * Math.sqrt(squaredDistance(centroids, a, centroids, b));
+                halfGap[a] = Math.min(halfGap[a], half);
+                halfGap[b] = Math.min(halfGap[b], half);
+            }
+        }
+    }
+
+    /**
+     * Moves each centroid to the mean of its points; an empty cluster keeps
+     * its previous position.
+     */
+    private void updateCentroids() {
+        int chunks = (rows + CHUNK - 1) / CHUNK;
+        double[][] partialSums = new double[chunks][];
+        int[][] partialCounts = new int[chunks][];
+        IntStream range = IntStream.range(0, chunks);
+        (parallel ? range.parallel() : range).forEach(chunk -> {
+            double[] sums = new double[k * cols];
+            int[] counts = new int[k];
+            int to = Math.min(rows, (chunk + 1) * CHUNK);
+            for (int i = chunk * CHUNK; i < to; i++) {
+                int base = assignment[i] * cols;
+                int row = i * cols;
+                for (int j = 0; j < cols; j++) {
+                    sums[base + j] += data[row + j];
+                }
+                counts[assignment[i]]++;
+            }
+            partialSums[chunk] = sums;
+            partialCounts[chunk] = counts;
+        });
+
+        double[] sums = new double[k * cols];
+        int[] counts = new int[k];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            for (int x = 0; x < sums.length; x++) {
+                sums[x] += partialSums[chunk][x];
+            }
+            for (int c = 0; c < k; c++) {
+                counts[c] += partialCounts[chunk][c];
+            }
+        }
+        for (int c = 0; c < k; c++) {
+            if (counts[c] > 0) {
+                for (int j = 0; j < cols; j++) {
+                    centroids[c * cols + j] = sums[c * cols + j] / counts[c];
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChunkTask {
+        int run(int from, int to);
+    }
+
+    private int sumOverChunks(ChunkTask task) {
+        int chunks = (rows + CHUNK - 1) / CHUNK;
+        IntStream range = IntStream.range(0, chunks);
+        return (parallel ? range.parallel() : range)
+                .map(chunk -> task.run(chunk * CHUNK, Math.min(rows, (chunk + 1) * CHUNK)))
+                .sum();
+    }
+
+    private double squaredDistance(int row, int cluster) {
+        return DistanceKernels.squaredDistance(data, row * cols, centroids, cluster * cols, cols);
+    }
+
+    private double squaredDistance(double[] a, int ai, double[] b, int bi) {
+        return DistanceKernels.squaredDistance(a, ai * cols, b, bi * cols, cols);
+    }
+}
@@ -0,0 +1,274 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.dto.KScore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.stream.IntStream;
+
+/**
+ * Picks k for one feature matrix by comparing candidate clusterings.
+ * <p>
+ * Every candidate in 2..maxK is first fitted with a short iteration budget
+ * and scored with Davies-Bouldin, which costs O(rows * k). Only the better
+ * half survives. Survivors continue from their screening centroids to
+ * convergence, which is the same work as an uninterrupted run, and are then
+ * scored with the silhouette. The silhouette reads a pairwise distance table
+ * over (a sample of) the rows that is computed once and shared by every
+ * candidate. The highest silhouette wins, and ties go to the lower
+ * Davies-Bouldin index.
+ * <p>
+ * Every candidate keeps the Davies-Bouldin index of its screening fit, so the
+ * reported values are comparable across survivors and dropped candidates and
+ * are the ones the cut was made on.
+ */
+final class KSelection {
+
+    static final int MIN_K = 2;
+    // Lloyd iterations before the Davies-Bouldin cut
+    static final int SCREEN_ITERATIONS = 10;
+    // Largest float[] a JVM reliably allocates
+    static final long MAX_TABLE_ENTRIES = Integer.MAX_VALUE - 8;
+
+    /**
+     * The winning clustering and the scores of every candidate, in k order.
+     */
+    record Outcome(KMeans.Result chosen, List<KScore> candidates, int silhouetteRows) {}
+
+    private final double[] data;
+    private final int rows;
+    private final int cols;
+    private final int maxIterations;
+    private final long seed;
+
+    private final int[] sample;
+    private float[] distances; // condensed upper triangle over the sample
+
+    private KSelection(double[] data, int rows, int cols, int maxIterations, long seed, int maxSilhouetteRows) {
+        this.data = data;
+        this.rows = rows;
+        this.cols = cols;
+        this.maxIterations = maxIterations;
+        this.seed = seed;
+        this.sample = sample(rows, Math.max(maxSilhouetteRows, MIN_K + 1), seed);
+    }
+
+    // Seeded random rows rather than a fixed stride, which could alias with weekly cycles in daily data
+    private static int[] sample(int rows, int size, long seed) {
+        int[] all = IntStream.range(0, rows).toArray();
+        if (rows <= size) {
+            return all;
+        }
+        Random random = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            int j = i + random.nextInt(rows - i);
+            int swap = all[i];
+            all[i] = all[j];
+            all[j] = swap;
+        }
+        int[] picked = Arrays.copyOf(all, size);
+        Arrays.sort(picked);
+        return picked;
+    }
+
+    /**
+     * Returns null when the matrix has too few rows to compare two candidates.
+     *
+     * @param parallel evaluate candidates concurrently on the current fork/join pool
+     */
+    static Outcome select(double[] data, int rows, int cols, int maxK, int maxIterations, long seed,
+            int maxSilhouetteRows, boolean parallel) {
+        checkSampleSize(Math.min(rows, Math.max(maxSilhouetteRows, MIN_K + 1)));
+        int highest = Math.min(maxK, rows - 1);
+        if (highest < MIN_K) {
+            return null;
+        }
+        return new KSelection(data, rows, cols, maxIterations, seed, maxSilhouetteRows)
+                .run(highest, parallel);
+    }
+
+    /**
+     * Rejects a silhouette sample whose condensed distance table would not
+     * fit in one array (above 65,536 rows).
+     */
+    static void checkSampleSize(int sampleRows) {
+        long entries = tableEntries(sampleRows);
+        if (entries > MAX_TABLE_ENTRIES) {
+            throw new IllegalArgumentException("A silhouette sample of " + sampleRows + " rows needs "
+                    + entries + " pairwise distances, more than " + MAX_TABLE_ENTRIES);
+        }
+    }
+
+    static long tableEntries(int sampleRows) {
+        return (long) sampleRows * (sampleRows - 1) / 2;
+    }
+
+    private Outcome run(int highest, boolean parallel) {
+        IntStream ks = IntStream.rangeClosed(MIN_K, highest);
+        List<Candidate> candidates = new ArrayList<>((parallel ? ks.parallel() : ks)
+                .mapToObj(this::screen)
+                .toList());
+
+        // Keep the better half by Davies-Bouldin, but always at least two
+        List<Candidate> ranked = new ArrayList<>(candidates);
+        ranked.sort(Comparator.comparingDouble(c -> c.daviesBouldin));
+        int keep = Math.min(ranked.size(), Math.max(MIN_K, (ranked.size() + 1) / 2));
+        List<Candidate> survivors = ranked.subList(0, keep);
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("k selection cancelled after screening");
+        }
+
+        distances = pairwiseDistances(parallel);
+        (parallel ? survivors.parallelStream() : survivors.stream()).forEach(this::refine);
+
+        Candidate best = null;
+        for (Candidate c : survivors) {
+            if (best == null || c.silhouette > best.silhouette
+                    || (c.silhouette == best.silhouette && c.daviesBouldin < best.daviesBouldin)) {
+                best = c;
+            }
+        }
+
+        List<KScore> scores = new ArrayList<>(candidates.size());
+        for (Candidate c : candidates) {
+            boolean kept = survivors.contains(c);
+            scores.add(new KScore(c.result.k(), kept ? c.silhouette : null, c.daviesBouldin,
+                    c.result.inertia(), c.result.iterations(), !kept));
+        }
+        return new Outcome(best.result, scores, sample.length);
+    }
+
+    private static final class Candidate {
+        KMeans.Result result;
+        double daviesBouldin;
+        double silhouette = Double.NaN;
+    }
+
+    private Candidate screen(int k) {
+        Candidate c = new Candidate();
+        c.result = KMeans.fit(data, rows, cols, k, Math.min(SCREEN_ITERATIONS, maxIterations), seed, false);
+        c.daviesBouldin = daviesBouldin(c.result);
+        return c;
+    }
+
+    private void refine(Candidate c) {
+        if (!c.result.converged() && c.result.iterations() < maxIterations) {
+            KMeans.Result screened = c.result;
+            KMeans.Result rest = KMeans.fitFrom(data, rows, cols, screened.centroids(),
+                    maxIterations - screened.iterations(), false);
+            c.result = new KMeans.Result(rest.k(), rest.columns(), rest.centroids(), rest.assignments(),
+                    rest.inertia(), screened.iterations() + rest.iterations(), rest.converged());
+        }
+        c.silhouette = silhouette(c.result.assignments(), c.result.k());
+    }
+
+    /**
+     * Mean over clusters of the worst ratio (scatter_i + scatter_j) / separation_ij;
+     * lower is better. Empty clusters are left out.
+     */
+    private double daviesBouldin(KMeans.Result result) {
+        int k = result.k();
+        double[] centroids = result.centroids();
+        int[] assignments = result.assignments();
+        double[] scatter = new double[k];
+        int[] counts = new int[k];
+        for (int i = 0; i < rows; i++) {
+            int c = assignments[i];
+            scatter[c] += Math.sqrt(squaredDistance(data, i * cols, centroids, c * cols));
+            counts[c]++;
+        }
+
+        double total = 0;
+        int clusters = 0;
+        for (int a = 0; a < k; a++) {
+            if (counts[a] == 0) {
+                continue;
+            }
+            double worst = 0;
+            for (int b = 0; b < k; b++) {
+                if (b == a || counts[b] == 0) {
+                    continue;
+                }
+                double separation = Math.sqrt(squaredDistance(centroids, a * cols, centroids, b * cols));
+                double ratio = (scatter[a] / counts[a] + scatter[b] / counts[b]) / Math.max(separation, 1e-12);
+                worst = Math.max(worst, ratio);
+            }
+            total += worst;
+            clusters++;
+        }
+        return clusters > 0 ? total / clusters : Double.MAX_VALUE;
+    }
+
+    /**
+     * Mean silhouette over the sampled rows, from the shared distance table;
+     * a row alone in its cluster scores 0.
+     */
+    private double silhouette(int[] assignments, int k) {
+        int n = sample.length;
+        int[] labels = new int[n];
+        int[] sizes = new int[k];
+        for (int s = 0; s < n; s++) {
+            labels[s] = assignments[sample[s]];
+            sizes[labels[s]]++;
+        }
+
+        double total = 0;
+        double[] sums = new double[k];
+        for (int s = 0; s < n; s++) {
+            Arrays.fill(sums, 0);
+            for (int t = 0; t < n; t++) {
+                if (t != s) {
+                    sums[labels[t]] += distance(s, t);
+                }
+            }
+            int own = labels[s];
+            if (sizes[own] <= 1) {
+                continue;
+            }
+            double a = sums[own] / (sizes[own] - 1);
+            double b = Double.MAX_VALUE;
+            for (int c = 0; c < k; c++) {
+                if (c != own && sizes[c] > 0) {
+                    b = Math.min(b, sums[c] / sizes[c]);
+                }
+            }
+            if (b == Double.MAX_VALUE || Math.max(a, b) == 0) {
+                continue; // no other cluster in the sample, or duplicate rows
+            }
+            total += (b - a) / Math.max(a, b);
+        }
+        return total / n;
+    }
+
+    private float[] pairwiseDistances(boolean parallel) {
+        int n = sample.length;
+        float[] table = new float[Math.toIntExact(tableEntries(n))];
+        IntStream range = IntStream.range(0, n);
+        (parallel ? range.parallel() : range).forEach(s -> {
+            int base = index(s, s + 1);
+            int p = sample[s] * cols;
+            for (int t = s + 1; t < n; t++) {
+                table[base + t - s - 1] = (float) Math.sqrt(squaredDistance(data, p, data, sample[t] * cols));
+            }
+        });
+        return table;
+    }
+
+    private double distance(int s, int t) {
+        return s < t ? distances[index(s, t)] : distances[index(t, s)];
+    }
+
+    // Position of pair (s, t), s < t, in the condensed table
+    private int index(int s, int t) {
+        int n = sample.length;
+        return (int) ((long) s * (2L * n - s - 1) / 2) + (t - s - 1);
+    }
+
+    private double squaredDistance(double[] a, int p, double[] b, int q) {
+        return DistanceKernels.squaredDistance(a, p, b, q, cols);
+    }
+}
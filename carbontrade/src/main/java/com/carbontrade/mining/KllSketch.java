@@ -0,0 +1,206 @@
+package com.carbontrade.mining;
+
+import java.util.Arrays;
+
+/**
+ * KLL quantile sketch (Karnin, Lang and Liberty, 2016) over doubles.
+ * <p>
+ * Values are kept in levels; an item on level h stands for 2^h inputs. When
+ * the sketch as a whole is full, the lowest level over its own capacity is
+ * sorted and every other item moves up one level, so total weight is
+ * preserved while memory stays near 3k items however many values are added. Capacities shrink by 2/3 per level
+ * below the top, which gives a rank error of roughly 1.7 / k (under 1% at
+ * the default k). Up to k values are held exactly. Sketches built over
+ * separate partitions can be {@link #merge merged}; the halves kept on
+ * compaction alternate instead of being drawn at random, so the same inputs
+ * in the same order always give the same answer. Not thread-safe.
+ */
+public final class KllSketch {
+
+    public static final int DEFAULT_K = 200;
+
+    private static final int MIN_WIDTH = 8;
+    private static final double DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private double[][] levels;
+    private int[] sizes;
+    private int[] capacities;
+    private int retained;
+    private int totalCapacity;
+    private long count;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private boolean keepOdd;
+
+    public KllSketch() {
+        this(DEFAULT_K);
+    }
+
+    public KllSketch(int k) {
+        if (k < MIN_WIDTH) {
+            throw new IllegalArgumentException("k must be at least " + MIN_WIDTH);
+        }
+        this.k = k;
+        this.levels = new double[][] { new double[k] };
+        this.sizes = new int[1];
+        this.capacities = new int[] { k };
+        this.totalCapacity = k;
+    }
+
+    /**
+     * Adds a value; NaN is ignored.
+     */
+    public void update(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        append(0, value);
+        count++;
+        min = count == 1 ? value : Math.min(min, value);
+        max = count == 1 ? value : Math.max(max, value);
+        if (retained > totalCapacity) {
+            compress();
+        }
+    }
+
+    /**
+     * Folds another sketch's values into this one; {@code other} is unchanged.
+     */
+    public void merge(KllSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        while (sizes.length < other.sizes.length) {
+            addLevel();
+        }
+        for (int h = 0; h < other.sizes.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        min = count == 0 ? other.min : Math.min(min, other.min);
+        max = count == 0 ? other.max : Math.max(max, other.max);
+        count += other.count;
+        compress();
+    }
+
+    /**
+     * Approximate value at normalized rank {@code q} in [0, 1]: the smallest
+     * retained value with at least {@code q * count} inputs at or below it.
+     * NaN when empty.
+     */
+    public double quantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (q <= 0) {
+            return min;
+        }
+        if (q >= 1) {
+            return max;
+        }
+
+        // Walk the sorted levels together in value order
+        int depth = sizes.length;
+        int[] next = new int[depth];
+        for (int h = 0; h < depth; h++) {
+            Arrays.sort(levels[h], 0, sizes[h]);
+        }
+        double target = q * count;
+        long weight = 0;
+        while (true) {
+            int lowest = -1;
+            for (int h = 0; h < depth; h++) {
+                if (next[h] < sizes[h] && (lowest < 0 || levels[h][next[h]] < levels[lowest][next[lowest]])) {
+                    lowest = h;
+                }
+            }
+            if (lowest < 0) {
+                return max;
+            }
+            double value = levels[lowest][next[lowest]++];
+            weight += 1L << lowest;
+            if (weight >= target) {
+                return value;
+            }
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public double min() {
+        return min;
+    }
+
+    public double max() {
+        return max;
+    }
+
+    /** Values currently held across all levels. */
+    public int retained() {
+        return retained;
+    }
+
+    private void addLevel() {
+        int level = sizes.length;
+        levels = Arrays.copyOf(levels, level + 1);
+        sizes = Arrays.copyOf(sizes, level + 1);
+        levels[level] = new double[MIN_WIDTH];
+        capacities = new int[level + 1];
+        totalCapacity = 0;
+        for (int h = 0; h <= level; h++) {
+            capacities[h] = Math.max(MIN_WIDTH, (int) Math.ceil(k * Math.pow(DECAY, level - h)));
+            totalCapacity += capacities[h];
+        }
+    }
+
+    private void append(int level, double value) {
+        if (level == sizes.length) {
+            addLevel();
+        }
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], sizes[level] * 2);
+        }
+        levels[level][sizes[level]++] = value;
+        retained++;
+    }
+
+    // Compacts the lowest full level while the sketch is over capacity; some level always is
+    private void compress() {
+        while (retained > totalCapacity) {
+            int h = 0;
+            while (sizes[h] < capacities[h]) {
+                h++;
+            }
+            compact(h);
+        }
+    }
+
+    private void compact(int level) {
+        double[] items = levels[level];
+        int size = sizes[level];
+        Arrays.sort(items, 0, size);
+        int offset = keepOdd ? 1 : 0;
+        keepOdd = !keepOdd;
+        int pairs = size / 2;
+        retained -= size;
+        for (int i = 0; i < pairs; i++) {
+            append(level + 1, items[2 * i + offset]);
+        }
+        // An odd item out (the largest) stays behind at its current weight
+        if ((size & 1) == 1) {
+            items[0] = items[size - 1];
+            sizes[level] = 1;
+            retained++;
+        } else {
+            sizes[level] = 0;
+        }
+    }
+}
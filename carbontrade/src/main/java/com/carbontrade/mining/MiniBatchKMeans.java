@@ -0,0 +1,259 @@
+package com.carbontrade.mining;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mini-batch k-means (Sculley, 2010) for rows that arrive from a cursor.
+ * <p>
+ * A first pass only {@link #sample}s: it keeps a uniform reservoir of rows
+ * from the whole stream, and {@link #seed()} runs k-means++ on it, so the
+ * seeds do not all come from the first users or days of the scan.
+ * <p>
+ * Training passes {@link #add} rows into a window of {@link #WINDOW_BATCHES}
+ * batches. The cursor is ordered by user and date, so consecutive rows are
+ * far from independent; a full window is shuffled before it is cut into
+ * batches. Each batch is assigned to the nearest centroids, and every point
+ * then pulls its centroid towards it with a per-centroid learning rate of
+ * 1 / (points seen by that centroid). At the end of each pass
+ * ({@link #endEpoch()}) those counts are cut back to one batch's worth, so
+ * the rate does not decay towards zero over the passes and a small shift
+ * means the centroids have settled rather than stopped being allowed to
+ * move. Memory is the centroids plus one window, independent of how many
+ * rows are streamed.
+ * <p>
+ * The caller replays the cursor once per epoch until {@link #converged()}
+ * or an epoch limit, then scores rows in a further pass against the final
+ * {@link #centroids()} with {@link #distance}.
+ */
+public final class MiniBatchKMeans {
+
+    /** Batches shuffled together; also the reservoir size, in batches. */
+    static final int WINDOW_BATCHES = 16;
+
+    private final int k;
+    private final int columns;
+    private final int batchSize;
+    private final double tolerance;
+    private final long seed;
+    private final Random random;
+
+    // Reservoir while sampling, shuffle window while training
+    private final double[] window;
+    private final int windowRows;
+    private int filled;
+    private long sampled;
+
+    private double[] centroids;
+    private long[] counts;
+    private int clusters;
+    private double[] epochStart;
+
+    private int epochs;
+    private long batches;
+    private boolean converged;
+    private final List<Double> shifts = new ArrayList<>();
+
+    public MiniBatchKMeans(int k, int columns, int batchSize, double tolerance, long seed) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        if (batchSize < k) {
+            throw new IllegalArgumentException("Batch size must be at least k");
+        }
+        this.k = k;
+        this.columns = columns;
+        this.batchSize = batchSize;
+        this.tolerance = tolerance;
+        this.seed = seed;
+        this.random = new Random(seed);
+        this.windowRows = batchSize * WINDOW_BATCHES;
+        this.window = new double[windowRows * columns];
+    }
+
+    /**
+     * Offers one row (copied) to the seeding reservoir (Vitter's algorithm R).
+     */
+    public void sample(double[] row) {
+        if (centroids != null) {
+            throw new IllegalStateException("Already seeded");
+        }
+        sampled++;
+        int slot;
+        if (filled < windowRows) {
+            slot = filled++;
+        } else {
+            long r = (long) (random.nextDouble() * sampled);
+            if (r >= windowRows) {
+                return;
+            }
+            slot = (int) r;
+        }
+        System.arraycopy(row, 0, window, slot * columns, columns);
+    }
+
+    /**
+     * Seeds the centroids with k-means++ on the reservoir. Returns false if
+     * nothing was sampled, in which case there is nothing to cluster.
+     */
+    public boolean seed() {
+        if (centroids != null) {
+            return true;
+        }
+        if (filled == 0) {
+            return false;
+        }
+        clusters = Math.min(k, filled);
+        KMeans.Result init = KMeans.fit(window, filled, columns, clusters, 1, seed, false);
+        centroids = init.centroids();
+        counts = new long[clusters];
+        epochStart = centroids.clone();
+        filled = 0;
+        return true;
+    }
+
+    /**
+     * Adds one row (copied) to the current training pass.
+     */
+    public void add(double[] row) {
+        if (centroids == null) {
+            throw new IllegalStateException("Call seed() first");
+        }
+        System.arraycopy(row, 0, window, filled * columns, columns);
+        filled++;
+        if (filled == windowRows) {
+            drainWindow();
+        }
+    }
+
+    /**
+     * Closes a training pass: trains on the rows still in the window, compares
+     * the centroids with those at the start of the pass and cuts back the
+     * per-centroid counts. Returns the relative shift.
+     */
+    public double endEpoch() {
+        if (centroids == null) {
+            throw new IllegalStateException("Call seed() first");
+        }
+        drainWindow();
+        epochs++;
+
+        double moved = 0;
+        double norm = 0;
+        for (int x = 0; x < centroids.length; x++) {
+            double d = centroids[x] - epochStart[x];
+            moved += d * d;
+            norm += centroids[x] * centroids[x];
+        }
+        double shift = Math.sqrt(moved) / Math.max(Math.sqrt(norm), 1e-12);
+        shifts.add(shift);
+        converged = shift < tolerance;
+        epochStart = centroids.clone();
+
+        // Earlier passes weigh as one batch in the next one
+        long carried = Math.max(1, batchSize / clusters);
+        for (int c = 0; c < clusters; c++) {
+            counts[c] = Math.min(counts[c], carried);
+        }
+        return shift;
+    }
+
+    public boolean converged() {
+        return converged;
+    }
+
+    /**
+     * Distance from a row to its nearest centroid, with the current centroids.
+     */
+    public double distance(double[] row) {
+        return Math.sqrt(nearestSquared(row, 0));
+    }
+
+    public boolean isInitialized() {
+        return centroids != null;
+    }
+
+    /** Clusters actually formed; fewer than k if the data had fewer rows. */
+    public int clusters() {
+        return clusters;
+    }
+
+    public double[][] centroids() {
+        double[][] result = new double[clusters][];
+        for (int c = 0; c < clusters; c++) {
+            result[c] = Arrays.copyOfRange(centroids, c * columns, (c + 1) * columns);
+        }
+        return result;
+    }
+
+    /** Completed training passes, not counting the seeding pass. */
+    public int epochs() {
+        return epochs;
+    }
+
+    public long batches() {
+        return batches;
+    }
+
+    /** Relative centroid shift of each completed epoch. */
+    public List<Double> shifts() {
+        return List.copyOf(shifts);
+    }
+
+    // Shuffles the buffered rows (Fisher-Yates) and trains on them batch by batch
+    private void drainWindow() {
+        double[] swap = new double[columns];
+        for (int i = filled - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            System.arraycopy(window, i * columns, swap, 0, columns);
+            System.arraycopy(window, j * columns, window, i * columns, columns);
+            System.arraycopy(swap, 0, window, j * columns, columns);
+        }
+        for (int from = 0; from < filled; from += batchSize) {
+            step(from, Math.min(filled, from + batchSize));
+        }
+        filled = 0;
+    }
+
+    private void step(int from, int to) {
+        batches++;
+        // Assign the whole batch against the same centroids, then move them
+        int[] assigned = new int[to - from];
+        for (int i = from; i < to; i++) {
+            assigned[i - from] = nearest(window, i * columns);
+        }
+        for (int i = from; i < to; i++) {
+            int c = assigned[i - from];
+            counts[c]++;
+            double eta = 1.0 / counts[c];
+            int base = c * columns;
+            int p = i * columns;
+            for (int j = 0; j < columns; j++) {
+                centroids[base + j] += eta * (window[p + j] - centroids[base + j]);
+            }
+        }
+    }
+
+    private int nearest(double[] row, int offset) {
+        double best = Double.MAX_VALUE;
+        int bestCluster = 0;
+        for (int c = 0; c < clusters; c++) {
+            double sum = DistanceKernels.squaredDistance(row, offset, centroids, c * columns, columns);
+            if (sum < best) {
+                best = sum;
+                bestCluster = c;
+            }
+        }
+        return bestCluster;
+    }
+
+    private double nearestSquared(double[] row, int offset) {
+        double best = Double.MAX_VALUE;
+        for (int c = 0; c < clusters; c++) {
+            best = Math.min(best, DistanceKernels.squaredDistance(row, offset, centroids, c * columns, columns));
+        }
+        return best;
+    }
+}
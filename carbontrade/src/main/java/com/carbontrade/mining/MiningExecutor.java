@@ -0,0 +1,265 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.dto.MiningExecutorStats;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool for analysis jobs, in place of Spring's default async
+ * executor and its unbounded queue.
+ * <ul>
+ * <li>{@code mining.executor.threads} workers (0 = number of cores) and a
+ * queue of {@code mining.executor.queue-capacity}; when both are full
+ * {@link #submit} throws {@link RejectedExecutionException}.</li>
+ * <li>A job submitted with a key equal to one that is queued or running
+ * joins it instead of running again.</li>
+ * <li>Each caller gets its own future. Cancelling it detaches that caller;
+ * once no caller is left the job is cancelled, dequeued if it has not
+ * started and interrupted if it has.</li>
+ * <li>A job still unfinished after {@code mining.executor.deadline-seconds}
+ * is cancelled the same way and its callers fail with a
+ * {@link TimeoutException}.</li>
+ * <li>Long jobs without a deadline ({@link #submitBatch}) run on separate
+ * workers, {@code mining.executor.batch-threads} of them with a queue of
+ * {@code mining.executor.batch-queue-capacity}, so a batch analysis never
+ * holds a worker that deadline-bound requests are waiting for.</li>
+ * </ul>
+ * Jobs notice an interrupt between k-means iterations and mini-batch passes.
+ */
+@Component
+public class MiningExecutor {
+
+    private final ThreadPoolExecutor pool;
+    private final ThreadPoolExecutor batchPool;
+    private final ScheduledExecutorService timers;
+    private final long deadlineSeconds;
+    private final Map<Object, Job<?>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    @Autowired
+    public MiningExecutor(@Value("${mining.executor.threads:0}") int threads,
+            @Value("${mining.executor.queue-capacity:64}") int queueCapacity,
+            @Value("${mining.executor.deadline-seconds:120}") long deadlineSeconds,
+            @Value("${mining.executor.batch-threads:2}") int batchThreads,
+            @Value("${mining.executor.batch-queue-capacity:4}") int batchQueueCapacity) {
+        this(newPool("mining-", threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), queueCapacity),
+                newPool("mining-batch-job-", Math.max(1, batchThreads), batchQueueCapacity), deadlineSeconds);
+    }
+
+    MiningExecutor(ThreadPoolExecutor pool, ThreadPoolExecutor batchPool, long deadlineSeconds) {
+        this.pool = pool;
+        this.batchPool = batchPool;
+        this.timers = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mining-deadlines");
+            t.setDaemon(true);
+            return t;
+        });
+        this.deadlineSeconds = deadlineSeconds;
+    }
+
+    static ThreadPoolExecutor newPool(String name, int workers, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                    Thread t = new Thread(r, name + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timers.shutdownNow();
+        pool.shutdownNow();
+        batchPool.shutdownNow();
+    }
+
+    /**
+     * Runs {@code work} under the deadline, joining an in-flight job with an
+     * equal {@code key} (null never coalesces).
+     *
+     * @throws RejectedExecutionException when every worker is busy and the queue is full
+     */
+    public <T> CompletableFuture<T> submit(Object key, Supplier<T> work) {
+        return submit(key, work, pool, true);
+    }
+
+    /**
+     * Runs a long job that is cancelled another way, such as a streamed batch
+     * analysis, on the batch workers and without a deadline. Never coalesces.
+     *
+     * @throws RejectedExecutionException when every batch worker is busy and the batch queue is full
+     */
+    public <T> CompletableFuture<T> submitBatch(Supplier<T> work) {
+        return submit(null, work, batchPool, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> submit(Object key, Supplier<T> work, ThreadPoolExecutor workers,
+            boolean withDeadline) {
+        while (true) {
+            Job<T> job = new Job<>(key, work, workers);
+            Job<T> existing = key != null ? (Job<T>) inFlight.putIfAbsent(key, job) : null;
+            if (existing != null) {
+                CompletableFuture<T> joined = existing.subscribe();
+                if (joined != null) {
+                    coalesced.incrementAndGet();
+                    return joined;
+                }
+                inFlight.remove(key, existing); // finished while we looked; start a new one
+                continue;
+            }
+
+            CompletableFuture<T> caller = job.subscribe();
+            // Armed before the job can run, so finish() always sees the timer it has to cancel
+            if (withDeadline && deadlineSeconds > 0) {
+                job.timer = timers.schedule(() -> {
+                    if (job.cancel(new TimeoutException("Mining job exceeded its " + deadlineSeconds
+                            + "s deadline"))) {
+                        timedOut.incrementAndGet();
+                    }
+                }, deadlineSeconds, TimeUnit.SECONDS);
+            }
+            try {
+                workers.execute(job);
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                // Callers that joined through inFlight meanwhile fail too rather than wait forever
+                job.result.completeExceptionally(e);
+                job.finish();
+                throw e;
+            }
+            return caller;
+        }
+    }
+
+    public MiningExecutorStats stats() {
+        return new MiningExecutorStats(pool.getMaximumPoolSize(), pool.getActiveCount(), pool.getQueue().size(),
+                pool.getQueue().remainingCapacity(), pool.getCompletedTaskCount(), coalesced.get(), rejected.get(),
+                cancelled.get(), timedOut.get(), batchPool.getActiveCount(), batchPool.getQueue().size());
+    }
+
+    private final class Job<T> implements Runnable {
+
+        private final Object key;
+        private final Supplier<T> work;
+        private final ThreadPoolExecutor workers;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private int callers;        // guarded by this
+        private Thread runner;      // guarded by this
+        private volatile ScheduledFuture<?> timer;
+
+        Job(Object key, Supplier<T> work, ThreadPoolExecutor workers) {
+            this.key = key;
+            this.work = work;
+            this.workers = workers;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (result.isDone()) {
+                    return; // cancelled while queued
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                result.complete(work.get());
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                Thread.interrupted(); // a cancel that raced completion must not leak into the next job
+                finish();
+            }
+        }
+
+        /**
+         * A future for one more caller, or null if the job is already over.
+         */
+        CompletableFuture<T> subscribe() {
+            synchronized (this) {
+                if (result.isDone()) {
+                    return null;
+                }
+                callers++;
+            }
+            CompletableFuture<T> caller = new CompletableFuture<>();
+            result.whenComplete((value, error) -> {
+                if (error != null) {
+                    caller.completeExceptionally(error);
+                } else {
+                    caller.complete(value);
+                }
+            });
+            caller.whenComplete((value, error) -> {
+                if (caller.isCancelled()) {
+                    leave();
+                }
+            });
+            return caller;
+        }
+
+        private void leave() {
+            boolean last;
+            synchronized (this) {
+                last = --callers == 0;
+            }
+            if (last && cancel(new CancellationException("Every caller of the mining job went away"))) {
+                cancelled.incrementAndGet();
+            }
+        }
+
+        /**
+         * Fails the job with {@code reason} unless it already finished; returns
+         * whether it did.
+         */
+        boolean cancel(Throwable reason) {
+            synchronized (this) {
+                if (!result.completeExceptionally(reason)) {
+                    return false;
+                }
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+            workers.remove(this);
+            finish();
+            return true;
+        }
+
+        void finish() {
+            if (key != null) {
+                inFlight.remove(key, this);
+            }
+            ScheduledFuture<?> t = timer;
+            if (t != null) {
+                t.cancel(false);
+            }
+        }
+    }
+}
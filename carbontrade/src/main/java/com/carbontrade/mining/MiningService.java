@@ -1,11 +1,16 @@
 package com.carbontrade.mining;
 
 import com.carbontrade.mining.dto.AnomalyPoint;
+import com.carbontrade.mining.dto.BatchAnalysisResult;
 import com.carbontrade.mining.dto.ClusterResult;
+import com.carbontrade.mining.dto.ConvergenceReport;
 import com.carbontrade.mining.dto.Insights;
+import com.carbontrade.mining.dto.KSelectionReport;
+import com.carbontrade.model.ClusterModel;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.tribuo.Dataset;
-import org.tribuo.Example;
 import org.tribuo.Feature;
 import org.tribuo.MutableDataset;
 import org.tribuo.clustering.ClusterID;
@@ -19,44 +24,429 @@ import org.tribuo.impl.ArrayExample;
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
 @Service
 public class MiningService {
 
+    /**
+     * Clustering implementation: the built-in {@link KMeans} or the Tribuo
+     * trainer, kept for comparison.
+     */
+    public enum Engine { NATIVE, TRIBUO }
+
+    /**
+     * Use of the user's stored {@link ClusterModelService} model: warm-start
+     * from it (default), ignore it and seed afresh, or only score the rows
+     * against it. Without a stored model every mode trains from a fresh seed.
+     */
+    public enum ModelMode { WARM, COLD, SCORE }
+
+    /**
+     * Rows reported as anomalies: those scoring at or above {@code percentile}
+     * (0-100), at most {@code topN} of them (0 = no limit), highest first.
+     */
+    public record AnomalySelection(double percentile, int topN) {
+
+        public static final AnomalySelection DEFAULT = new AnomalySelection(85, 0);
+    }
+
+    /** Passed as k to choose it from the data; see {@link KSelection}. */
+    public static final int AUTO_K = 0;
+
+    private static final int MAX_ITERATIONS = 100;
+    // Streamed analyses cannot keep every anomaly; without a topN they report this many
+    private static final int MAX_STREAMED_ANOMALIES = 50;
+    // Trained models of a batch analysis stored per transaction
+    static final int MODELS_PER_SAVE = 256;
+    // Fixed so that repeated analyses of the same data give the same clusters
+    private static final long SEED = 42L;
+
     private final FeatureEngineeringService featureEngineering;
+    private final ClusterModelService clusterModels;
+    private final MiningExecutor executor;
+    private final AnalysisCache analysisCache;
+    private final Engine engine;
+    private final ForkJoinPool batchPool;
+    private final int maxBatchInFlight;
+    private final int miniBatchSize;
+    private final int miniBatchMaxEpochs;
+    private final double miniBatchTolerance;
+    private final int maxAutoK;
+    private final int maxSilhouetteRows;
+    private final double eventPercentile;
 
-    public MiningService(FeatureEngineeringService featureEngineering) {
+    public MiningService(FeatureEngineeringService featureEngineering, ClusterModelService clusterModels,
+            MiningExecutor executor, AnalysisCache analysisCache,
+            @Value("${mining.kmeans.engine:native}") String engine,
+            @Value("${mining.analyze.batch-parallelism:0}") int batchParallelism,
+            @Value("${mining.minibatch.batch-size:1024}") int miniBatchSize,
+            @Value("${mining.minibatch.max-epochs:10}") int miniBatchMaxEpochs,
+            @Value("${mining.minibatch.tolerance:0.001}") double miniBatchTolerance,
+            @Value("${mining.kselection.max-k:10}") int maxAutoK,
+            @Value("${mining.kselection.max-silhouette-rows:2000}") int maxSilhouetteRows,
+            @Value("${mining.anomaly.events.percentile:99}") double eventPercentile) {
         this.featureEngineering = featureEngineering;
+        this.clusterModels = clusterModels;
+        this.executor = executor;
+        this.analysisCache = analysisCache;
+        this.miniBatchSize = miniBatchSize;
+        this.miniBatchMaxEpochs = miniBatchMaxEpochs;
+        this.miniBatchTolerance = miniBatchTolerance;
+        this.maxAutoK = maxAutoK;
+        KSelection.checkSampleSize(maxSilhouetteRows);
+        this.maxSilhouetteRows = maxSilhouetteRows;
+        this.eventPercentile = eventPercentile;
+        this.engine = Engine.valueOf(engine.trim().toUpperCase(Locale.ROOT));
+        int parallelism = batchParallelism > 0 ? batchParallelism : Runtime.getRuntime().availableProcessors();
+        this.batchPool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("mining-batch-" + t.getPoolIndex());
+            return t;
+        }, null, false);
+        // Scanned-but-unanalyzed users are held in memory; keep a few per worker
+        this.maxBatchInFlight = parallelism * 4;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batchPool.shutdownNow();
+    }
+
+    /**
+     * @param trends also cluster on the rolling 7/30-day and EWMA columns
+     */
+    public CompletableFuture<Insights> analyze(Long userId, LocalDate start, LocalDate end,
+            int k, boolean trends) {
+        return analyze(userId, start, end, k, trends, ModelMode.WARM, AnomalySelection.DEFAULT);
+    }
+
+    /**
+     * @param k clusters, or {@link #AUTO_K} to pick k by silhouette and Davies-Bouldin
+     * @param model how to use the user's stored model for this granularity and k;
+     *              ignored when k is chosen automatically
+     * @param anomalies which rows to report as anomalies
+     * @return the stored result while the user's data and models are
+     *         unchanged (see {@link AnalysisCache}); otherwise completes on
+     *         the {@link MiningExecutor}, joining an identical request already
+     *         in flight rather than repeating it
+     * @throws RejectedExecutionException when the mining queue is full
+     */
+    public CompletableFuture<Insights> analyze(Long userId, LocalDate start, LocalDate end,
+            int k, boolean trends, ModelMode model, AnomalySelection anomalies) {
+        List<Object> request = analysisRequest(userId, start, end, k, trends, model, anomalies);
+        AnalysisCache.Versions versions = analysisCache.versions(userId);
+        Insights stored = analysisCache.get(request, versions);
+        if (stored != null) {
+            return CompletableFuture.completedFuture(stored);
+        }
+        // Versions are part of the key so that a request never joins a job reading older data
+        return executor.submit(List.of(request, versions), () -> {
+            Insights insights = analyze(featureEngineering.buildDailyFeatures(userId, start, end, trends), k, true,
+                    model, anomalies, trained -> clusterModels.saveAll(List.of(trained)));
+            analysisCache.put(request, userId, versions, insights);
+            return insights;
+        });
+    }
+
+    /**
+     * ETag that {@link #analyze} would give this request now, from in-memory
+     * versions only.
+     */
+    public String analysisETag(Long userId, LocalDate start, LocalDate end, int k, boolean trends,
+            ModelMode model, AnomalySelection anomalies) {
+        return analysisCache.etag(analysisRequest(userId, start, end, k, trends, model, anomalies),
+                analysisCache.versions(userId));
+    }
+
+    private static List<Object> analysisRequest(Long userId, LocalDate start, LocalDate end, int k, boolean trends,
+            ModelMode model, AnomalySelection anomalies) {
+        return List.of("analyze", userId, start, end, k, trends, model, anomalies);
+    }
+
+    /**
+     * Mini-batch k-means over daily feature rows streamed from the rollup, for
+     * one user or (userId null) every user at once. Only the centroids and a
+     * window of batches are held in memory. The rows are read in passes: one
+     * to draw a reservoir sample the centroids are seeded from, training
+     * passes until the centroids stop moving or
+     * {@code mining.minibatch.max-epochs}, and a last one that scores every
+     * row against the final centroids. Cluster labels are not returned (there
+     * may be millions of rows). Anomalies are the rows furthest from their
+     * centroid, at most {@code topN} (default 50), above a percentile
+     * estimated by a {@link KllSketch} over the scoring pass. Trend columns
+     * are not available in this mode. Runs on the {@link MiningExecutor} like
+     * {@link #analyze}.
+     */
+    public CompletableFuture<Insights> analyzeMiniBatch(Long userId, LocalDate start, LocalDate end, int k,
+            AnomalySelection anomalies) {
+        List<Object> key = Arrays.asList("minibatch", userId, start, end, k, anomalies);
+        return executor.submit(key, () -> miniBatch(userId, start, end, k, anomalies));
     }
 
-    @org.springframework.scheduling.annotation.Async
-    public java.util.concurrent.CompletableFuture<Insights> analyze(Long userId, LocalDate start, LocalDate end,
-            int k) {
+    private Insights miniBatch(Long userId, LocalDate start, LocalDate end, int k, AnomalySelection anomalies) {
+        Collection<Long> users = userId != null ? List.of(userId) : null;
+        int columns = featureEngineering.streamedColumns();
+        int batchSize = Math.max(miniBatchSize, k);
+        MiniBatchKMeans kmeans = new MiniBatchKMeans(k, columns, batchSize, miniBatchTolerance, SEED);
+
+        featureEngineering.streamDailyFeatures(users, start, end, columns, (user, date, features) ->
+                kmeans.sample(features));
+        if (!kmeans.seed()) {
+            return new Insights(null, List.of(), 0); // no data in the range
+        }
+
+        for (int epoch = 0; epoch < miniBatchMaxEpochs && !kmeans.converged(); epoch++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Mini-batch analysis cancelled after " + epoch + " epochs");
+            }
+            featureEngineering.streamDailyFeatures(users, start, end, columns, (user, date, features) ->
+                    kmeans.add(features));
+            kmeans.endEpoch();
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Mini-batch analysis cancelled before scoring");
+        }
+
+        // Scored against the final centroids only, so every row is measured the same way
+        int topN = anomalies.topN() > 0 ? anomalies.topN() : MAX_STREAMED_ANOMALIES;
+        TopK<AnomalyPoint> top = new TopK<>(topN);
+        KllSketch scores = new KllSketch();
+        long[] rows = {0};
+        double[] squared = {0};
+        featureEngineering.streamDailyFeatures(users, start, end, columns, (user, date, features) -> {
+            double score = kmeans.distance(features);
+            scores.update(score);
+            squared[0] += score * score;
+            rows[0]++;
+            if (top.accepts(score)) {
+                top.offer(score, new AnomalyPoint(userId == null ? user : null, date, score));
+            }
+        });
+
+        double threshold = rows[0] > 0 ? scores.quantile(anomalies.percentile() / 100.0) : Double.NaN;
+        List<AnomalyPoint> reported = top.toSortedList().stream()
+                .filter(a -> Double.isNaN(threshold) || a.score() >= threshold)
+                .toList();
+        Insights insights = new Insights(new ClusterResult(kmeans.clusters(), null, kmeans.centroids()), reported,
+                (int) Math.min(rows[0], Integer.MAX_VALUE));
+        insights.setAnomalyThreshold(Double.isNaN(threshold) ? null : threshold);
+        insights.setConvergence(ConvergenceReport.miniBatch(kmeans.converged(), kmeans.epochs(), kmeans.batches(),
+                batchSize, rows[0], rows[0] > 0 ? squared[0] / rows[0] : 0.0, kmeans.shifts()));
+        return insights;
+    }
+
+    /**
+     * {@link #analyzeBatch} on the {@link MiningExecutor}'s batch workers, so a
+     * request thread can stream results while the scan runs without taking a
+     * worker from {@code /analyze}. Never coalesced and not subject to the
+     * deadline; cancelling the future stops the scan.
+     *
+     * @throws RejectedExecutionException when the batch queue is full
+     */
+    public CompletableFuture<Void> analyzeBatchAsync(Collection<Long> userIds, LocalDate start, LocalDate end,
+            int k, boolean trends, Consumer<BatchAnalysisResult> sink) {
+        return executor.submitBatch(() -> {
+            analyzeBatch(userIds, start, end, k, trends, sink);
+            return null;
+        });
+    }
+
+    /**
+     * Analyzes several users from a paged scan of the rollup (see
+     * {@link FeatureEngineeringService#scanDailyFeatures}). Each user's
+     * features are built and clustered on the batch pool while later users
+     * are handed off; waiting for a free slot happens between pages' reads,
+     * never with a statement open. Trained models are collected and stored by
+     * the scanning thread, in transactions of up to {@link #MODELS_PER_SAVE},
+     * only while none of its statements is open. {@code sink} receives one
+     * result per user, in completion order, from pool threads, so it must be
+     * thread-safe. If the sink throws (e.g. the client went away) the scan
+     * stops and queued users are skipped. Returns once every handed-off user
+     * has been reported.
+     *
+     * @param userIds users to analyze, or null for every user with data in the range
+     */
+    public void analyzeBatch(Collection<Long> userIds, LocalDate start, LocalDate end, int k, boolean trends,
+            Consumer<BatchAnalysisResult> sink) {
+        Semaphore inFlight = new Semaphore(maxBatchInFlight);
+        AtomicReference<RuntimeException> sinkFailure = new AtomicReference<>();
+        BlockingQueue<ClusterModel> trained = new LinkedBlockingQueue<>();
+
+        try {
+            featureEngineering.scanDailyFeatures(userIds, start, end, trends, (userId, features) -> {
+                if (sinkFailure.get() != null) {
+                    throw new CancellationException("Batch analysis stopped: " + sinkFailure.get().getMessage());
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Batch analysis cancelled");
+                }
+                if (trained.size() >= MODELS_PER_SAVE) {
+                    saveTrained(trained);
+                }
+                inFlight.acquireUninterruptibly();
+                Runnable task = () -> {
+                    try {
+                        if (sinkFailure.get() != null) {
+                            return;
+                        }
+                        BatchAnalysisResult result;
+                        try {
+                            // Sequential per user: the pool already spreads users across cores
+                            result = BatchAnalysisResult.of(userId, analyze(features.get(), k, false, ModelMode.WARM,
+                                    AnomalySelection.DEFAULT, trained::add));
+                        } catch (RuntimeException e) {
+                            result = BatchAnalysisResult.failed(userId, e.getMessage());
+                        }
+                        sink.accept(result);
+                    } catch (RuntimeException e) {
+                        sinkFailure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                };
+                try {
+                    batchPool.execute(task);
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
+            });
+        } finally {
+            // Wait for every handed-off user
+            inFlight.acquireUninterruptibly(maxBatchInFlight);
+        }
+        saveTrained(trained);
+        if (sinkFailure.get() != null) {
+            throw sinkFailure.get();
+        }
+    }
+
+    private void saveTrained(BlockingQueue<ClusterModel> trained) {
+        List<ClusterModel> models = new ArrayList<>(trained.size());
+        trained.drainTo(models);
+        clusterModels.saveAll(models);
+    }
 
-        var rows = featureEngineering.buildDailyFeatures(userId, start, end);
-        if (rows.isEmpty()) {
-            return java.util.concurrent.CompletableFuture.completedFuture(new Insights(null, List.of(), 0));
+    /**
+     * @param trainedModels receives the model to store when one was (re)trained
+     */
+    private Insights analyze(FeatureMatrix matrix, int k, boolean parallel, ModelMode model,
+            AnomalySelection anomalies, Consumer<ClusterModel> trainedModels) {
+        if (matrix.isEmpty()) {
+            return new Insights(null, List.of(), 0);
         }
 
-        // Convert data to Tribuo format
+        // --- KMEANS ---
+        Clustering clustering;
+        if (k == AUTO_K) {
+            clustering = clusterAutomatically(matrix, parallel);
+        } else {
+            k = Math.min(k, matrix.rows());
+            clustering = engine == Engine.TRIBUO
+                    ? clusterWithTribuo(matrix, k, parallel ? 10 : 1)
+                    : clusterNatively(matrix, k, parallel, model);
+        }
+        int[] clusters = clustering.labels();
+        double[][] centroids = clustering.centroids();
+
+        ClusterResult clusterResult = new ClusterResult(centroids.length, clusters, centroids);
+
+        // --- ANOMALY DETECTION ---
+        // Distance to the nearest centroid, thresholded at a sketched percentile (top ~15% by default)
+        double[] scores = new double[matrix.rows()];
+        KllSketch sketch = scoreRows(matrix, centroids, scores, parallel);
+        double threshold = sketch.quantile(anomalies.percentile() / 100.0);
+        if (clustering.trained() != null) {
+            // Stored with the cut that AnomalyEventService applies to newly committed days
+            trainedModels.accept(clusterModels.snapshot(matrix, clustering.trained(),
+                    sketch.quantile(eventPercentile / 100.0)));
+        }
+
+        TopK<AnomalyPoint> top = new TopK<>(anomalies.topN() > 0 ? anomalies.topN() : matrix.rows());
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] >= threshold && top.accepts(scores[i])) {
+                top.offer(scores[i], new AnomalyPoint(matrix.date(i), scores[i]));
+            }
+        }
+
+        Insights insights = new Insights(clusterResult, top.toSortedList(), matrix.rows());
+        insights.setAnomalyThreshold(threshold);
+        insights.setConvergence(clustering.report());
+        insights.setSelection(clustering.selection());
+        return insights;
+    }
+
+    /**
+     * {@code trained} is the native result to store as the user's model, or
+     * null when nothing was (re)trained.
+     */
+    private record Clustering(int[] labels, double[][] centroids, ConvergenceReport report,
+                              KSelectionReport selection, KMeans.Result trained) {
+
+        Clustering(int[] labels, double[][] centroids, ConvergenceReport report) {
+            this(labels, centroids, report, null, null);
+        }
+    }
+
+    // Candidates always use the native engine from a fresh seed; the winner is stored like any trained model
+    private Clustering clusterAutomatically(FeatureMatrix matrix, boolean parallel) {
+        KSelection.Outcome outcome = KSelection.select(matrix.data(), matrix.rows(), matrix.columns(), maxAutoK,
+                MAX_ITERATIONS, SEED, maxSilhouetteRows, parallel);
+        if (outcome == null) {
+            // One or two rows: nothing to compare
+            Clustering single = clusterNatively(matrix, 1, parallel, ModelMode.COLD);
+            return new Clustering(single.labels(), single.centroids(), single.report(),
+                    new KSelectionReport(1, 0, List.of()), single.trained());
+        }
+
+        KMeans.Result result = outcome.chosen();
+        return new Clustering(result.assignments(), result.centroidArrays(),
+                ConvergenceReport.full(result.converged(), result.iterations(), matrix.rows(), result.inertia()),
+                new KSelectionReport(result.k(), outcome.silhouetteRows(), outcome.candidates()), result);
+    }
+
+    // Stored models apply to the native engine only; every trained result is returned for storing
+    private Clustering clusterNatively(FeatureMatrix matrix, int k, boolean parallel, ModelMode model) {
+        double[] stored = model == ModelMode.COLD ? null : clusterModels.centroidsFor(matrix, k).orElse(null);
+        if (stored != null && model == ModelMode.SCORE) {
+            KMeans.Result result = KMeans.assign(matrix.data(), matrix.rows(), matrix.columns(), stored);
+            return new Clustering(result.assignments(), result.centroidArrays(),
+                    ConvergenceReport.full("scored", true, 0, matrix.rows(), result.inertia()));
+        }
+
+        KMeans.Result result = stored != null
+                ? KMeans.fitFrom(matrix.data(), matrix.rows(), matrix.columns(), stored, MAX_ITERATIONS, parallel)
+                : KMeans.fit(matrix.data(), matrix.rows(), matrix.columns(), k, MAX_ITERATIONS, SEED, parallel);
+        return new Clustering(result.assignments(), result.centroidArrays(),
+                ConvergenceReport.full(stored != null ? "warm" : "full", result.converged(), result.iterations(),
+                        matrix.rows(), result.inertia()), null, result);
+    }
+
+    private Clustering clusterWithTribuo(FeatureMatrix matrix, int k, int trainerThreads) {
+        // Convert data to Tribuo format; feature names are shared by every row
         ClusteringFactory factory = new ClusteringFactory();
         MutableDataset<ClusterID> dataset = new MutableDataset<>(
                 new SimpleDataSourceProvenance("Carbon Trade Data", OffsetDateTime.now(), factory),
                 factory);
 
-        for (FeatureEngineeringService.FeatureRow row : rows) {
-            double[] featureValues = row.features();
-            Example<ClusterID> example = new ArrayExample<>(new ClusterID(0));
-            for (int i = 0; i < featureValues.length; i++) {
-                example.add(new Feature("feature-" + i, featureValues[i]));
-            }
-            dataset.add(example);
+        String[] names = matrix.columnNames();
+        for (int row = 0; row < matrix.rows(); row++) {
+            dataset.add(new ArrayExample<>(new ClusterID(0), names, matrix.copyRow(row)));
         }
 
-        // --- KMEANS ---
-        KMeansTrainer trainer = new KMeansTrainer(k, 100, new L2Distance(), KMeansTrainer.Initialisation.RANDOM, 10,
-                System.currentTimeMillis());
+        KMeansTrainer trainer = new KMeansTrainer(k, MAX_ITERATIONS, new L2Distance(),
+                KMeansTrainer.Initialisation.RANDOM, trainerThreads, SEED);
         var model = trainer.train(dataset);
         var predictions = model.predict(dataset);
 
@@ -64,64 +454,47 @@ public class MiningService {
                 .mapToInt(p -> p.getOutput().getID())
                 .toArray();
 
-        // Get centroids from the trained model
+        // Get centroids from the trained model, back in matrix column order
         double[][] centroids = new double[k][];
         for (int i = 0; i < k; i++) {
-            var centroidExample = model.getCentroids().get(i);
-            double[] centroidFeatures = new double[centroidExample.size()];
-            int j = 0;
-            for (Feature f : centroidExample) {
-                centroidFeatures[j++] = f.getValue();
+            double[] centroidFeatures = new double[matrix.columns()];
+            for (Feature f : model.getCentroids().get(i)) {
+                int column = matrix.column(f.getName());
+                if (column >= 0) {
+                    centroidFeatures[column] = f.getValue();
+                }
             }
             centroids[i] = centroidFeatures;
         }
-
-        ClusterResult clusterResult = new ClusterResult(k, clusters, centroids);
-
-        // --- ANOMALY DETECTION ---
-        // Using statistical approach for anomaly detection
-        double[] scores = IntStream.range(0, rows.size())
-                .mapToDouble(i -> {
-                    double[] point = rows.get(i).features();
-                    return calculateAnomalyScore(point, centroids);
-                })
-                .toArray();
-
-        List<AnomalyPoint> anomalies = IntStream.range(0, scores.length)
-                .mapToObj(i -> new AnomalyPoint(rows.get(i).date(), scores[i]))
-                .toList();
-
-        // Top ~15% anomalies
-        double threshold = percentile(scores, 85);
-
-        List<AnomalyPoint> topAnomalies = anomalies.stream()
-                .filter(a -> a.score() >= threshold)
-                .sorted((a, b) -> Double.compare(b.score(), a.score()))
-                .toList();
-
-        return java.util.concurrent.CompletableFuture
-                .completedFuture(new Insights(clusterResult, topAnomalies, rows.size()));
-
+        return new Clustering(clusters, centroids, null);
     }
 
-    private double calculateAnomalyScore(double[] point, double[][] centroids) {
-        double minDistance = Double.MAX_VALUE;
-        for (double[] centroid : centroids) {
-            double distance = 0;
-            for (int i = 0; i < point.length; i++) {
-                distance += Math.pow(point[i] - centroid[i], 2);
+    /**
+     * Fills {@code scores} with each row's anomaly score and sketches their
+     * distribution, one sketch per row chunk merged in chunk order so the
+     * result does not depend on scheduling.
+     */
+    private KllSketch scoreRows(FeatureMatrix matrix, double[][] centroids, double[] scores, boolean parallel) {
+        double[] data = matrix.data();
+        int chunks = (scores.length + KMeans.CHUNK - 1) / KMeans.CHUNK;
+        IntStream range = IntStream.range(0, chunks);
+        List<KllSketch> partial = (parallel ? range.parallel() : range).mapToObj(chunk -> {
+            KllSketch sketch = new KllSketch();
+            int to = Math.min(scores.length, (chunk + 1) * KMeans.CHUNK);
+            for (int i = chunk * KMeans.CHUNK; i < to; i++) {
+                scores[i] = calculateAnomalyScore(data, matrix.offset(i), centroids);
+                sketch.update(scores[i]);
             }
-            distance = Math.sqrt(distance);
-            minDistance = Math.min(minDistance, distance);
-        }
-        return minDistance;
+            return sketch;
+        }).toList();
+
+        KllSketch merged = new KllSketch();
+        partial.forEach(merged::merge);
+        return merged;
     }
 
-    private double percentile(double[] data, double p) {
-        double[] copy = data.clone();
-        Arrays.sort(copy);
-        int index = (int) Math.ceil((p / 100.0) * (copy.length - 1));
-        index = Math.max(0, Math.min(index, copy.length - 1));
-        return copy[index];
+    // Distance from the row starting at data[offset] to its nearest centroid; also scores committed days
+    static double calculateAnomalyScore(double[] data, int offset, double[][] centroids) {
+        return Math.sqrt(DistanceKernels.nearestSquaredDistance(data, offset, centroids));
     }
 }
@@ -0,0 +1,99 @@
+package com.carbontrade.mining;
+
+/**
+ * Trailing 7- and 30-day sums, means and an exponentially weighted mean of
+ * daily kgCO2e, updated in O(1) per appended day.
+ * <p>
+ * The last 30 days are kept in a ring buffer: appending a day adds it to each
+ * window sum and subtracts the day that fell out. Every {@link #LONG_WINDOW}
+ * days the sums are recomputed from the buffer, so rounding from the running
+ * subtraction cannot accumulate. Windows that are not full yet (fewer days
+ * appended than the window) average over the days seen so far.
+ */
+public final class RollingDailyStats {
+
+    public static final int SHORT_WINDOW = 7;
+    public static final int LONG_WINDOW = 30;
+    /** Smoothing factor of the EWMA, 2 / (span + 1) with a 7-day span. */
+    public static final double EWMA_ALPHA = 2.0 / (SHORT_WINDOW + 1);
+
+    /** Feature columns, in the order {@link #write} fills them. */
+    static final String[] COLUMNS = {"sum7", "mean7", "sum30", "mean30", "ewma7"};
+
+    private final double[] ring = new double[LONG_WINDOW];
+    private long days;
+    private double shortSum;
+    private double longSum;
+    private double ewma;
+
+    /**
+     * Adds the next day's total.
+     */
+    public void append(double dayTotal) {
+        int slot = (int) (days % LONG_WINDOW);
+        if (days >= LONG_WINDOW) {
+            longSum -= ring[slot];
+        }
+        if (days >= SHORT_WINDOW) {
+            shortSum -= ring[(int) ((days - SHORT_WINDOW) % LONG_WINDOW)];
+        }
+        ring[slot] = dayTotal;
+        shortSum += dayTotal;
+        longSum += dayTotal;
+        ewma = days == 0 ? dayTotal : ewma + EWMA_ALPHA * (dayTotal - ewma);
+        days++;
+
+        if (days % LONG_WINDOW == 0) {
+            resync();
+        }
+    }
+
+    public long days() {
+        return days;
+    }
+
+    public double shortSum() {
+        return shortSum;
+    }
+
+    public double shortMean() {
+        return days == 0 ? 0.0 : shortSum / Math.min(days, SHORT_WINDOW);
+    }
+
+    public double longSum() {
+        return longSum;
+    }
+
+    public double longMean() {
+        return days == 0 ? 0.0 : longSum / Math.min(days, LONG_WINDOW);
+    }
+
+    public double ewma() {
+        return ewma;
+    }
+
+    /**
+     * Writes the {@link #COLUMNS} values into {@code row} from {@code offset}.
+     */
+    void write(double[] row, int offset) {
+        row[offset] = shortSum;
+        row[offset + 1] = shortMean();
+        row[offset + 2] = longSum;
+        row[offset + 3] = longMean();
+        row[offset + 4] = ewma;
+    }
+
+    private void resync() {
+        double s = 0;
+        double l = 0;
+        for (int back = 1; back <= LONG_WINDOW; back++) {
+            double v = ring[(int) ((days - back) % LONG_WINDOW)];
+            l += v;
+            if (back <= SHORT_WINDOW) {
+                s += v;
+            }
+        }
+        shortSum = s;
+        longSum = l;
+    }
+}
@@ -0,0 +1,122 @@
+package com.carbontrade.mining;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the {@code capacity} highest-scoring items offered, in a binary
+ * min-heap over primitive scores: O(log capacity) per kept item and O(1)
+ * for the rest. Callers check {@link #accepts} before building an item, so
+ * rows that cannot make the cut allocate nothing. Not thread-safe.
+ */
+public final class TopK<T> {
+
+    private final int capacity;
+    private double[] scores;
+    private Object[] items;
+    private int size;
+
+    public TopK(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        int initial = Math.min(capacity, 16);
+        this.scores = new double[initial];
+        this.items = new Object[initial];
+    }
+
+    /**
+     * Whether an item with this score would currently be kept.
+     */
+    public boolean accepts(double score) {
+        return size < capacity || score > scores[0];
+    }
+
+    public void offer(double score, T item) {
+        if (!accepts(score)) {
+            return;
+        }
+        if (size < capacity) {
+            if (size == scores.length) {
+                int grown = (int) Math.min(capacity, 2L * size);
+                scores = Arrays.copyOf(scores, grown);
+                items = Arrays.copyOf(items, grown);
+            }
+            scores[size] = score;
+            items[size] = item;
+            siftUp(size++);
+        } else {
+            scores[0] = score;
+            items[0] = item;
+            siftDown(0);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Kept items, highest score first.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> toSortedList() {
+        TopK<T> copy = new TopK<>(capacity);
+        copy.scores = Arrays.copyOf(scores, size);
+        copy.items = Arrays.copyOf(items, size);
+        copy.size = size;
+        List<T> result = new ArrayList<>(size);
+        while (copy.size > 0) {
+            result.add((T) copy.items[0]);
+            copy.size--;
+            copy.scores[0] = copy.scores[copy.size];
+            copy.items[0] = copy.items[copy.size];
+            copy.items[copy.size] = null;
+            copy.siftDown(0);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= scores[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && scores[left] < scores[smallest]) {
+                smallest = left;
+            }
+            if (right < size && scores[right] < scores[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        Object item = items[a];
+        items[a] = items[b];
+        items[b] = item;
+    }
+}
@@ -0,0 +1,60 @@
+package com.carbontrade.mining;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression of an uploaded file, recognised by its magic bytes rather than
+ * by file name or Content-Encoding. Decompression is streaming: nothing is
+ * spooled or buffered beyond the codec's own window.
+ */
+public enum UploadCompression {
+
+    NONE,
+    GZIP,    // 1f 8b
+    ZSTD;    // 28 b5 2f fd
+
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Compression of the stream, judged from (and consuming) its first four bytes.
+     */
+    public static UploadCompression detect(InputStream in) throws IOException {
+        byte[] head = in.readNBytes(4);
+        return detect(head, head.length);
+    }
+
+    private static UploadCompression detect(byte[] head, int length) {
+        if (length >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b) {
+            return GZIP;
+        }
+        if (length >= 4 && (head[0] & 0xff) == 0x28 && (head[1] & 0xff) == 0xb5
+                && (head[2] & 0xff) == 0x2f && (head[3] & 0xff) == 0xfd) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * Peeks at the first bytes of the stream and returns the decompressed
+     * content (or the stream itself, buffered, if it is not compressed). The
+     * result supports mark/reset, so callers can sniff the payload format too.
+     */
+    public static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER);
+        buffered.mark(4);
+        byte[] head = new byte[4];
+        int length = buffered.readNBytes(head, 0, head.length);
+        buffered.reset();
+
+        return switch (detect(head, length)) {
+            case GZIP -> new BufferedInputStream(new GZIPInputStream(buffered, BUFFER), BUFFER);
+            case ZSTD -> new BufferedInputStream(new ZstdInputStream(buffered), BUFFER);
+            case NONE -> buffered;
+        };
+    }
+}
@@ -6,6 +6,7 @@ public class AnomalyPoint {
 
     private String date;
     private double score;
+    private Long userId; // set when the analysis spans several users
 
     public AnomalyPoint() {}
 
@@ -15,6 +16,11 @@ public class AnomalyPoint {
         this.score = score;
     }
 
+    public AnomalyPoint(Long userId, LocalDate date, double score) {
+        this(date, score);
+        this.userId = userId;
+    }
+
     // Not required but kept for compatibility
     public AnomalyPoint(String timestamp, double value, double score) {
         this.date = timestamp;
@@ -23,6 +29,7 @@ public class AnomalyPoint {
 
     public String getDate() { return date; }
     public double getScore() { return score; }
+    public Long getUserId() { return userId; }
 
     // Required by MiningService
     public double score() {
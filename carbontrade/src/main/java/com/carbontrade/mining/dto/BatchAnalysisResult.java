@@ -0,0 +1,39 @@
+package com.carbontrade.mining.dto;
+
+public class BatchAnalysisResult {
+
+    private Long userId;
+    private boolean success;
+    private Insights insights;
+    private String error;
+
+    public BatchAnalysisResult() {}
+
+    public static BatchAnalysisResult of(Long userId, Insights insights) {
+        BatchAnalysisResult result = new BatchAnalysisResult();
+        result.userId = userId;
+        result.success = true;
+        result.insights = insights;
+        return result;
+    }
+
+    public static BatchAnalysisResult failed(Long userId, String error) {
+        BatchAnalysisResult result = new BatchAnalysisResult();
+        result.userId = userId;
+        result.success = false;
+        result.error = error;
+        return result;
+    }
+
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+
+    public boolean isSuccess() { return success; }
+    public void setSuccess(boolean success) { this.success = success; }
+
+    public Insights getInsights() { return insights; }
+    public void setInsights(Insights insights) { this.insights = insights; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+}
@@ -0,0 +1,73 @@
+package com.carbontrade.mining.dto;
+
+import java.util.List;
+
+public class ConvergenceReport {
+
+    private String mode;
+    private boolean converged;
+    private int iterations;
+    private long batches;
+    private int batchSize;
+    private long rows;
+    private double inertia;
+    private List<Double> shifts;
+
+    public ConvergenceReport() {}
+
+    // Full-batch run: iterations are Lloyd iterations, inertia the total squared distance
+    public static ConvergenceReport full(boolean converged, int iterations, long rows, double inertia) {
+        return full("full", converged, iterations, rows, inertia);
+    }
+
+    // Mode "warm" for a run seeded from stored centroids, "scored" for assignment only (0 iterations)
+    public static ConvergenceReport full(String mode, boolean converged, int iterations, long rows, double inertia) {
+        ConvergenceReport report = new ConvergenceReport();
+        report.mode = mode;
+        report.converged = converged;
+        report.iterations = iterations;
+        report.rows = rows;
+        report.inertia = inertia;
+        report.shifts = List.of();
+        return report;
+    }
+
+    // Mini-batch run: iterations are training passes, inertia the mean against the final centroids
+    public static ConvergenceReport miniBatch(boolean converged, int epochs, long batches, int batchSize, long rows,
+            double inertia, List<Double> shifts) {
+        ConvergenceReport report = new ConvergenceReport();
+        report.mode = "minibatch";
+        report.converged = converged;
+        report.iterations = epochs;
+        report.batches = batches;
+        report.batchSize = batchSize;
+        report.rows = rows;
+        report.inertia = inertia;
+        report.shifts = shifts;
+        return report;
+    }
+
+    public String getMode() { return mode; }
+    public void setMode(String mode) { this.mode = mode; }
+
+    public boolean isConverged() { return converged; }
+    public void setConverged(boolean converged) { this.converged = converged; }
+
+    public int getIterations() { return iterations; }
+    public void setIterations(int iterations) { this.iterations = iterations; }
+
+    public long getBatches() { return batches; }
+    public void setBatches(long batches) { this.batches = batches; }
+
+    public int getBatchSize() { return batchSize; }
+    public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+
+    public long getRows() { return rows; }
+    public void setRows(long rows) { this.rows = rows; }
+
+    public double getInertia() { return inertia; }
+    public void setInertia(double inertia) { this.inertia = inertia; }
+
+    public List<Double> getShifts() { return shifts; }
+    public void setShifts(List<Double> shifts) { this.shifts = shifts; }
+}
@@ -0,0 +1,58 @@
+package com.carbontrade.mining.dto;
+
+import com.carbontrade.model.IngestJob;
+
+import java.time.OffsetDateTime;
+
+public class IngestJobStatus {
+
+    private String jobId;
+    private String fileName;
+    private String status;
+    private long rowsParsed;
+    private long rowsCommitted;
+    private long duplicatesSkipped;
+    private long rowsRejected;
+    private double rowsPerSecond;
+    private int attempts;
+    private int errorCount;         // failed attempts plus rejected rows
+    private String lastError;
+    private OffsetDateTime createdAt;
+    private OffsetDateTime startedAt;
+    private OffsetDateTime finishedAt;
+
+    public IngestJobStatus() {}
+
+    public IngestJobStatus(IngestJob job, long rowsParsed, long rowsCommitted, long duplicatesSkipped,
+            long rowsRejected, double rowsPerSecond) {
+        this.jobId = job.getId();
+        this.fileName = job.getFileName();
+        this.status = job.getStatus().name();
+        this.rowsParsed = rowsParsed;
+        this.rowsCommitted = rowsCommitted;
+        this.duplicatesSkipped = duplicatesSkipped;
+        this.rowsRejected = rowsRejected;
+        this.rowsPerSecond = rowsPerSecond;
+        this.attempts = job.getAttempts();
+        this.errorCount = (int) Math.min(Integer.MAX_VALUE, job.getErrorCount() + rowsRejected);
+        this.lastError = job.getLastError();
+        this.createdAt = job.getCreatedAt();
+        this.startedAt = job.getStartedAt();
+        this.finishedAt = job.getFinishedAt();
+    }
+
+    public String getJobId() { return jobId; }
+    public String getFileName() { return fileName; }
+    public String getStatus() { return status; }
+    public long getRowsParsed() { return rowsParsed; }
+    public long getRowsCommitted() { return rowsCommitted; }
+    public long getDuplicatesSkipped() { return duplicatesSkipped; }
+    public long getRowsRejected() { return rowsRejected; }
+    public double getRowsPerSecond() { return rowsPerSecond; }
+    public int getAttempts() { return attempts; }
+    public int getErrorCount() { return errorCount; }
+    public String getLastError() { return lastError; }
+    public OffsetDateTime getCreatedAt() { return createdAt; }
+    public OffsetDateTime getStartedAt() { return startedAt; }
+    public OffsetDateTime getFinishedAt() { return finishedAt; }
+}
@@ -0,0 +1,34 @@
+package com.carbontrade.mining.dto;
+
+public class IngestResult {
+
+    private long rowsLoaded;
+    private long duplicatesSkipped;
+    private boolean duplicateFile;
+    private long elapsedMs;
+    private double rowsPerSecond;
+
+    public IngestResult() {}
+
+    public IngestResult(long rowsLoaded, long duplicatesSkipped, long elapsedMs) {
+        this.rowsLoaded = rowsLoaded;
+        this.duplicatesSkipped = duplicatesSkipped;
+        this.elapsedMs = elapsedMs;
+        this.rowsPerSecond = elapsedMs > 0 ? rowsLoaded * 1000.0 / elapsedMs : rowsLoaded;
+    }
+
+    public long getRowsLoaded() { return rowsLoaded; }
+    public void setRowsLoaded(long rowsLoaded) { this.rowsLoaded = rowsLoaded; }
+
+    public long getDuplicatesSkipped() { return duplicatesSkipped; }
+    public void setDuplicatesSkipped(long duplicatesSkipped) { this.duplicatesSkipped = duplicatesSkipped; }
+
+    public boolean isDuplicateFile() { return duplicateFile; }
+    public void setDuplicateFile(boolean duplicateFile) { this.duplicateFile = duplicateFile; }
+
+    public long getElapsedMs() { return elapsedMs; }
+    public void setElapsedMs(long elapsedMs) { this.elapsedMs = elapsedMs; }
+
+    public double getRowsPerSecond() { return rowsPerSecond; }
+    public void setRowsPerSecond(double rowsPerSecond) { this.rowsPerSecond = rowsPerSecond; }
+}
@@ -1,5 +1,7 @@
 package com.carbontrade.mining.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.List;
 
 public class Insights {
@@ -10,6 +12,10 @@ public class Insights {
     private int totalRecords;
     private int totalClusters;
     private int totalAnomalies;
+    private ConvergenceReport convergence;
+    private KSelectionReport selection;
+    private Double anomalyThreshold;
+    private String eTag;
 
     public Insights() {}
 
@@ -50,4 +56,20 @@ public class Insights {
 
     public int getTotalClusters() { return totalClusters; }
     public int getTotalAnomalies() { return totalAnomalies; }
+
+    public ConvergenceReport getConvergence() { return convergence; }
+    public void setConvergence(ConvergenceReport convergence) { this.convergence = convergence; }
+
+    // Set only when k was chosen automatically
+    public KSelectionReport getSelection() { return selection; }
+    public void setSelection(KSelectionReport selection) { this.selection = selection; }
+
+    // Score at the requested percentile; anomalies score at or above it
+    public Double getAnomalyThreshold() { return anomalyThreshold; }
+    public void setAnomalyThreshold(Double anomalyThreshold) { this.anomalyThreshold = anomalyThreshold; }
+
+    // Sent as the ETag header, not in the body; null when the result was not stored
+    @JsonIgnore
+    public String getETag() { return eTag; }
+    public void setETag(String eTag) { this.eTag = eTag; }
 }
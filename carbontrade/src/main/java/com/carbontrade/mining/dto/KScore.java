@@ -0,0 +1,46 @@
+package com.carbontrade.mining.dto;
+
+/**
+ * One candidate of an automatic k selection. Candidates dropped after the
+ * Davies-Bouldin screen have no silhouette. The Davies-Bouldin index is the
+ * one from the screening fit for every candidate, while inertia and
+ * iterations are those of the final fit.
+ */
+public class KScore {
+
+    private int k;
+    private Double silhouette;
+    private double daviesBouldin;
+    private double inertia;
+    private int iterations;
+    private boolean dropped;
+
+    public KScore() {}
+
+    public KScore(int k, Double silhouette, double daviesBouldin, double inertia, int iterations, boolean dropped) {
+        this.k = k;
+        this.silhouette = silhouette;
+        this.daviesBouldin = daviesBouldin;
+        this.inertia = inertia;
+        this.iterations = iterations;
+        this.dropped = dropped;
+    }
+
+    public int getK() { return k; }
+    public void setK(int k) { this.k = k; }
+
+    public Double getSilhouette() { return silhouette; }
+    public void setSilhouette(Double silhouette) { this.silhouette = silhouette; }
+
+    public double getDaviesBouldin() { return daviesBouldin; }
+    public void setDaviesBouldin(double daviesBouldin) { this.daviesBouldin = daviesBouldin; }
+
+    public double getInertia() { return inertia; }
+    public void setInertia(double inertia) { this.inertia = inertia; }
+
+    public int getIterations() { return iterations; }
+    public void setIterations(int iterations) { this.iterations = iterations; }
+
+    public boolean isDropped() { return dropped; }
+    public void setDropped(boolean dropped) { this.dropped = dropped; }
+}
@@ -0,0 +1,28 @@
+package com.carbontrade.mining.dto;
+
+import java.util.List;
+
+public class KSelectionReport {
+
+    private int chosenK;
+    private int silhouetteRows;
+    private List<KScore> candidates;
+
+    public KSelectionReport() {}
+
+    public KSelectionReport(int chosenK, int silhouetteRows, List<KScore> candidates) {
+        this.chosenK = chosenK;
+        this.silhouetteRows = silhouetteRows;
+        this.candidates = candidates;
+    }
+
+    public int getChosenK() { return chosenK; }
+    public void setChosenK(int chosenK) { this.chosenK = chosenK; }
+
+    // Rows the silhouette was computed over; a sample when the matrix is larger
+    public int getSilhouetteRows() { return silhouetteRows; }
+    public void setSilhouetteRows(int silhouetteRows) { this.silhouetteRows = silhouetteRows; }
+
+    public List<KScore> getCandidates() { return candidates; }
+    public void setCandidates(List<KScore> candidates) { this.candidates = candidates; }
+}
@@ -0,0 +1,68 @@
+package com.carbontrade.mining.dto;
+
+public class MiningExecutorStats {
+
+    private int threads;
+    private int active;
+    private int queued;
+    private int queueRemaining;
+    private long completed;
+    private long coalesced;
+    private long rejected;
+    private long cancelled;
+    private long timedOut;
+    private int batchActive;
+    private int batchQueued;
+
+    public MiningExecutorStats() {}
+
+    public MiningExecutorStats(int threads, int active, int queued, int queueRemaining, long completed,
+            long coalesced, long rejected, long cancelled, long timedOut, int batchActive, int batchQueued) {
+        this.threads = threads;
+        this.active = active;
+        this.queued = queued;
+        this.queueRemaining = queueRemaining;
+        this.completed = completed;
+        this.coalesced = coalesced;
+        this.rejected = rejected;
+        this.cancelled = cancelled;
+        this.timedOut = timedOut;
+        this.batchActive = batchActive;
+        this.batchQueued = batchQueued;
+    }
+
+    public int getThreads() { return threads; }
+    public void setThreads(int threads) { this.threads = threads; }
+
+    public int getActive() { return active; }
+    public void setActive(int active) { this.active = active; }
+
+    public int getQueued() { return queued; }
+    public void setQueued(int queued) { this.queued = queued; }
+
+    public int getQueueRemaining() { return queueRemaining; }
+    public void setQueueRemaining(int queueRemaining) { this.queueRemaining = queueRemaining; }
+
+    public long getCompleted() { return completed; }
+    public void setCompleted(long completed) { this.completed = completed; }
+
+    // Requests that joined an identical in-flight job instead of starting one
+    public long getCoalesced() { return coalesced; }
+    public void setCoalesced(long coalesced) { this.coalesced = coalesced; }
+
+    public long getRejected() { return rejected; }
+    public void setRejected(long rejected) { this.rejected = rejected; }
+
+    public long getCancelled() { return cancelled; }
+    public void setCancelled(long cancelled) { this.cancelled = cancelled; }
+
+    public long getTimedOut() { return timedOut; }
+    public void setTimedOut(long timedOut) { this.timedOut = timedOut; }
+
+    // Batch analyses run on their own workers, outside threads/active/queued
+    public int getBatchActive() { return batchActive; }
+    public void setBatchActive(int batchActive) { this.batchActive = batchActive; }
+
+    public int getBatchQueued() { return batchQueued; }
+    public void setBatchQueued(int batchQueued) { this.batchQueued = batchQueued; }
+}
@@ -0,0 +1,63 @@
+package com.carbontrade.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+
+/**
+ * A day whose committed footprint scored above the anomaly threshold of the
+ * user's latest cluster model. Events are never deleted: rescoring a day
+ * marks its event superseded and appends a new one. SQLite hands a new row
+ * the highest rowid plus one, so deleting the newest event would let its
+ * replacement reuse the id; kept rows make ids strictly increase, and the
+ * feed pages by id over current events.
+ */
+@Entity
+@Table(name = "anomaly_event", indexes = {
+        @Index(name = "idx_anomaly_event_user", columnList = "user_id, id"),
+        @Index(name = "idx_anomaly_event_day", columnList = "user_id, event_date")})
+public class AnomalyEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    @Column(name = "event_date", nullable = false)
+    private LocalDate eventDate;
+
+    private double score;
+    private double threshold;
+    private String granularity;     // of the model scored against
+    private int k;
+    private double dayTotal;        // kgCO2e committed for the day when scored
+
+    private OffsetDateTime detectedAt = OffsetDateTime.now();
+    private boolean superseded;     // rescored since; a later event, if any, replaces it
+
+    public AnomalyEvent() {}
+
+    public AnomalyEvent(Long userId, LocalDate eventDate, double score, double threshold) {
+        this.userId = userId;
+        this.eventDate = eventDate;
+        this.score = score;
+        this.threshold = threshold;
+    }
+
+    // getters & setters
+    public Long getId() { return id; }
+    public Long getUserId() { return userId; }
+    public LocalDate getEventDate() { return eventDate; }
+    public double getScore() { return score; }
+    public double getThreshold() { return threshold; }
+    public String getGranularity() { return granularity; }
+    public void setGranularity(String granularity) { this.granularity = granularity; }
+    public int getK() { return k; }
+    public void setK(int k) { this.k = k; }
+    public double getDayTotal() { return dayTotal; }
+    public void setDayTotal(double dayTotal) { this.dayTotal = dayTotal; }
+    public OffsetDateTime getDetectedAt() { return detectedAt; }
+    public boolean isSuperseded() { return superseded; }
+    public void setSuperseded(boolean superseded) { this.superseded = superseded; }
+}
@@ -7,21 +7,35 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import java.time.LocalDate;
 
 @Data
 @Entity
+@Table(name = "carbon_footprint", indexes = {
+        // Natural key used for ingest deduplication; its (userId, date) prefix also serves range scans
+        @Index(name = "idx_footprint_key_codes", columnList = "userId, date, categoryCode, amount, unitCode")
+})
 public class CarbonFootprint {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     private Long userId;
     private LocalDate date;
-    private String category;
+    private Integer categoryCode; // footprint_dictionary code
     private double amount;
-    private String unit;
+    private Integer unitCode; // footprint_dictionary code
     private Double emissionFactor;
     private double kgCO2e;
+    private Long factorVersion; // emission_factor version applied; null when the source supplied its own factor
+
+    // Raw spellings as parsed; only the codes are stored
+    @Transient
+    private String category;
+    @Transient
+    private String unit;
 
     public CarbonFootprint() {
         // Default constructor
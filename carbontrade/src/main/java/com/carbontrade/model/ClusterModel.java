@@ -0,0 +1,72 @@
+package com.carbontrade.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+
+/**
+ * Trained k-means centroids for one user, feature granularity and k, kept so
+ * the next analysis can warm-start from them or score against them without
+ * training. Centroids are k rows of little-endian doubles in the order of
+ * {@code columnNames} (newline-separated), which is how they are matched to a
+ * later feature matrix whose category space has grown.
+ */
+@Entity
+@Table(name = "cluster_model", uniqueConstraints =
+        @UniqueConstraint(name = "uk_cluster_model", columnNames = {"user_id", "granularity", "k"}))
+public class ClusterModel {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    @Column(nullable = false)
+    private String granularity;     // e.g. "daily" or "daily+trends"
+    private int k;
+    private int categorySpaceVersion;
+
+    @Column(length = 4096)
+    private String columnNames;
+    private byte[] centroids;
+
+    private LocalDate trainedFrom;
+    private LocalDate trainedTo;
+    private int iterations;
+    private double inertia;
+    private Double anomalyThreshold;   // training-row score at mining.anomaly.events.percentile
+    private OffsetDateTime updatedAt = OffsetDateTime.now();
+
+    public ClusterModel() {}
+
+    public ClusterModel(Long userId, String granularity, int k) {
+        this.userId = userId;
+        this.granularity = granularity;
+        this.k = k;
+    }
+
+    // getters & setters
+    public Long getId() { return id; }
+    public Long getUserId() { return userId; }
+    public String getGranularity() { return granularity; }
+    public int getK() { return k; }
+    public int getCategorySpaceVersion() { return categorySpaceVersion; }
+    public void setCategorySpaceVersion(int categorySpaceVersion) { this.categorySpaceVersion = categorySpaceVersion; }
+    public String getColumnNames() { return columnNames; }
+    public void setColumnNames(String columnNames) { this.columnNames = columnNames; }
+    public byte[] getCentroids() { return centroids; }
+    public void setCentroids(byte[] centroids) { this.centroids = centroids; }
+    public LocalDate getTrainedFrom() { return trainedFrom; }
+    public void setTrainedFrom(LocalDate trainedFrom) { this.trainedFrom = trainedFrom; }
+    public LocalDate getTrainedTo() { return trainedTo; }
+    public void setTrainedTo(LocalDate trainedTo) { this.trainedTo = trainedTo; }
+    public int getIterations() { return iterations; }
+    public void setIterations(int iterations) { this.iterations = iterations; }
+    public double getInertia() { return inertia; }
+    public void setInertia(double inertia) { this.inertia = inertia; }
+    public Double getAnomalyThreshold() { return anomalyThreshold; }
+    public void setAnomalyThreshold(Double anomalyThreshold) { this.anomalyThreshold = anomalyThreshold; }
+    public OffsetDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(OffsetDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,59 @@
+package com.carbontrade.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+
+/**
+ * One version of the default emission factor for a category, effective from
+ * a date (or for all dates when effectiveFrom is null). Rows are never
+ * updated in place except for recompute bookkeeping; a change is a new row
+ * with a higher version.
+ */
+@Entity
+@Table(name = "emission_factor", indexes = @Index(name = "idx_emission_factor_category", columnList = "categoryCode"))
+public class EmissionFactor {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private int categoryCode;   // footprint_dictionary code
+    private String category;    // canonical name, for readers of the table
+    private double factor;      // kgCO2e per unit
+    private String unit;
+    private LocalDate effectiveFrom;
+    private long version;
+
+    private OffsetDateTime createdAt = OffsetDateTime.now();
+
+    // Set once footprint rows in this factor's range have been recomputed
+    private OffsetDateTime recomputedAt;
+    private long rowsRecomputed;
+
+    public EmissionFactor() {}
+
+    public EmissionFactor(int categoryCode, String category, double factor, String unit, LocalDate effectiveFrom,
+            long version) {
+        this.categoryCode = categoryCode;
+        this.category = category;
+        this.factor = factor;
+        this.unit = unit;
+        this.effectiveFrom = effectiveFrom;
+        this.version = version;
+    }
+
+    // getters & setters
+    public Long getId() { return id; }
+    public int getCategoryCode() { return categoryCode; }
+    public String getCategory() { return category; }
+    public double getFactor() { return factor; }
+    public String getUnit() { return unit; }
+    public LocalDate getEffectiveFrom() { return effectiveFrom; }
+    public long getVersion() { return version; }
+    public OffsetDateTime getCreatedAt() { return createdAt; }
+    public OffsetDateTime getRecomputedAt() { return recomputedAt; }
+    public void setRecomputedAt(OffsetDateTime recomputedAt) { this.recomputedAt = recomputedAt; }
+    public long getRowsRecomputed() { return rowsRecomputed; }
+    public void setRowsRecomputed(long rowsRecomputed) { this.rowsRecomputed = rowsRecomputed; }
+}
@@ -0,0 +1,63 @@
+package com.carbontrade.model;
+
+import jakarta.persistence.*;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * Summed emissions per user, day and category. Maintained alongside
+ * carbon_footprint in the same transactions (see {@code FootprintRollup}),
+ * so aggregate reads cost one row per day and category instead of one per reading.
+ */
+@Entity
+@Table(name = "footprint_daily_rollup")
+@IdClass(FootprintDailyRollup.Key.class)
+public class FootprintDailyRollup {
+
+    @Id
+    private Long userId;
+
+    @Id
+    private LocalDate date;
+
+    @Id
+    private Integer categoryCode;
+
+    private double kgCO2e;
+    private long rowCount;
+
+    public FootprintDailyRollup() {}
+
+    // getters
+    public Long getUserId() { return userId; }
+    public LocalDate getDate() { return date; }
+    public Integer getCategoryCode() { return categoryCode; }
+    public double getKgCO2e() { return kgCO2e; }
+    public long getRowCount() { return rowCount; }
+
+    public static class Key implements Serializable {
+        private Long userId;
+        private LocalDate date;
+        private Integer categoryCode;
+
+        public Key() {}
+
+        public Key(Long userId, LocalDate date, Integer categoryCode) {
+            this.userId = userId;
+            this.date = date;
+            this.categoryCode = categoryCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && Objects.equals(userId, k.userId) && Objects.equals(date, k.date)
+                    && Objects.equals(categoryCode, k.categoryCode);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, date, categoryCode);
+        }
+    }
+}
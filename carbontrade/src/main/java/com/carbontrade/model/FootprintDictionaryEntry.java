@@ -0,0 +1,35 @@
+package com.carbontrade.model;
+
+import jakarta.persistence.*;
+
+/**
+ * One category or unit spelling and its integer code. carbon_footprint
+ * stores only the codes; see {@code FootprintDictionary} for the cache.
+ */
+@Entity
+@Table(name = "footprint_dictionary", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_dictionary_value", columnNames = {"kind", "value"}),
+        @UniqueConstraint(name = "uk_dictionary_code", columnNames = {"kind", "code"})
+})
+public class FootprintDictionaryEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String kind; // CATEGORY or UNIT
+
+    private int code;
+
+    @Column(nullable = false)
+    private String value;
+
+    public FootprintDictionaryEntry() {}
+
+    // getters
+    public Long getId() { return id; }
+    public String getKind() { return kind; }
+    public int getCode() { return code; }
+    public String getValue() { return value; }
+}
@@ -0,0 +1,76 @@
+package com.carbontrade.model;
+
+import jakarta.persistence.*;
+import java.time.OffsetDateTime;
+
+@Entity
+@Table(name = "ingest_job", indexes = @Index(name = "idx_ingest_job_status", columnList = "status"))
+public class IngestJob {
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED, DUPLICATE }
+
+    @Id
+    private String id;
+
+    private String fileName;
+    private String spoolPath;
+    private String contentHash;
+
+    @Enumerated(EnumType.STRING)
+    private Status status = Status.QUEUED;
+
+    // Source records committed to carbon_footprint; a resumed job skips this many records.
+    // Updated in the same transaction as each committed batch.
+    private long rowsCommitted;
+    private long duplicatesSkipped;
+
+    // Source records skipped because they could not be parsed; committed with the batch that skipped them
+    @Column(columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private long rowsRejected;
+
+    private double rowsPerSecond;   // throughput of the most recent attempt
+
+    private int attempts;
+    private int errorCount;         // failed attempts
+    private String lastError;
+
+    private OffsetDateTime createdAt = OffsetDateTime.now();
+    private OffsetDateTime startedAt;
+    private OffsetDateTime finishedAt;
+
+    public IngestJob() {}
+
+    public IngestJob(String id, String fileName, String spoolPath, String contentHash) {
+        this.id = id;
+        this.fileName = fileName;
+        this.spoolPath = spoolPath;
+        this.contentHash = contentHash;
+    }
+
+    // getters & setters
+    public String getId() { return id; }
+    public String getFileName() { return fileName; }
+    public String getSpoolPath() { return spoolPath; }
+    public String getContentHash() { return contentHash; }
+    public Status getStatus() { return status; }
+    public void setStatus(Status status) { this.status = status; }
+    public long getRowsCommitted() { return rowsCommitted; }
+    public void setRowsCommitted(long rowsCommitted) { this.rowsCommitted = rowsCommitted; }
+    public long getDuplicatesSkipped() { return duplicatesSkipped; }
+    public void setDuplicatesSkipped(long duplicatesSkipped) { this.duplicatesSkipped = duplicatesSkipped; }
+    public long getRowsRejected() { return rowsRejected; }
+    public void setRowsRejected(long rowsRejected) { this.rowsRejected = rowsRejected; }
+    public double getRowsPerSecond() { return rowsPerSecond; }
+    public void setRowsPerSecond(double rowsPerSecond) { this.rowsPerSecond = rowsPerSecond; }
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    public int getErrorCount() { return errorCount; }
+    public void setErrorCount(int errorCount) { this.errorCount = errorCount; }
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+    public OffsetDateTime getCreatedAt() { return createdAt; }
+    public OffsetDateTime getStartedAt() { return startedAt; }
+    public void setStartedAt(OffsetDateTime startedAt) { this.startedAt = startedAt; }
+    public OffsetDateTime getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(OffsetDateTime finishedAt) { this.finishedAt = finishedAt; }
+}
@@ -0,0 +1,37 @@
+package com.carbontrade.model;
+
+import jakarta.persistence.*;
+import java.time.OffsetDateTime;
+
+/**
+ * Content hash of every fully ingested upload, so a re-sent file is skipped
+ * with a single primary-key lookup.
+ */
+@Entity
+@Table(name = "ingested_file")
+public class IngestedFile {
+
+    @Id
+    private String contentHash; // SHA-256, hex
+
+    private String fileName;
+    private long rowsInserted;
+    private long duplicatesSkipped;
+    private OffsetDateTime ingestedAt = OffsetDateTime.now();
+
+    public IngestedFile() {}
+
+    public IngestedFile(String contentHash, String fileName, long rowsInserted, long duplicatesSkipped) {
+        this.contentHash = contentHash;
+        this.fileName = fileName;
+        this.rowsInserted = rowsInserted;
+        this.duplicatesSkipped = duplicatesSkipped;
+    }
+
+    // getters
+    public String getContentHash() { return contentHash; }
+    public String getFileName() { return fileName; }
+    public long getRowsInserted() { return rowsInserted; }
+    public long getDuplicatesSkipped() { return duplicatesSkipped; }
+    public OffsetDateTime getIngestedAt() { return ingestedAt; }
+}
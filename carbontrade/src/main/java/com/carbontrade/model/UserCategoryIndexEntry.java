@@ -0,0 +1,35 @@
+package com.carbontrade.model;
+
+import jakarta.persistence.*;
+
+/**
+ * Feature column of one category for one user. Positions are appended and
+ * never reassigned; see {@code CategoryIndex}.
+ */
+@Entity
+@Table(name = "user_category_index", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_user_category_code", columnNames = {"user_id", "category_code"}),
+        @UniqueConstraint(name = "uk_user_category_position", columnNames = {"user_id", "position"})
+})
+public class UserCategoryIndexEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "category_code", nullable = false)
+    private int categoryCode;
+
+    private int position;
+
+    public UserCategoryIndexEntry() {}
+
+    // getters
+    public Long getId() { return id; }
+    public Long getUserId() { return userId; }
+    public int getCategoryCode() { return categoryCode; }
+    public int getPosition() { return position; }
+}
@@ -0,0 +1,28 @@
+package com.carbontrade.repository;
+
+import com.carbontrade.model.AnomalyEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+public interface AnomalyEventRepository extends JpaRepository<AnomalyEvent, Long> {
+
+    /**
+     * Marks the user's current events on these days as superseded; the
+     * caller's transaction appends their replacements.
+     */
+    @Modifying
+    @Query("UPDATE AnomalyEvent e SET e.superseded = true "
+            + "WHERE e.userId = :userId AND e.eventDate IN :dates AND e.superseded = false")
+    int supersede(Long userId, Collection<LocalDate> dates);
+
+    List<AnomalyEvent> findBySupersededFalseAndIdGreaterThanOrderByIdAsc(Long afterId, Pageable page);
+
+    List<AnomalyEvent> findByUserIdAndSupersededFalseAndIdGreaterThanOrderByIdAsc(Long userId, Long afterId,
+            Pageable page);
+}
@@ -21,18 +21,24 @@ public interface CarbonFootprintRepository extends JpaRepository<CarbonFootprint
      */
     List<CarbonFootprint> findByUserId(Long userId);
 
+    /*
+     * The aggregates below read footprint_daily_rollup rather than raw rows,
+     * so their cost scales with days x categories, not with readings.
+     */
+
     /**
-     * Summed emissions by category within a time window.
+     * Summed emissions by category code within a time window.
+     * Codes map back to names through FootprintDictionary.
      * Used in:
      *  - attribution endpoint (/mining/drivers)
      *  - mining module decomposition
      */
     @Query("""
-        SELECT cf.category, SUM(cf.kgCO2e)
-        FROM CarbonFootprint cf
-        WHERE cf.userId = :userId
-          AND cf.date BETWEEN :start AND :end
-        GROUP BY cf.category
+        SELECT r.categoryCode, SUM(r.kgCO2e)
+        FROM FootprintDailyRollup r
+        WHERE r.userId = :userId
+          AND r.date BETWEEN :start AND :end
+        GROUP BY r.categoryCode
     """)
     List<Object[]> sumByCategory(Long userId, LocalDate start, LocalDate end);
 
@@ -41,12 +47,12 @@ public interface CarbonFootprintRepository extends JpaRepository<CarbonFootprint
      * building training sets for ML models.
      */
     @Query("""
-        SELECT cf.date, SUM(cf.kgCO2e)
-        FROM CarbonFootprint cf
-        WHERE cf.userId = :userId
-          AND cf.date BETWEEN :start AND :end
-        GROUP BY cf.date
-        ORDER BY cf.date
+        SELECT r.date, SUM(r.kgCO2e)
+        FROM FootprintDailyRollup r
+        WHERE r.userId = :userId
+          AND r.date BETWEEN :start AND :end
+        GROUP BY r.date
+        ORDER BY r.date
     """)
     List<Object[]> dailyTotals(Long userId, LocalDate start, LocalDate end);
 
@@ -54,11 +60,11 @@ public interface CarbonFootprintRepository extends JpaRepository<CarbonFootprint
      * Optional: Summaries by month — nice for UI graphs.
      */
     @Query("""
-        SELECT EXTRACT(YEAR FROM cf.date), EXTRACT(MONTH FROM cf.date), SUM(cf.kgCO2e)
-        FROM CarbonFootprint cf
-        WHERE cf.userId = :userId
-        GROUP BY EXTRACT(YEAR FROM cf.date), EXTRACT(MONTH FROM cf.date)
-        ORDER BY EXTRACT(YEAR FROM cf.date), EXTRACT(MONTH FROM cf.date)
+        SELECT EXTRACT(YEAR FROM r.date), EXTRACT(MONTH FROM r.date), SUM(r.kgCO2e)
+        FROM FootprintDailyRollup r
+        WHERE r.userId = :userId
+        GROUP BY EXTRACT(YEAR FROM r.date), EXTRACT(MONTH FROM r.date)
+        ORDER BY EXTRACT(YEAR FROM r.date), EXTRACT(MONTH FROM r.date)
     """)
     List<Object[]> monthlyTotals(Long userId);
 }
@@ -0,0 +1,12 @@
+package com.carbontrade.repository;
+
+import com.carbontrade.model.ClusterModel;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Optional;
+
+public interface ClusterModelRepository extends JpaRepository<ClusterModel, Long> {
+    Optional<ClusterModel> findByUserIdAndGranularityAndK(Long userId, String granularity, int k);
+
+    Optional<ClusterModel> findFirstByUserIdOrderByUpdatedAtDesc(Long userId);
+}
@@ -0,0 +1,10 @@
+package com.carbontrade.repository;
+
+import com.carbontrade.model.EmissionFactor;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface EmissionFactorRepository extends JpaRepository<EmissionFactor, Long> {
+    List<EmissionFactor> findByRecomputedAtIsNull();
+}
@@ -0,0 +1,136 @@
+package com.carbontrade.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Aggregate reads that skip the JPA entity entirely: sums come from
+ * footprint_daily_rollup (already one row per user, day and category) through
+ * a row callback, so no entities are hydrated or snapshotted for dirty checking.
+ */
+@Repository
+public class FootprintAggregateRepository {
+
+    static final String DAILY_CATEGORY_TOTALS_SQL = """
+            SELECT date, category_code, kgco2e
+            FROM footprint_daily_rollup
+            WHERE user_id = ? AND date BETWEEN ? AND ?
+            ORDER BY date
+            """;
+
+    static final String ALL_USERS_DAILY_CATEGORY_TOTALS_SQL = """
+            SELECT user_id, date, category_code, kgco2e
+            FROM footprint_daily_rollup
+            WHERE date BETWEEN ? AND ?
+            ORDER BY user_id, date
+            """;
+
+    // Keyset page over the primary key (user_id leads it), so each page starts where the last one ended
+    static final String USERS_WITH_DATA_SQL = """
+            SELECT DISTINCT user_id
+            FROM footprint_daily_rollup
+            WHERE user_id > ? AND date BETWEEN ? AND ?
+            ORDER BY user_id
+            LIMIT ?
+            """;
+
+    /**
+     * Below SQLite's default bound-parameter limit; larger user lists are
+     * filtered while scanning, so batch callers page by at most this many users.
+     */
+    public static final int MAX_BOUND_USERS = 900;
+
+    /**
+     * Receives the summed kgCO2e of one category on one day.
+     */
+    @FunctionalInterface
+    public interface DailyCategoryTotalHandler {
+        void accept(long epochDay, int categoryCode, double kgCO2e);
+    }
+
+    /**
+     * Like {@link DailyCategoryTotalHandler}, for scans that cover several users.
+     */
+    @FunctionalInterface
+    public interface UserDailyCategoryTotalHandler {
+        void accept(long userId, long epochDay, int categoryCode, double kgCO2e);
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FootprintAggregateRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Streams one row per (day, category) with emissions for the user in the
+     * range, ordered by day, without materializing a result list.
+     */
+    public void dailyCategoryTotals(Long userId, LocalDate start, LocalDate end,
+            DailyCategoryTotalHandler handler) {
+        // Dates are bound the way Hibernate and the bulk writer store them
+        jdbcTemplate.query(DAILY_CATEGORY_TOTALS_SQL,
+                (RowCallbackHandler) rs -> handler.accept(rs.getDate(1).toLocalDate().toEpochDay(),
+                        rs.getInt(2), rs.getDouble(3)),
+                userId, Date.valueOf(start), Date.valueOf(end));
+    }
+
+    /**
+     * Up to {@code limit} users with data in the range, in ascending id order
+     * and after {@code afterUserId}. The result is read in full before it is
+     * returned, so no cursor stays open between pages.
+     */
+    public List<Long> usersWithData(LocalDate start, LocalDate end, long afterUserId, int limit) {
+        return jdbcTemplate.queryForList(USERS_WITH_DATA_SQL, Long.class,
+                afterUserId, Date.valueOf(start), Date.valueOf(end), limit);
+    }
+
+    /**
+     * One ordered scan over several users: rows arrive grouped by user and,
+     * within a user, ordered by day. {@code userIds} null means every user.
+     */
+    public void dailyCategoryTotals(Collection<Long> userIds, LocalDate start, LocalDate end,
+            UserDailyCategoryTotalHandler handler) {
+        RowCallbackHandler rows = rs -> handler.accept(rs.getLong(1), rs.getDate(2).toLocalDate().toEpochDay(),
+                rs.getInt(3), rs.getDouble(4));
+
+        if (userIds == null) {
+            jdbcTemplate.query(ALL_USERS_DAILY_CATEGORY_TOTALS_SQL, rows, Date.valueOf(start), Date.valueOf(end));
+            return;
+        }
+        if (userIds.isEmpty()) {
+            return;
+        }
+        if (userIds.size() > MAX_BOUND_USERS) {
+            Set<Long> wanted = new HashSet<>(userIds);
+            jdbcTemplate.query(ALL_USERS_DAILY_CATEGORY_TOTALS_SQL, (RowCallbackHandler) rs -> {
+                if (wanted.contains(rs.getLong(1))) {
+                    rows.processRow(rs);
+                }
+            }, Date.valueOf(start), Date.valueOf(end));
+            return;
+        }
+
+        String sql = """
+                SELECT user_id, date, category_code, kgco2e
+                FROM footprint_daily_rollup
+                WHERE date BETWEEN ? AND ? AND user_id IN (%s)
+                ORDER BY user_id, date
+                """.formatted(String.join(", ", Collections.nCopies(userIds.size(), "?")));
+        List<Object> args = new ArrayList<>(userIds.size() + 2);
+        args.add(Date.valueOf(start));
+        args.add(Date.valueOf(end));
+        args.addAll(userIds);
+        jdbcTemplate.query(sql, rows, args.toArray());
+    }
+}
@@ -0,0 +1,24 @@
+package com.carbontrade.repository;
+
+import com.carbontrade.model.IngestJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface IngestJobRepository extends JpaRepository<IngestJob, String> {
+    List<IngestJob> findByStatusIn(Collection<IngestJob.Status> statuses);
+
+    /**
+     * Moves the job from one status to another in a single statement.
+     * Returns 0 if it was not in {@code from}, e.g. because another request
+     * moved it first.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE IngestJob j SET j.status = :to WHERE j.id = :id AND j.status = :from")
+    int transition(String id, IngestJob.Status from, IngestJob.Status to);
+}
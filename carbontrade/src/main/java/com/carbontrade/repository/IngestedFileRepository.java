@@ -0,0 +1,6 @@
+package com.carbontrade.repository;
+
+import com.carbontrade.model.IngestedFile;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface IngestedFileRepository extends JpaRepository<IngestedFile, String> {}
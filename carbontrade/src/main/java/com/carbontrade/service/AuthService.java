@@ -33,6 +33,9 @@ public class AuthService {
     @Autowired
     private org.springframework.security.core.userdetails.UserDetailsService userDetailsService;
 
+    @Autowired
+    private VerificationMailer verificationMailer;
+
     @org.springframework.beans.factory.annotation.Value("${spring.mail.username:}")
     private String mailUsername;
 
@@ -137,31 +140,8 @@ public class AuthService {
             return;
         }
 
-        // NOTE: In production, use Spring Mail or an external service.
-        // Preserving existing logic for now.
-        java.util.Properties props = new java.util.Properties();
-        props.put("mail.smtp.host", "smtp.gmail.com");
-        props.put("mail.smtp.port", "587");
-        props.put("mail.smtp.auth", "true");
-        props.put("mail.smtp.starttls.enable", "true");
-
-        javax.mail.Session session = javax.mail.Session.getInstance(props, new javax.mail.Authenticator() {
-            protected javax.mail.PasswordAuthentication getPasswordAuthentication() {
-                return new javax.mail.PasswordAuthentication(mailUsername, mailPassword);
-            }
-        });
-
-        try {
-            javax.mail.internet.MimeMessage message = new javax.mail.internet.MimeMessage(session);
-            message.setFrom(new javax.mail.internet.InternetAddress(mailUsername));
-            message.addRecipient(javax.mail.Message.RecipientType.TO, new javax.mail.internet.InternetAddress(email));
-            message.setSubject("Verification Code for Carbon Trade Account");
-            message.setText("Your verification code is: " + verificationCode);
-            javax.mail.Transport.send(message);
-        } catch (javax.mail.MessagingException e) {
-            // Just log error in dev/test, don't block flow
-            e.printStackTrace();
-        }
+        // Sent on the @Async executor so registration does not wait for SMTP
+        verificationMailer.send(email, verificationCode);
     }
 
     public String forgotPassword(String email) {
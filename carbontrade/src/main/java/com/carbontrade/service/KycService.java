@@ -32,7 +32,9 @@ public class KycService {
                 throw new RuntimeException("Failed to store empty file.");
             }
             String filename = username + "_" + UUID.randomUUID().toString() + "_" + file.getOriginalFilename();
-            Files.copy(file.getInputStream(), this.rootLocation.resolve(filename));
+            // Uploads are spooled to disk (file-size-threshold=0); given an absolute target the
+            // container moves that file instead of copying it through the request thread
+            file.transferTo(this.rootLocation.resolve(filename).toAbsolutePath().toFile());
             return filename;
         } catch (Exception e) {
             throw new RuntimeException("Failed to store file " + file.getOriginalFilename(), e);
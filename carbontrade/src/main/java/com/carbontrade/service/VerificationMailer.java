@@ -0,0 +1,53 @@
+package com.carbontrade.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+/**
+ * Sends verification codes off the request thread. The SMTP handshake to
+ * Gmail takes hundreds of milliseconds and registration does not depend on
+ * its outcome, so {@link AuthService#register} hands the message to the
+ * {@code @Async} executor (virtual threads when
+ * {@code spring.threads.virtual.enabled=true}).
+ */
+@Service
+public class VerificationMailer {
+
+    private static final Logger log = LoggerFactory.getLogger(VerificationMailer.class);
+
+    @Value("${spring.mail.username:}")
+    private String mailUsername;
+
+    @Value("${spring.mail.password:}")
+    private String mailPassword;
+
+    @Async
+    public void send(String email, String verificationCode) {
+        java.util.Properties props = new java.util.Properties();
+        props.put("mail.smtp.host", "smtp.gmail.com");
+        props.put("mail.smtp.port", "587");
+        props.put("mail.smtp.auth", "true");
+        props.put("mail.smtp.starttls.enable", "true");
+
+        javax.mail.Session session = javax.mail.Session.getInstance(props, new javax.mail.Authenticator() {
+            protected javax.mail.PasswordAuthentication getPasswordAuthentication() {
+                return new javax.mail.PasswordAuthentication(mailUsername, mailPassword);
+            }
+        });
+
+        try {
+            javax.mail.internet.MimeMessage message = new javax.mail.internet.MimeMessage(session);
+            message.setFrom(new javax.mail.internet.InternetAddress(mailUsername));
+            message.addRecipient(javax.mail.Message.RecipientType.TO, new javax.mail.internet.InternetAddress(email));
+            message.setSubject("Verification Code for Carbon Trade Account");
+            message.setText("Your verification code is: " + verificationCode);
+            javax.mail.Transport.send(message);
+        } catch (javax.mail.MessagingException e) {
+            // Registration already succeeded; the user can ask for a new code
+            log.warn("Verification email to {} failed: {}", email, e.getMessage());
+        }
+    }
+}
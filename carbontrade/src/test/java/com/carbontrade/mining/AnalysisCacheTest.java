@@ -0,0 +1,145 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.dto.Insights;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * The controller answers 304 when If-None-Match holds {@link AnalysisCache#etag}
+ * at the current versions, so a stored result's ETag must match it until
+ * something the result depends on changes, and never after.
+ */
+class AnalysisCacheTest {
+
+    private static final List<Object> REQUEST = List.of(1L, "2024-01-01", "2024-12-31", 4);
+    private static final LocalDate DAY = LocalDate.parse("2024-06-01");
+
+    @TempDir
+    Path dir;
+
+    private DataSource dataSource;
+    private CategoryIndex categoryIndex;
+    private AnalysisCache cache;
+
+    @BeforeEach
+    void createTables() throws SQLException {
+        dataSource = new DriverManagerDataSource("jdbc:sqlite:" + dir.resolve("cache.db"));
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("""
+                    CREATE TABLE footprint_dictionary (
+                        id INTEGER PRIMARY KEY, kind VARCHAR NOT NULL, code INT, value VARCHAR NOT NULL)
+                    """);
+            st.execute("""
+                    CREATE TABLE user_category_index (
+                        id INTEGER PRIMARY KEY, user_id BIGINT NOT NULL, category_code INT NOT NULL, position INT,
+                        CONSTRAINT uk_user_category_code UNIQUE (user_id, category_code),
+                        CONSTRAINT uk_user_category_position UNIQUE (user_id, position))
+                    """);
+        }
+        FootprintDictionary dictionary = new FootprintDictionary(dataSource);
+        dictionary.load();
+        categoryIndex = new CategoryIndex(dictionary, dataSource, "user");
+        cache = new AnalysisCache(categoryIndex, 16);
+    }
+
+    @Test
+    void unchangedRequestRevalidates() {
+        Insights insights = store();
+
+        assertEquals(insights.getETag(), currentETag());
+        assertSame(insights, cache.get(REQUEST, cache.versions(1)));
+    }
+
+    @Test
+    void commitForTheUserInvalidates() {
+        Insights insights = store();
+
+        cache.afterCommit(List.of(new FootprintChange(1L, DAY, DAY)));
+
+        assertNotEquals(insights.getETag(), currentETag());
+        assertNull(cache.get(REQUEST, cache.versions(1)));
+    }
+
+    @Test
+    void commitForEveryoneInvalidates() {
+        Insights insights = store();
+
+        cache.afterCommit(List.of(FootprintChange.everything()));
+
+        assertNotEquals(insights.getETag(), currentETag());
+        assertNull(cache.get(REQUEST, cache.versions(1)));
+    }
+
+    @Test
+    void commitForAnotherUserDoesNot() {
+        Insights insights = store();
+
+        cache.afterCommit(List.of(new FootprintChange(2L, DAY, DAY)));
+
+        assertEquals(insights.getETag(), currentETag());
+        assertSame(insights, cache.get(REQUEST, cache.versions(1)));
+    }
+
+    @Test
+    void modelSaveInvalidates() {
+        Insights insights = store();
+
+        cache.modelSaved(1L);
+
+        assertNotEquals(insights.getETag(), currentETag());
+        assertNull(cache.get(REQUEST, cache.versions(1)));
+    }
+
+    @Test
+    void categorySpaceGrowthInvalidates() throws SQLException {
+        Insights insights = store();
+
+        try (Connection writer = dataSource.getConnection()) {
+            writer.setAutoCommit(false);
+            categoryIndex.register(writer, Map.of(1L, List.of(7)));
+            writer.commit();
+        }
+        categoryIndex.afterCommit(List.of(new FootprintChange(1L, null, null)));
+
+        assertNotEquals(insights.getETag(), currentETag());
+        assertNull(cache.get(REQUEST, cache.versions(1)));
+    }
+
+    @Test
+    void resultOfDataThatChangedDuringTheRunIsNotStored() {
+        AnalysisCache.Versions before = cache.versions(1);
+        cache.afterCommit(List.of(new FootprintChange(1L, DAY, DAY)));
+
+        Insights insights = new Insights(null, List.of(), 0);
+        cache.put(REQUEST, 1L, before, insights);
+
+        assertNull(insights.getETag());
+        assertNull(cache.get(REQUEST, cache.versions(1)));
+    }
+
+    private Insights store() {
+        Insights insights = new Insights(null, List.of(), 0);
+        cache.put(REQUEST, 1L, cache.versions(1), insights);
+        return insights;
+    }
+
+    private String currentETag() {
+        return cache.etag(REQUEST, cache.versions(1));
+    }
+}
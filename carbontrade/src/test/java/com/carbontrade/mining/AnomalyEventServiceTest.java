@@ -0,0 +1,227 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.AnomalyEvent;
+import com.carbontrade.model.ClusterModel;
+import com.carbontrade.repository.AnomalyEventRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnomalyEventServiceTest {
+
+    private static final LocalDate DAY = LocalDate.parse("2024-06-10");
+    private static final double THRESHOLD = 10;
+
+    private final Map<Long, ClusterModel> models = new HashMap<>();
+    private final Map<LocalDate, Double> dayTotals = new HashMap<>();
+    private final List<YearMonth> monthsBuilt = new ArrayList<>();
+    private final List<AnomalyEvent> table = new ArrayList<>();
+
+    private ExecutorService scorer;
+    private AnomalyEventService service;
+
+    @BeforeEach
+    void createService() {
+        scorer = Executors.newSingleThreadExecutor();
+        ClusterModelService clusterModels = new ClusterModelService(null, null, NO_TRANSACTIONS) {
+            @Override
+            public Optional<ClusterModel> latest(long userId) {
+                return Optional.ofNullable(models.get(userId));
+            }
+        };
+        FeatureEngineeringService features = new FeatureEngineeringService(null, null, null, null) {
+            @Override
+            public FeatureMatrix buildDailyFeaturesUncached(Long userId, LocalDate start, LocalDate end,
+                    boolean trends) {
+                monthsBuilt.add(YearMonth.from(start));
+                return matrix(userId, start, end);
+            }
+        };
+        service = new AnomalyEventService(clusterModels, features, events(), NO_TRANSACTIONS, true, 31, scorer);
+        models.put(1L, model(1L));
+    }
+
+    @AfterEach
+    void stopScorer() {
+        scorer.shutdownNow();
+    }
+
+    @Test
+    void dayAboveTheModelThresholdBecomesAnEvent() throws Exception {
+        dayTotals.put(DAY, 50.0);
+        dayTotals.put(DAY.plusDays(1), 5.0);
+
+        commit(new FootprintChange(1L, DAY, DAY.plusDays(1)));
+
+        List<AnomalyEvent> events = service.feed(1L, 0, 100);
+        assertEquals(1, events.size());
+        assertEquals(DAY, events.get(0).getEventDate());
+        assertEquals(50.0, events.get(0).getScore(), 1e-9);
+        assertEquals(THRESHOLD, events.get(0).getThreshold());
+        assertEquals(50.0, events.get(0).getDayTotal());
+        assertEquals(4, events.get(0).getK());
+    }
+
+    @Test
+    void rescoringReplacesTheEventOrClearsIt() throws Exception {
+        dayTotals.put(DAY, 50.0);
+        commit(new FootprintChange(1L, DAY, DAY));
+
+        dayTotals.put(DAY, 60.0);
+        commit(new FootprintChange(1L, DAY, DAY));
+        List<AnomalyEvent> events = service.feed(null, 0, 100);
+        assertEquals(1, events.size());
+        assertEquals(60.0, events.get(0).getScore(), 1e-9);
+
+        dayTotals.put(DAY, 5.0);
+        commit(new FootprintChange(1L, DAY, DAY));
+        assertTrue(service.feed(null, 0, 100).isEmpty());
+    }
+
+    @Test
+    void rescoredLatestEventAppearsAfterTheOldCursor() throws Exception {
+        dayTotals.put(DAY, 50.0);
+        commit(new FootprintChange(1L, DAY, DAY));
+        long next = service.feed(1L, 0, 100).get(0).getId();
+
+        // The newest event is the one a re-ingest of today rescores
+        dayTotals.put(DAY, 70.0);
+        commit(new FootprintChange(1L, DAY, DAY));
+
+        List<AnomalyEvent> after = service.feed(1L, next, 100);
+        assertEquals(1, after.size());
+        assertTrue(after.get(0).getId() > next);
+        assertEquals(70.0, after.get(0).getScore(), 1e-9);
+    }
+
+    @Test
+    void usersWithoutAModelAndChangesWithoutAUserAreSkipped() throws Exception {
+        dayTotals.put(DAY, 50.0);
+
+        commit(new FootprintChange(2L, DAY, DAY));
+        commit(FootprintChange.everything());
+        commit(new FootprintChange(1L, null, null));
+
+        assertTrue(service.feed(null, 0, 100).isEmpty());
+        assertTrue(monthsBuilt.isEmpty());
+    }
+
+    @Test
+    void longUploadsAreScoredForTheirLastDaysOnly() throws Exception {
+        dayTotals.put(LocalDate.parse("2024-01-15"), 50.0);
+        dayTotals.put(LocalDate.parse("2024-06-20"), 50.0);
+
+        commit(new FootprintChange(1L, LocalDate.parse("2024-01-01"), LocalDate.parse("2024-06-30")));
+
+        assertEquals(List.of(YearMonth.of(2024, 5), YearMonth.of(2024, 6)), monthsBuilt);
+        List<AnomalyEvent> events = service.feed(1L, 0, 100);
+        assertEquals(1, events.size());
+        assertEquals(LocalDate.parse("2024-06-20"), events.get(0).getEventDate());
+    }
+
+    @Test
+    void clipKeepsTheLastDays() {
+        LocalDate end = LocalDate.parse("2024-06-30");
+        assertEquals(LocalDate.parse("2024-05-31"), AnomalyEventService.clip(LocalDate.parse("2024-01-01"), end, 31));
+        assertEquals(end, AnomalyEventService.clip(LocalDate.parse("2024-01-01"), end, 1));
+        assertEquals(LocalDate.parse("2024-06-01"), AnomalyEventService.clip(LocalDate.parse("2024-06-01"), end, 31));
+        assertEquals(end, AnomalyEventService.clip(end, end, 31));
+    }
+
+    // Runs the scorer's pending drain to completion
+    private void commit(FootprintChange change) throws Exception {
+        service.afterCommit(List.of(change));
+        scorer.submit(() -> {}).get(5, TimeUnit.SECONDS);
+    }
+
+    // Scores are the distance to a centroid at zero, i.e. the day total
+    private static ClusterModel model(long userId) {
+        ClusterModel model = new ClusterModel(userId, ClusterModelService.DAILY, 4);
+        model.setColumnNames("monthTotal\nweekday\nmonth\ndayTotal");
+        model.setCentroids(ClusterModelService.encode(new double[16]));
+        model.setAnomalyThreshold(THRESHOLD);
+        return model;
+    }
+
+    private FeatureMatrix matrix(Long userId, LocalDate start, LocalDate end) {
+        int rows = (int) (end.toEpochDay() - start.toEpochDay() + 1);
+        double[] data = new double[rows * 4];
+        for (int r = 0; r < rows; r++) {
+            data[r * 4 + FeatureMatrix.DAY_TOTAL] = dayTotals.getOrDefault(start.plusDays(r), 0.0);
+        }
+        return new FeatureMatrix(userId, start, rows, data, new String[]{"monthTotal", "weekday", "month", "dayTotal"},
+                new int[0], 0, -1);
+    }
+
+    private static final PlatformTransactionManager NO_TRANSACTIONS = new PlatformTransactionManager() {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {}
+
+        @Override
+        public void rollback(TransactionStatus status) {}
+    };
+
+    // anomaly_event in memory; like SQLite, a new row's id is the highest present plus one
+    private AnomalyEventRepository events() {
+        return (AnomalyEventRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{AnomalyEventRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "supersede" -> {
+                        int updated = 0;
+                        for (AnomalyEvent e : table) {
+                            if (!e.isSuperseded() && e.getUserId().equals(args[0])
+                                    && ((Collection<?>) args[1]).contains(e.getEventDate())) {
+                                e.setSuperseded(true);
+                                updated++;
+                            }
+                        }
+                        yield updated;
+                    }
+                    case "saveAll" -> {
+                        for (Object o : (Iterable<?>) args[0]) {
+                            AnomalyEvent e = (AnomalyEvent) o;
+                            setId(e, table.stream().mapToLong(AnomalyEvent::getId).max().orElse(0) + 1);
+                            table.add(e);
+                        }
+                        yield args[0];
+                    }
+                    case "findBySupersededFalseAndIdGreaterThanOrderByIdAsc" -> table.stream()
+                            .filter(e -> !e.isSuperseded() && e.getId() > (Long) args[0]).toList();
+                    case "findByUserIdAndSupersededFalseAndIdGreaterThanOrderByIdAsc" -> table.stream()
+                            .filter(e -> !e.isSuperseded() && e.getUserId().equals(args[0])
+                                    && e.getId() > (Long) args[1]).toList();
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static void setId(AnomalyEvent event, long id) throws ReflectiveOperationException {
+        Field field = AnomalyEvent.class.getDeclaredField("id");
+        field.setAccessible(true);
+        field.set(event, id);
+    }
+}
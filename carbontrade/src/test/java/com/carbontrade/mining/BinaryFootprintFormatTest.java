@@ -0,0 +1,124 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.CarbonFootprint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryFootprintFormatTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsCsv() throws IOException {
+        Path ctfb = convert("""
+                userId,date,category,amount,unit,emissionFactor
+                7,2024-03-01,electricity,12.5,kWh,0.4
+                8,2024-03-02,flight,900,km,
+                7,2024-03-02,electricity,3,kWh,0.4
+                """);
+
+        try (BinaryFootprintFormat.Reader reader = new BinaryFootprintFormat.Reader(ctfb)) {
+            assertEquals(3, reader.recordCount());
+            List<CarbonFootprint> rows = new ArrayList<>();
+            reader.forEachRemaining(rows::add);
+
+            assertEquals(7L, rows.get(0).getUserId());
+            assertEquals(LocalDate.of(2024, 3, 1), rows.get(0).getDate());
+            assertEquals("electricity", rows.get(0).getCategory());
+            assertEquals("kWh", rows.get(0).getUnit());
+            assertEquals(5.0, rows.get(0).getKgCO2e(), 1e-9);
+            assertEquals("flight", rows.get(1).getCategory());
+            assertNull(rows.get(1).getEmissionFactor());
+            assertEquals(3.0, rows.get(2).getAmount(), 0);
+        }
+    }
+
+    @Test
+    void skipResumesMidFile() throws IOException {
+        Path ctfb = convert(csv(100, "electricity"));
+
+        try (BinaryFootprintFormat.Reader reader = new BinaryFootprintFormat.Reader(ctfb)) {
+            reader.skip(97);
+            assertEquals(97L, reader.next().getUserId());
+            reader.skip(10);
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    void readsHeadersLargerThanAMegabyte() throws IOException {
+        StringBuilder csv = new StringBuilder("userId,date,category,amount,unit,emissionFactor\n");
+        String padding = "x".repeat(1_000);
+        for (int i = 0; i < 2_000; i++) {
+            csv.append(i).append(",2024-01-01,").append(padding).append(i).append(",1,kg,\n");
+        }
+        Path ctfb = convert(csv.toString());
+
+        try (BinaryFootprintFormat.Reader reader = new BinaryFootprintFormat.Reader(ctfb)) {
+            reader.skip(1_999);
+            assertEquals(padding + 1_999, reader.next().getCategory());
+        }
+    }
+
+    @Test
+    void rejectsTruncatedRecords() throws IOException {
+        Path ctfb = convert(csv(10, "electricity"));
+        try (FileChannel channel = FileChannel.open(ctfb, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - BinaryFootprintFormat.RECORD_BYTES - 1);
+        }
+
+        IOException e = assertThrows(IOException.class, () -> new BinaryFootprintFormat.Reader(ctfb));
+        assertTrue(e.getMessage().contains("declares 10 records"), e.getMessage());
+    }
+
+    @Test
+    void rejectsTruncatedHeader() throws IOException {
+        Path ctfb = convert(csv(1, "a-rather-long-category-name"));
+        try (FileChannel channel = FileChannel.open(ctfb, StandardOpenOption.WRITE)) {
+            channel.truncate(20);
+        }
+
+        IOException e = assertThrows(IOException.class, () -> new BinaryFootprintFormat.Reader(ctfb));
+        assertTrue(e.getMessage().startsWith("Truncated CTFB header"), e.getMessage());
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path empty = Files.createFile(dir.resolve("empty.ctfb"));
+        Path text = Files.writeString(dir.resolve("text.ctfb"), "userId,date\n");
+
+        assertThrows(IOException.class, () -> new BinaryFootprintFormat.Reader(empty));
+        assertThrows(IOException.class, () -> new BinaryFootprintFormat.Reader(text));
+    }
+
+    private Path convert(String csv) throws IOException {
+        Path in = Files.writeString(Files.createTempFile(dir, "in-", ".csv"), csv);
+        Path out = Files.createTempFile(dir, "out-", ".ctfb");
+        BinaryFootprintFormat.convertCsv(in, out);
+        return out;
+    }
+
+    private static String csv(int rows, String category) {
+        StringBuilder csv = new StringBuilder("userId,date,category,amount,unit,emissionFactor\n");
+        for (int i = 0; i < rows; i++) {
+            csv.append(i).append(",2024-01-01,").append(category).append(",1,kWh,0.5\n");
+        }
+        return csv.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package com.carbontrade.mining;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+import java.util.function.LongPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+
+    private static final int PROBES = 200_000;
+
+    @Test
+    void neverForgetsAKey() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        SplittableRandom random = new SplittableRandom(1);
+        long[] keys = random.longs(10_000).toArray();
+        for (long k : keys) {
+            filter.put(k);
+        }
+        for (long k : keys) {
+            assertTrue(filter.mightContain(k));
+        }
+        assertFalse(filter.isSaturated());
+    }
+
+    @Test
+    void falsePositiveRateStaysNearItsSizing() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        SplittableRandom random = new SplittableRandom(2);
+        random.longs(10_000).forEach(filter::put);
+
+        double rate = falsePositives(random, filter::mightContain) / (double) PROBES;
+        assertTrue(rate < 0.015, "false-positive rate " + rate);
+    }
+
+    @Test
+    void chainedUserFilterKeepsEveryKeyAndItsRateWhileGrowing() {
+        FootprintDeduplicator.UserFilter filter = new FootprintDeduplicator.UserFilter();
+        filter.grow(4_096, 0.005);
+        SplittableRandom random = new SplittableRandom(3);
+        long[] keys = random.longs(100_000).toArray();
+        for (long k : keys) {
+            filter.put(k);
+        }
+
+        assertEquals(5, filter.stages()); // 4k + 8k + 16k + 32k + 64k
+        for (long k : keys) {
+            assertTrue(filter.mightContain(k));
+        }
+        double rate = falsePositives(random, filter::mightContain) / (double) PROBES;
+        assertTrue(rate < 0.015, "false-positive rate " + rate);
+    }
+
+    private static int falsePositives(SplittableRandom random, LongPredicate contains) {
+        int hits = 0;
+        for (int i = 0; i < PROBES; i++) {
+            if (contains.test(random.nextLong())) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
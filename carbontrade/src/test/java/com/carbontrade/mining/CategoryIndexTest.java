@@ -0,0 +1,183 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.CarbonFootprint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CategoryIndexTest {
+
+    private static final List<FootprintChange> USER_1 = List.of(new FootprintChange(1L, null, null));
+
+    @TempDir
+    Path dir;
+
+    private DataSource dataSource;
+    private CategoryIndex index;
+
+    @BeforeEach
+    void createTables() throws SQLException {
+        dataSource = new DriverManagerDataSource("jdbc:sqlite:" + dir.resolve("index.db"));
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("""
+                    CREATE TABLE footprint_dictionary (
+                        id INTEGER PRIMARY KEY, kind VARCHAR NOT NULL, code INT, value VARCHAR NOT NULL)
+                    """);
+            st.execute("""
+                    CREATE TABLE user_category_index (
+                        id INTEGER PRIMARY KEY, user_id BIGINT NOT NULL, category_code INT NOT NULL, position INT,
+                        CONSTRAINT uk_user_category_code UNIQUE (user_id, category_code),
+                        CONSTRAINT uk_user_category_position UNIQUE (user_id, position))
+                    """);
+            st.execute("""
+                    CREATE TABLE footprint_daily_rollup (
+                        user_id BIGINT NOT NULL, date DATE NOT NULL, category_code INT NOT NULL,
+                        kgco2e DOUBLE NOT NULL, row_count BIGINT NOT NULL,
+                        PRIMARY KEY (user_id, date, category_code))
+                    """);
+        }
+        FootprintDictionary dictionary = new FootprintDictionary(dataSource);
+        dictionary.load();
+        index = new CategoryIndex(dictionary, dataSource, "user");
+    }
+
+    @Test
+    void registrationFollowsTheWritersTransaction() throws SQLException {
+        assertEquals(0, index.version(1));
+        try (Connection writer = dataSource.getConnection()) {
+            writer.setAutoCommit(false);
+            index.register(writer, Map.of(1L, List.of(3, 5)));
+            writer.rollback();
+            index.afterCommit(USER_1);
+            assertEquals(0, index.version(1));
+
+            index.register(writer, Map.of(1L, List.of(3, 5)));
+            writer.commit();
+        }
+        // Still the cached space until the commit is announced
+        assertEquals(0, index.version(1));
+        index.afterCommit(USER_1);
+        assertArrayEquals(new int[]{3, 5}, index.space(1, new int[0]).codes());
+    }
+
+    @Test
+    void newCategoriesAreAppendedAfterExistingColumns() throws SQLException {
+        registerAndCommit(1L, List.of(4));
+        registerAndCommit(1L, List.of(2, 4, 9));
+        registerAndCommit(2L, List.of(9));
+
+        assertArrayEquals(new int[]{4, 2, 9}, index.space(1, new int[0]).codes());
+        assertArrayEquals(new int[]{9}, index.space(2, new int[0]).codes());
+    }
+
+    @Test
+    void spaceWithUnregisteredCategoriesDoesNotWrite() throws SQLException {
+        registerAndCommit(1L, List.of(4));
+
+        CategoryIndex.Space space = index.space(1, new int[]{4, 7, 2});
+
+        assertArrayEquals(new int[]{4, 7, 2}, space.codes());
+        assertEquals(1, index.version(1));
+        assertEquals(1, indexRows());
+    }
+
+    @Test
+    void rollupFlushRegistersItsCategories() throws SQLException {
+        FootprintRollup.Delta delta = new FootprintRollup(index).newDelta();
+        delta.add(footprint(1L, LocalDate.of(2024, 3, 1), 6));
+        delta.add(footprint(1L, LocalDate.of(2024, 3, 2), 1));
+        try (Connection writer = dataSource.getConnection()) {
+            writer.setAutoCommit(false);
+            delta.flush(writer);
+            writer.commit();
+        }
+        index.afterCommit(delta.drain());
+
+        assertArrayEquals(new int[]{1, 6}, index.space(1, new int[0]).codes());
+    }
+
+    @Test
+    void backfillAppendsRollupCategoriesByFirstDay() throws SQLException {
+        registerAndCommit(1L, List.of(2));
+        rollup(1L, LocalDate.of(2024, 1, 12), 2);
+        rollup(1L, LocalDate.of(2024, 1, 12), 3);
+        rollup(1L, LocalDate.of(2024, 1, 10), 8);
+        rollup(1L, LocalDate.of(2024, 1, 10), 5);
+        rollup(2L, LocalDate.of(2024, 1, 1), 1);
+
+        try (Connection conn = dataSource.getConnection()) {
+            assertEquals(1, index.backfill(conn, 2L));
+            assertEquals(3, index.backfill(conn, null));
+            assertEquals(0, index.backfill(conn, null));
+        }
+        index.afterCommit(List.of(new FootprintChange(null, null, null)));
+
+        assertArrayEquals(new int[]{2, 5, 8, 3}, index.space(1, new int[0]).codes());
+        assertArrayEquals(new int[]{1}, index.space(2, new int[0]).codes());
+    }
+
+    @Test
+    void globalScopeNeverWrites() throws SQLException {
+        CategoryIndex global = new CategoryIndex(new FootprintDictionary(dataSource), dataSource, "global");
+        rollup(1L, LocalDate.of(2024, 1, 1), 0);
+        try (Connection conn = dataSource.getConnection()) {
+            global.register(conn, Map.of(1L, List.of(0)));
+            assertEquals(0, global.backfill(conn, null));
+        }
+        assertEquals(0, indexRows());
+        assertArrayEquals(new int[]{0, 1, 2}, global.space(1, new int[]{2}).codes());
+    }
+
+    private void registerAndCommit(long userId, List<Integer> codes) throws SQLException {
+        try (Connection writer = dataSource.getConnection()) {
+            writer.setAutoCommit(false);
+            index.register(writer, Map.of(userId, codes));
+            writer.commit();
+        }
+        index.afterCommit(List.of(new FootprintChange(userId, null, null)));
+    }
+
+    private void rollup(long userId, LocalDate date, int code) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "INSERT INTO footprint_daily_rollup VALUES (?, ?, ?, 1.0, 1)")) {
+            ps.setLong(1, userId);
+            ps.setDate(2, Date.valueOf(date));
+            ps.setInt(3, code);
+            ps.executeUpdate();
+        }
+    }
+
+    private int indexRows() throws SQLException {
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM user_category_index")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static CarbonFootprint footprint(long userId, LocalDate date, int categoryCode) {
+        CarbonFootprint cf = new CarbonFootprint();
+        cf.setUserId(userId);
+        cf.setDate(date);
+        cf.setCategoryCode(categoryCode);
+        cf.setKgCO2e(1.0);
+        return cf;
+    }
+}
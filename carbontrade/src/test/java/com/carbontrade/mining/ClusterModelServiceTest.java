@@ -0,0 +1,76 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.ClusterModel;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterModelServiceTest {
+
+    private static final ClusterModel YEAR = model("2024-01-01", "2024-12-31");
+
+    @Test
+    void shorterWindowInsideTheStoredOneDoesNotReplaceIt() {
+        assertTrue(ClusterModelService.isPartialWindow(model("2024-06-01", "2024-06-30"), YEAR));
+        assertTrue(ClusterModelService.isPartialWindow(model("2024-01-01", "2024-11-30"), YEAR));
+    }
+
+    @Test
+    void sameLongerOrLaterWindowsReplaceIt() {
+        assertFalse(ClusterModelService.isPartialWindow(model("2024-01-01", "2024-12-31"), YEAR));
+        assertFalse(ClusterModelService.isPartialWindow(model("2023-01-01", "2024-12-31"), YEAR));
+        assertFalse(ClusterModelService.isPartialWindow(model("2024-12-01", "2025-01-31"), YEAR));
+        assertFalse(ClusterModelService.isPartialWindow(model("2024-06-01", "2024-06-30"), new ClusterModel()));
+    }
+
+    @Test
+    void centroidsRoundTripLittleEndian() {
+        double[] values = {0.0, -1.5, Double.MAX_VALUE, 42.25};
+        assertArrayEquals(values, ClusterModelService.decode(ClusterModelService.encode(values)));
+    }
+
+    @Test
+    void centroidsFollowColumnsByName() {
+        ClusterModel model = new ClusterModel(1L, ClusterModelService.DAILY, 2);
+        model.setColumnNames("monthTotal\ndayTotal\ncategory:bus\ncategory:train");
+        model.setCentroids(ClusterModelService.encode(new double[]{
+                1, 2, 3, 4,
+                5, 6, 7, 8}));
+        // Columns reordered, category:bus dropped and category:car new since training
+        FeatureMatrix matrix = matrix("dayTotal", "category:train", "monthTotal", "category:car");
+
+        double[] centroids = new ClusterModelService(null, null, null).centroidsFor(matrix, model).orElseThrow();
+
+        assertArrayEquals(new double[]{
+                2, 4, 1, 0,
+                6, 8, 5, 0}, centroids);
+    }
+
+    @Test
+    void centroidsThatDoNotMatchTheirColumnNamesAreIgnored() {
+        ClusterModel model = new ClusterModel(1L, ClusterModelService.DAILY, 2);
+        model.setColumnNames("monthTotal\ndayTotal");
+        model.setCentroids(ClusterModelService.encode(new double[]{1, 2, 3}));
+
+        assertEquals(Optional.empty(),
+                new ClusterModelService(null, null, null).centroidsFor(matrix("monthTotal", "dayTotal"), model));
+    }
+
+    private static FeatureMatrix matrix(String... columnNames) {
+        return new FeatureMatrix(1L, LocalDate.parse("2024-06-01"), 1, new double[columnNames.length], columnNames,
+                new int[0], 0, -1);
+    }
+
+    private static ClusterModel model(String from, String to) {
+        ClusterModel model = new ClusterModel(1L, ClusterModelService.DAILY, 4);
+        model.setTrainedFrom(LocalDate.parse(from));
+        model.setTrainedTo(LocalDate.parse(to));
+        return model;
+    }
+}
@@ -0,0 +1,124 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.CarbonFootprint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FootprintDeduplicatorTest {
+
+    @TempDir
+    Path dir;
+
+    private Connection conn;
+
+    @BeforeEach
+    void openDatabase() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("dedup.db"));
+        try (Statement st = conn.createStatement()) {
+            st.execute("""
+                    CREATE TABLE carbon_footprint (
+                        id INTEGER PRIMARY KEY, user_id BIGINT, date DATE, category_code INT,
+                        amount DOUBLE, unit_code INT)
+                    """);
+        }
+    }
+
+    @AfterEach
+    void closeDatabase() throws SQLException {
+        conn.close();
+    }
+
+    @Test
+    void firstRowOfAUserIsLookedUpThenMissesAreTrusted() throws SQLException {
+        FootprintDeduplicator dedup = new FootprintDeduplicator(true, 0.01, 100);
+        insert(row(1, 1, 10.0));
+
+        // No filter yet: the caller is sent to the database, which builds it
+        assertTrue(dedup.mightExist(row(1, 1, 10.0)));
+        assertTrue(dedup.exists(conn, row(1, 1, 10.0)));
+
+        assertTrue(dedup.mightExist(row(1, 1, 10.0)));
+        assertFalse(dedup.mightExist(row(1, 2, 10.0)));
+        // Recorded by the miss, before the caller even inserts it
+        assertTrue(dedup.mightExist(row(1, 2, 10.0)));
+    }
+
+    @Test
+    void keyOfANewRowFoundByLookupIsRecorded() throws SQLException {
+        FootprintDeduplicator dedup = new FootprintDeduplicator(true, 0.01, 100);
+
+        assertTrue(dedup.mightExist(row(1, 1, 10.0)));
+        assertFalse(dedup.exists(conn, row(1, 1, 10.0)));
+        assertTrue(dedup.mightExist(row(1, 1, 10.0)));
+    }
+
+    @Test
+    void filterBuiltAfterTheCallerFlushedSeesItsOwnUncommittedRows() throws SQLException {
+        FootprintDeduplicator dedup = new FootprintDeduplicator(true, 0.01, 100);
+        conn.setAutoCommit(false);
+        insert(row(1, 1, 10.0));
+
+        assertTrue(dedup.mightExist(row(1, 5, 1.0)));
+        assertFalse(dedup.exists(conn, row(1, 5, 1.0)));
+        assertTrue(dedup.mightExist(row(1, 1, 10.0)));
+        conn.rollback();
+    }
+
+    @Test
+    void evictedUserIsRebuiltFromTheDatabase() throws SQLException {
+        FootprintDeduplicator dedup = new FootprintDeduplicator(true, 0.01, 1);
+        dedup.mightExist(row(1, 1, 1.0));
+        dedup.exists(conn, row(1, 1, 1.0));
+        insert(row(1, 1, 1.0));
+
+        dedup.mightExist(row(2, 1, 1.0));
+        dedup.exists(conn, row(2, 1, 1.0)); // user 1 drops out
+
+        assertTrue(dedup.mightExist(row(1, 3, 1.0)));
+        assertFalse(dedup.exists(conn, row(1, 3, 1.0)));
+        assertTrue(dedup.mightExist(row(1, 1, 1.0)));
+    }
+
+    @Test
+    void disabledDeduplicatorPassesEverything() {
+        FootprintDeduplicator dedup = new FootprintDeduplicator(false, 0.01, 100);
+        assertFalse(dedup.mightExist(row(1, 1, 1.0)));
+        assertFalse(dedup.mightExist(row(1, 1, 1.0)));
+    }
+
+    private void insert(CarbonFootprint cf) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO carbon_footprint (user_id, date, category_code, amount, unit_code) VALUES (?, ?, ?, ?, ?)")) {
+            ps.setLong(1, cf.getUserId());
+            ps.setDate(2, Date.valueOf(cf.getDate()));
+            ps.setInt(3, cf.getCategoryCode());
+            ps.setDouble(4, cf.getAmount());
+            ps.setInt(5, cf.getUnitCode());
+            ps.executeUpdate();
+        }
+    }
+
+    private static CarbonFootprint row(long userId, int day, double amount) {
+        CarbonFootprint cf = new CarbonFootprint();
+        cf.setUserId(userId);
+        cf.setDate(LocalDate.of(2024, 1, day));
+        cf.setCategoryCode(1);
+        cf.setUnitCode(2);
+        cf.setAmount(amount);
+        return cf;
+    }
+}
@@ -0,0 +1,147 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.FootprintDictionary.Kind;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class FootprintDictionaryTest {
+
+    @TempDir
+    Path dir;
+
+    private DataSource dataSource;
+    private FootprintDictionary dictionary;
+
+    @BeforeEach
+    void createTable() throws SQLException {
+        dataSource = new DriverManagerDataSource("jdbc:sqlite:" + dir.resolve("dictionary.db"));
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("""
+                    CREATE TABLE footprint_dictionary (
+                        id INTEGER PRIMARY KEY, kind VARCHAR NOT NULL, code INT, value VARCHAR NOT NULL,
+                        CONSTRAINT uk_dictionary_value UNIQUE (kind, value),
+                        CONSTRAINT uk_dictionary_code UNIQUE (kind, code))
+                    """);
+        }
+        dictionary = new FootprintDictionary(dataSource);
+        dictionary.load();
+    }
+
+    @Test
+    void secondWriterAdoptsTheCodeTheFirstCommitted() throws Exception {
+        try (Connection writer = dataSource.getConnection()) {
+            writer.setAutoCommit(false);
+            int code = dictionary.register(writer, Kind.CATEGORY, "Food");
+
+            // Blocks on the writer's transaction, then finds its row instead of violating uk_dictionary_value
+            CompletableFuture<Integer> other = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return dictionary.encode(Kind.CATEGORY, "food ");
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(200);
+            assertFalse(other.isDone());
+
+            writer.commit();
+            dictionary.publish(Kind.CATEGORY, "Food", code);
+
+            assertEquals(code, other.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of("0:food"), stored(Kind.CATEGORY));
+    }
+
+    @Test
+    void rolledBackRegistrationLeavesNoGap() throws SQLException {
+        try (Connection writer = dataSource.getConnection()) {
+            writer.setAutoCommit(false);
+            assertEquals(0, dictionary.register(writer, Kind.UNIT, "kg"));
+            writer.rollback();
+        }
+
+        assertEquals(0, dictionary.encode(Kind.UNIT, "kWh"));
+        assertEquals(1, dictionary.encode(Kind.UNIT, "kg"));
+        assertEquals(2, dictionary.size(Kind.UNIT));
+        assertEquals("kg", dictionary.value(Kind.UNIT, 1));
+    }
+
+    @Test
+    void kindsHaveTheirOwnCodes() throws SQLException {
+        assertEquals(0, dictionary.encode(Kind.CATEGORY, "transport"));
+        assertEquals(0, dictionary.encode(Kind.UNIT, "km"));
+        assertEquals(1, dictionary.encode(Kind.CATEGORY, "Energy"));
+        assertEquals(1, dictionary.code(Kind.CATEGORY, "ENERGY"));
+    }
+
+    @Test
+    void concurrentEncodersAgreeOnDenseCodes() throws Exception {
+        int threads = 4;
+        int values = 25;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                results.add(pool.submit(() -> {
+                    int[] codes = new int[values];
+                    for (int i = 0; i < values; i++) {
+                        int v = (i + offset * 7) % values;
+                        codes[v] = dictionary.encode(Kind.CATEGORY, "category-" + v);
+                    }
+                    return codes;
+                }));
+            }
+
+            int[] first = results.get(0).get(30, TimeUnit.SECONDS);
+            for (Future<int[]> r : results) {
+                int[] codes = r.get(30, TimeUnit.SECONDS);
+                for (int v = 0; v < values; v++) {
+                    assertEquals(first[v], codes[v], "category-" + v);
+                }
+            }
+            Set<Integer> distinct = new HashSet<>();
+            for (int code : first) {
+                distinct.add(code);
+            }
+            assertEquals(values, distinct.size());
+            assertEquals(values, dictionary.size(Kind.CATEGORY));
+            assertEquals(values, stored(Kind.CATEGORY).size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private List<String> stored(Kind kind) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT code, value FROM footprint_dictionary WHERE kind = '"
+                     + kind + "' ORDER BY code")) {
+            while (rs.next()) {
+                rows.add(rs.getInt(1) + ":" + rs.getString(2));
+            }
+        }
+        return rows;
+    }
+}
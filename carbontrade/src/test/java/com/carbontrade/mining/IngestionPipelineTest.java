@@ -0,0 +1,149 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.model.CarbonFootprint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngestionPipelineTest {
+
+    private static final Duration NO_HANG = Duration.ofSeconds(10);
+
+    private final RecordingWriter writer = new RecordingWriter();
+    private final IngestionPipeline pipeline = new IngestionPipeline(writer, 4, 7, 3);
+
+    @AfterEach
+    void shutdown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    void writesRowsInSourceOrder() throws Exception {
+        List<Integer> source = IntStream.range(0, 5_000).boxed().toList();
+
+        FootprintBulkWriter.Result result = pipeline.run(source.iterator(), i -> {
+            if (ThreadLocalRandom.current().nextInt(50) == 0) {
+                LockSupport.parkNanos(200_000); // let later chunks overtake this one
+            }
+            return footprint(i);
+        });
+
+        assertEquals(source.size(), result.inserted());
+        List<Long> expected = source.stream().map(Integer::longValue).toList();
+        assertEquals(expected, writer.committed);
+    }
+
+    @Test
+    void parserExceptionRollsBackAndIsRethrown() {
+        IllegalArgumentException thrown = assertTimeoutPreemptively(NO_HANG, () -> assertThrows(
+                IllegalArgumentException.class, () -> pipeline.run(range(1_000), failingAt(500,
+                        new IllegalArgumentException("bad row")))));
+
+        assertEquals("bad row", thrown.getMessage());
+        assertTrue(writer.committed.isEmpty());
+        assertTrue(writer.rolledBack);
+    }
+
+    @Test
+    void parserErrorReachesTheWriterInsteadOfHangingIt() {
+        StackOverflowError thrown = assertTimeoutPreemptively(NO_HANG, () -> assertThrows(
+                StackOverflowError.class, () -> pipeline.run(range(1_000), failingAt(321,
+                        new StackOverflowError("deep")))));
+
+        assertEquals("deep", thrown.getMessage());
+        assertTrue(writer.committed.isEmpty());
+        assertTrue(writer.rolledBack);
+    }
+
+    @Test
+    void interruptedReaderFailsInsteadOfCommittingAPartialImport() {
+        Iterator<Integer> interrupting = new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < 1_000;
+            }
+
+            @Override
+            public Integer next() {
+                if (next == 400) {
+                    Thread.currentThread().interrupt();
+                }
+                return next++;
+            }
+        };
+
+        assertTimeoutPreemptively(NO_HANG, () -> assertThrows(InterruptedException.class,
+                () -> pipeline.run(interrupting, IngestionPipelineTest::footprint)));
+
+        assertTrue(writer.committed.isEmpty());
+        assertTrue(writer.rolledBack);
+    }
+
+    private static Iterator<Integer> range(int n) {
+        return IntStream.range(0, n).iterator();
+    }
+
+    private static Function<Integer, CarbonFootprint> failingAt(int row, Throwable failure) {
+        return i -> {
+            if (i == row) {
+                sneakyThrow(failure);
+            }
+            return footprint(i);
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> void sneakyThrow(Throwable t) throws E {
+        throw (E) t;
+    }
+
+    private static CarbonFootprint footprint(int i) {
+        CarbonFootprint cf = new CarbonFootprint();
+        cf.setUserId((long) i);
+        return cf;
+    }
+
+    /**
+     * Drains the pipeline like the bulk writer does, as one transaction that
+     * only commits if every row arrives.
+     */
+    private static final class RecordingWriter extends FootprintBulkWriter {
+
+        final List<Long> committed = new ArrayList<>();
+        volatile boolean rolledBack;
+
+        RecordingWriter() {
+            super(null, null, null, null, null, null);
+        }
+
+        @Override
+        public Result write(Iterator<CarbonFootprint> rows, CommitHook hook) {
+            List<Long> tx = new ArrayList<>();
+            try {
+                while (rows.hasNext()) {
+                    tx.add(rows.next().getUserId());
+                }
+            } catch (Throwable e) {
+                rolledBack = true;
+                throw e;
+            }
+            committed.addAll(tx);
+            return new Result(tx.size(), 0, 0);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.carbontrade.mining;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KMeansTest {
+
+    private static final int COLS = 5;
+
+    @Test
+    void hamerlyBoundsGiveTheSameClustersAsPlainLloyd() {
+        for (long seed = 1; seed <= 5; seed++) {
+            Random random = new Random(seed);
+            int rows = 1500;
+            int k = 6;
+            double[] data = blobs(random, rows, k, 3.0);
+            double[] initial = Arrays.copyOf(data, k * COLS); // first k rows
+
+            KMeans.Result hamerly = KMeans.fitFrom(data, rows, COLS, initial, 500, false);
+            Lloyd lloyd = Lloyd.run(data, rows, initial, 500);
+
+            assertTrue(hamerly.converged());
+            assertArrayEquals(lloyd.assignments, hamerly.assignments(), "seed " + seed);
+            assertArrayEquals(lloyd.centroids, hamerly.centroids(), 1e-9, "seed " + seed);
+            assertEquals(lloyd.iterations, hamerly.iterations(), "seed " + seed);
+            assertEquals(lloyd.inertia(data, rows), hamerly.inertia(), 1e-6 * lloyd.inertia(data, rows));
+        }
+    }
+
+    @Test
+    void parallelAssignmentMatchesSequential() {
+        Random random = new Random(7);
+        int rows = 3 * KMeans.CHUNK + 17;
+        double[] data = blobs(random, rows, 4, 2.0);
+
+        KMeans.Result sequential = KMeans.fit(data, rows, COLS, 4, 200, 42L, false);
+        KMeans.Result parallel = KMeans.fit(data, rows, COLS, 4, 200, 42L, true);
+
+        assertArrayEquals(sequential.assignments(), parallel.assignments());
+        assertArrayEquals(sequential.centroids(), parallel.centroids(), 1e-9);
+        assertEquals(sequential.iterations(), parallel.iterations());
+    }
+
+    @Test
+    void assignScoresAgainstGivenCentroidsWithoutMovingThem() {
+        double[] data = {0, 0, 0, 0, 0, 10, 10, 10, 10, 10, 1, 1, 1, 1, 1};
+        double[] centroids = {0, 0, 0, 0, 0, 10, 10, 10, 10, 10};
+
+        KMeans.Result result = KMeans.assign(data, 3, COLS, centroids);
+
+        assertArrayEquals(new int[]{0, 1, 0}, result.assignments());
+        assertArrayEquals(centroids, result.centroids());
+        assertEquals(0, result.iterations());
+        assertEquals(5.0, result.inertia(), 1e-12);
+    }
+
+    @Test
+    void rejectsMoreClustersThanRows() {
+        assertThrows(IllegalArgumentException.class, () -> KMeans.fit(new double[2 * COLS], 2, COLS, 3, 10, 1L, false));
+        assertThrows(IllegalArgumentException.class, () -> KMeans.fit(new double[2 * COLS], 2, COLS, 0, 10, 1L, false));
+    }
+
+    // Gaussian blobs around k random centres, spread apart by a multiple of the noise
+    private static double[] blobs(Random random, int rows, int k, double spread) {
+        double[] centres = new double[k * COLS];
+        for (int x = 0; x < centres.length; x++) {
+            centres[x] = random.nextDouble() * spread * k;
+        }
+        double[] data = new double[rows * COLS];
+        for (int i = 0; i < rows; i++) {
+            int c = random.nextInt(k);
+            for (int j = 0; j < COLS; j++) {
+                data[i * COLS + j] = centres[c * COLS + j] + random.nextGaussian();
+            }
+        }
+        return data;
+    }
+
+    // Reference: full nearest-centroid scan of every row in every iteration, same update order as KMeans
+    private static final class Lloyd {
+        final double[] centroids;
+        final int[] assignments;
+        int iterations;
+
+        private Lloyd(double[] centroids, int rows) {
+            this.centroids = centroids;
+            this.assignments = new int[rows];
+        }
+
+        static Lloyd run(double[] data, int rows, double[] initial, int maxIterations) {
+            Lloyd lloyd = new Lloyd(initial.clone(), rows);
+            int k = initial.length / COLS;
+            lloyd.assignAll(data, rows, k);
+            while (lloyd.iterations < maxIterations) {
+                lloyd.iterations++;
+                double[] previous = lloyd.centroids.clone();
+                lloyd.update(data, rows, k);
+                if (Arrays.equals(previous, lloyd.centroids)) {
+                    break;
+                }
+                if (lloyd.assignAll(data, rows, k) == 0) {
+                    break;
+                }
+            }
+            return lloyd;
+        }
+
+        int assignAll(double[] data, int rows, int k) {
+            int changed = 0;
+            for (int i = 0; i < rows; i++) {
+                int best = 0;
+                double bestDistance = Double.MAX_VALUE;
+                for (int c = 0; c < k; c++) {
+                    double d = distance(data, i, centroids, c);
+                    if (d < bestDistance) {
+                        bestDistance = d;
+                        best = c;
+                    }
+                }
+                if (assignments[i] != best) {
+                    changed++;
+                }
+                assignments[i] = best;
+            }
+            return changed;
+        }
+
+        void update(double[] data, int rows, int k) {
+            double[] sums = new double[k * COLS];
+            int[] counts = new int[k];
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < COLS; j++) {
+                    sums[assignments[i] * COLS + j] += data[i * COLS + j];
+                }
+                counts[assignments[i]]++;
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] > 0) {
+                    for (int j = 0; j < COLS; j++) {
+                        centroids[c * COLS + j] = sums[c * COLS + j] / counts[c];
+                    }
+                }
+            }
+        }
+
+        double inertia(double[] data, int rows) {
+            double total = 0;
+            for (int i = 0; i < rows; i++) {
+                total += distance(data, i, centroids, assignments[i]);
+            }
+            return total;
+        }
+
+        private static double distance(double[] data, int row, double[] centroids, int c) {
+            double sum = 0;
+            for (int j = 0; j < COLS; j++) {
+                double d = data[row * COLS + j] - centroids[c * COLS + j];
+                sum += d * d;
+            }
+            return sum;
+        }
+    }
+}
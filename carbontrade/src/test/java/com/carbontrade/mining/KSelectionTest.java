@@ -0,0 +1,83 @@
+package com.carbontrade.mining;
+
+import com.carbontrade.mining.dto.KScore;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KSelectionTest {
+
+    private static final int COLS = 4;
+
+    @Test
+    void picksTheNumberOfSeparatedGroups() {
+        double[] data = groups(new Random(1), 600, 4, 20.0, 1.0);
+
+        KSelection.Outcome outcome = KSelection.select(data, 600, COLS, 8, 300, 42L, 400, false);
+
+        assertEquals(4, outcome.chosen().k());
+        assertEquals(400, outcome.silhouetteRows());
+        assertEquals(7, outcome.candidates().size());
+    }
+
+    @Test
+    void reportedDaviesBouldinIsTheOneTheCutWasMadeOn() {
+        for (long seed = 1; seed <= 12; seed++) {
+            // Many overlapping groups, so the fits still move after the 10 screening iterations
+            double[] data = groups(new Random(seed), 2000, 12, 1.0, 1.5);
+
+            KSelection.Outcome outcome = KSelection.select(data, 2000, COLS, 10, 300, seed, 300, false);
+
+            double worstKept = Double.NEGATIVE_INFINITY;
+            double bestDropped = Double.POSITIVE_INFINITY;
+            for (KScore score : outcome.candidates()) {
+                if (score.isDropped()) {
+                    assertNull(score.getSilhouette());
+                    bestDropped = Math.min(bestDropped, score.getDaviesBouldin());
+                } else {
+                    assertNotNull(score.getSilhouette());
+                    worstKept = Math.max(worstKept, score.getDaviesBouldin());
+                }
+            }
+            assertTrue(worstKept <= bestDropped, "seed " + seed + ": kept " + worstKept + ", dropped " + bestDropped);
+        }
+    }
+
+    @Test
+    void distanceTableSizeIsComputedInLong() {
+        assertEquals(2_147_450_880L, KSelection.tableEntries(65_536));
+        assertEquals(4_999_950_000L, KSelection.tableEntries(100_000));
+        assertDoesNotThrow(() -> KSelection.checkSampleSize(65_536));
+        assertThrows(IllegalArgumentException.class, () -> KSelection.checkSampleSize(65_537));
+        assertThrows(IllegalArgumentException.class, () -> KSelection.checkSampleSize(100_000));
+    }
+
+    @Test
+    void tooFewRowsToCompare() {
+        assertNull(KSelection.select(new double[2 * COLS], 2, COLS, 10, 300, 42L, 2000, false));
+    }
+
+    private static double[] groups(Random random, int rows, int groups, double spread, double noise) {
+        double[][] centres = new double[groups][COLS];
+        for (double[] centre : centres) {
+            for (int j = 0; j < COLS; j++) {
+                centre[j] = random.nextDouble() * spread * groups;
+            }
+        }
+        double[] data = new double[rows * COLS];
+        for (int i = 0; i < rows; i++) {
+            double[] centre = centres[i % groups];
+            for (int j = 0; j < COLS; j++) {
+                data[i * COLS + j] = centre[j] + random.nextGaussian() * noise;
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,124 @@
+package com.carbontrade.mining;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KllSketchTest {
+
+    private static final int N = 1_000_000;
+    // The class documents under 1% at the default k
+    private static final double MAX_RANK_ERROR = 0.01;
+
+    @Test
+    void exactUpToKValues() {
+        double[] values = new Random(1).doubles(KllSketch.DEFAULT_K).toArray();
+        KllSketch sketch = new KllSketch();
+        for (double v : values) {
+            sketch.update(v);
+        }
+        Arrays.sort(values);
+
+        for (int p = 1; p < 100; p++) {
+            double q = p / 100.0;
+            int rank = (int) Math.ceil(q * values.length); // smallest value with rank >= q * count
+            assertEquals(values[rank - 1], sketch.quantile(q), "q=" + q);
+        }
+        assertEquals(values[0], sketch.quantile(0));
+        assertEquals(values[values.length - 1], sketch.quantile(1));
+    }
+
+    @Test
+    void rankErrorStaysUnderOnePercentInAnyOrder() {
+        for (int[] order : new int[][]{shuffled(new Random(1)), shuffled(new Random(2)), ascending(), descending()}) {
+            KllSketch sketch = new KllSketch();
+            for (int v : order) {
+                sketch.update(v);
+            }
+
+            assertEquals(N, sketch.count());
+            // 3k plus the rounding up of small levels
+            assertTrue(sketch.retained() <= 3.5 * KllSketch.DEFAULT_K, "retained " + sketch.retained());
+            assertRankError(sketch);
+        }
+    }
+
+    @Test
+    void mergedPartitionsKeepTheRankError() {
+        int[] values = shuffled(new Random(3));
+        KllSketch merged = new KllSketch();
+        int parts = 8;
+        for (int part = 0; part < parts; part++) {
+            KllSketch sketch = new KllSketch();
+            for (int i = part; i < N; i += parts) {
+                sketch.update(values[i]);
+            }
+            merged.merge(sketch);
+        }
+
+        assertEquals(N, merged.count());
+        assertEquals(0, merged.min());
+        assertEquals(N - 1, merged.max());
+        assertRankError(merged);
+    }
+
+    @Test
+    void sameInputsGiveTheSameAnswer() {
+        KllSketch a = new KllSketch();
+        KllSketch b = new KllSketch();
+        for (int v : shuffled(new Random(4))) {
+            a.update(v);
+            b.update(v);
+        }
+        for (int p = 1; p < 100; p++) {
+            assertEquals(a.quantile(p / 100.0), b.quantile(p / 100.0));
+        }
+    }
+
+    @Test
+    void ignoresNaNAndIsNaNWhenEmpty() {
+        KllSketch sketch = new KllSketch();
+        sketch.update(Double.NaN);
+
+        assertTrue(sketch.isEmpty());
+        assertTrue(Double.isNaN(sketch.quantile(0.5)));
+        assertThrows(IllegalArgumentException.class, () -> new KllSketch(4));
+    }
+
+    // Values are 0..N-1, so a value's rank is the value itself plus one
+    private static void assertRankError(KllSketch sketch) {
+        for (int p = 1; p < 100; p++) {
+            double q = p / 100.0;
+            double error = Math.abs(sketch.quantile(q) + 1 - q * N) / N;
+            assertTrue(error < MAX_RANK_ERROR, "q=" + q + " rank error " + error);
+        }
+    }
+
+    private static int[] ascending() {
+        int[] values = new int[N];
+        Arrays.setAll(values, i -> i);
+        return values;
+    }
+
+    private static int[] descending() {
+        int[] values = new int[N];
+        Arrays.setAll(values, i -> N - 1 - i);
+        return values;
+    }
+
+    private static int[] shuffled(Random random) {
+        int[] values = ascending();
+        for (int i = N - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+        return values;
+    }
+}
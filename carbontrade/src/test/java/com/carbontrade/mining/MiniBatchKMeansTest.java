@@ -0,0 +1,97 @@
+package com.carbontrade.mining;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MiniBatchKMeansTest {
+
+    private static final int COLS = 3;
+    private static final int GROUPS = 8;
+    private static final int ROWS_PER_GROUP = 5_000;
+
+    @Test
+    void findsEveryGroupOfAStreamOrderedByGroup() {
+        double[][] centres = centres(new Random(3), 0);
+        MiniBatchKMeans kmeans = new MiniBatchKMeans(GROUPS, COLS, 256, 1e-3, 42L);
+
+        // Grouped like the rollup cursor: every row of one group before the next
+        stream(centres, 11, kmeans::sample);
+        assertTrue(kmeans.seed());
+        for (int epoch = 0; epoch < 10 && !kmeans.converged(); epoch++) {
+            stream(centres, 12 + epoch, kmeans::add);
+            kmeans.endEpoch();
+        }
+
+        assertTrue(kmeans.converged());
+        assertEquals(GROUPS, kmeans.clusters());
+        for (double[] centre : centres) {
+            assertTrue(kmeans.distance(centre) < 0.25, "no centroid near " + centre[0]);
+        }
+    }
+
+    @Test
+    void laterPassesStillMoveTheCentroids() {
+        double[][] before = centres(new Random(5), 0);
+        double[][] after = centres(new Random(5), 3);
+        MiniBatchKMeans kmeans = new MiniBatchKMeans(GROUPS, COLS, 256, 1e-3, 42L);
+        stream(before, 1, kmeans::sample);
+        kmeans.seed();
+        for (int epoch = 0; epoch < 5; epoch++) {
+            stream(before, 2 + epoch, kmeans::add);
+            kmeans.endEpoch();
+        }
+
+        // A learning rate that had decayed with every pass would leave the centroids where they were
+        for (int epoch = 0; epoch < 3; epoch++) {
+            stream(after, 10 + epoch, kmeans::add);
+            kmeans.endEpoch();
+        }
+
+        for (double[] centre : after) {
+            assertTrue(kmeans.distance(centre) < 0.5, "centroids did not follow the data to " + centre[0]);
+        }
+    }
+
+    @Test
+    void needsASampleBeforeTraining() {
+        MiniBatchKMeans kmeans = new MiniBatchKMeans(2, COLS, 4, 1e-3, 1L);
+
+        assertThrows(IllegalStateException.class, () -> kmeans.add(new double[COLS]));
+        assertFalse(kmeans.seed());
+        assertFalse(kmeans.isInitialized());
+
+        kmeans.sample(new double[]{1, 1, 1});
+        assertTrue(kmeans.seed());
+        assertEquals(1, kmeans.clusters());
+        assertThrows(IllegalStateException.class, () -> kmeans.sample(new double[COLS]));
+    }
+
+    // Centres on a line, 10 apart, plus an offset
+    private static double[][] centres(Random random, double offset) {
+        double[][] centres = new double[GROUPS][];
+        for (int g = 0; g < GROUPS; g++) {
+            centres[g] = new double[]{offset + g * 10, random.nextDouble(), random.nextDouble()};
+        }
+        return centres;
+    }
+
+    private static void stream(double[][] centres, long seed, Consumer<double[]> sink) {
+        Random random = new Random(seed);
+        double[] row = new double[COLS];
+        for (double[] centre : centres) {
+            for (int i = 0; i < ROWS_PER_GROUP; i++) {
+                for (int j = 0; j < COLS; j++) {
+                    row[j] = centre[j] + random.nextGaussian() * 0.5;
+                }
+                sink.accept(row);
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.carbontrade.mining;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MiningExecutorTest {
+
+    @Test
+    void equalKeysShareOneRun() throws Exception {
+        MiningExecutor executor = new MiningExecutor(1, 4, 0, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        try {
+            CompletableFuture<Integer> first = executor.submit("k", () -> {
+                awaitQuietly(release);
+                return runs.incrementAndGet();
+            });
+            CompletableFuture<Integer> second = executor.submit("k", runs::incrementAndGet);
+            release.countDown();
+
+            assertEquals(1, first.get(5, TimeUnit.SECONDS));
+            assertEquals(1, second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, runs.get());
+            assertEquals(1, executor.stats().getCoalesced());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void lastCallerLeavingInterruptsTheRunningJob() throws Exception {
+        MiningExecutor executor = new MiningExecutor(1, 4, 0, 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try {
+            CompletableFuture<String> first = executor.submit("k", () -> {
+                started.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return "late";
+            });
+            CompletableFuture<String> second = executor.submit("k", () -> "unused");
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            first.cancel(true);
+            assertFalse(interrupted.await(100, TimeUnit.MILLISECONDS), "one caller is still waiting");
+            assertEquals(0, executor.stats().getCancelled());
+
+            second.cancel(true);
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+            awaitCount(1, () -> executor.stats().getCancelled());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void cancelledQueuedJobNeverRuns() throws Exception {
+        MiningExecutor executor = new MiningExecutor(1, 4, 0, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean ran = new AtomicBoolean();
+        try {
+            CompletableFuture<String> blocker = executor.submit(null, () -> {
+                awaitQuietly(release);
+                return "done";
+            });
+            CompletableFuture<String> queued = executor.submit("q", () -> {
+                ran.set(true);
+                return "ran";
+            });
+            assertEquals(1, executor.stats().getQueued());
+
+            queued.cancel(true);
+            assertEquals(0, executor.stats().getQueued());
+            assertEquals(1, executor.stats().getCancelled());
+
+            release.countDown();
+            assertEquals("done", blocker.get(5, TimeUnit.SECONDS));
+            // The same key starts afresh rather than joining the cancelled job
+            assertEquals("again", executor.submit("q", () -> "again").get(5, TimeUnit.SECONDS));
+            assertFalse(ran.get());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void deadlineFailsTheJobWithATimeout() throws Exception {
+        MiningExecutor executor = new MiningExecutor(1, 4, 1, 1, 1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try {
+            CompletableFuture<String> job = executor.submit("k", () -> {
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return "late";
+            });
+
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> job.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(TimeoutException.class, failure.getCause());
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+            awaitCount(1, () -> executor.stats().getTimedOut());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void rejectionAlsoFailsCallersThatJoinedMeanwhile() throws Exception {
+        AtomicReference<MiningExecutor> executor = new AtomicReference<>();
+        AtomicReference<CompletableFuture<String>> joined = new AtomicReference<>();
+        // Full from the start: one worker held, one job queued; a second /analyze joins just before the rejection
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1)) {
+            @Override
+            public void execute(Runnable command) {
+                if (getActiveCount() + getQueue().size() == 2 && joined.get() == null) {
+                    joined.set(executor.get().submit("k", () -> "unused"));
+                }
+                super.execute(command);
+            }
+        };
+        executor.set(new MiningExecutor(pool, MiningExecutor.newPool("test-batch-", 1, 1), 60));
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<String> held = executor.get().submit(null, () -> {
+                awaitQuietly(release);
+                return "held";
+            });
+            CompletableFuture<String> queued = executor.get().submit(null, () -> "queued");
+            while (pool.getActiveCount() == 0) {
+                Thread.onSpinWait();
+            }
+
+            assertThrows(RejectedExecutionException.class, () -> executor.get().submit("k", () -> "rejected"));
+
+            ExecutionException failure = assertThrows(ExecutionException.class,
+                    () -> joined.get().get(5, TimeUnit.SECONDS));
+            assertInstanceOf(RejectedExecutionException.class, failure.getCause());
+            assertEquals(1, executor.get().stats().getCoalesced());
+            assertEquals(1, executor.get().stats().getRejected());
+
+            // Nothing is left behind under the key
+            release.countDown();
+            held.get(5, TimeUnit.SECONDS);
+            queued.get(5, TimeUnit.SECONDS);
+            assertEquals("fresh", executor.get().submit("k", () -> "fresh").get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.get().shutdown();
+        }
+    }
+
+    @Test
+    void batchJobsDoNotHoldTheAnalysisWorkers() throws Exception {
+        MiningExecutor executor = new MiningExecutor(1, 1, 0, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Void> batch = executor.submitBatch(() -> {
+                awaitQuietly(release);
+                return null;
+            });
+
+            // The only analysis worker is still free while the batch job runs
+            assertEquals("done", executor.submit(null, () -> "done").get(5, TimeUnit.SECONDS));
+
+            release.countDown();
+            batch.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void batchJobsQueueSeparately() throws Exception {
+        MiningExecutor executor = new MiningExecutor(1, 1, 0, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.submitBatch(() -> {
+                awaitQuietly(release);
+                return null;
+            });
+            executor.submitBatch(() -> null);
+
+            assertThrows(RejectedExecutionException.class, () -> executor.submitBatch(() -> null));
+            assertEquals(1, executor.stats().getBatchQueued());
+            assertEquals("still served", executor.submit(null, () -> "still served").get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    // Counters are bumped just after the futures they describe complete
+    private static void awaitCount(long expected, LongSupplier counter) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (counter.getAsLong() != expected && System.nanoTime() < until) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, counter.getAsLong());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.carbontrade.mining;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RollingDailyStatsTest {
+
+    private static final double EPS = 1e-9;
+
+    @Test
+    void windowSumsMatchABruteForceWindow() {
+        Random random = new Random(1);
+        // Several resyncs, with totals varied enough that running subtraction would drift
+        double[] totals = new double[200];
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = random.nextDouble() * Math.pow(10, random.nextInt(6));
+        }
+
+        RollingDailyStats stats = new RollingDailyStats();
+        for (int day = 0; day < totals.length; day++) {
+            stats.append(totals[day]);
+
+            double shortSum = window(totals, day, RollingDailyStats.SHORT_WINDOW);
+            double longSum = window(totals, day, RollingDailyStats.LONG_WINDOW);
+            assertEquals(shortSum, stats.shortSum(), EPS * Math.max(1, Math.abs(shortSum)), "day " + day);
+            assertEquals(longSum, stats.longSum(), EPS * Math.max(1, Math.abs(longSum)), "day " + day);
+        }
+        assertEquals(totals.length, stats.days());
+    }
+
+    @Test
+    void resyncDropsTheRoundingOfASpikeThatLeftTheWindow() {
+        RollingDailyStats stats = new RollingDailyStats();
+        // Small days added to 1e17 are lost to rounding, and stay lost after it is subtracted
+        stats.append(1e17);
+        for (int day = 1; day < 2 * RollingDailyStats.LONG_WINDOW; day++) {
+            stats.append(0.5);
+        }
+
+        assertEquals(0.5 * RollingDailyStats.SHORT_WINDOW, stats.shortSum(), EPS);
+        assertEquals(0.5 * RollingDailyStats.LONG_WINDOW, stats.longSum(), EPS);
+    }
+
+    @Test
+    void partlyFilledWindowsAverageOverTheDaysSeen() {
+        RollingDailyStats stats = new RollingDailyStats();
+        assertEquals(0.0, stats.shortMean());
+        assertEquals(0.0, stats.longMean());
+
+        stats.append(3);
+        stats.append(5);
+        stats.append(10);
+
+        assertEquals(18, stats.shortSum(), EPS);
+        assertEquals(6, stats.shortMean(), EPS);
+        assertEquals(6, stats.longMean(), EPS);
+
+        for (int day = 3; day < 10; day++) {
+            stats.append(1);
+        }
+        // The 7-day window now holds only the 1s, the 30-day one all 10 days
+        assertEquals(7, stats.shortSum(), EPS);
+        assertEquals(1, stats.shortMean(), EPS);
+        assertEquals(25.0 / 10, stats.longMean(), EPS);
+    }
+
+    @Test
+    void ewmaStartsAtTheFirstDayAndFollowsTheRecurrence() {
+        assertEquals(0.25, RollingDailyStats.EWMA_ALPHA);
+
+        RollingDailyStats stats = new RollingDailyStats();
+        stats.append(8);
+        assertEquals(8, stats.ewma(), EPS);
+        stats.append(0);
+        assertEquals(6, stats.ewma(), EPS);
+        stats.append(10);
+        assertEquals(7, stats.ewma(), EPS);
+    }
+
+    @Test
+    void writesTheColumnsInOrder() {
+        RollingDailyStats stats = new RollingDailyStats();
+        stats.append(2);
+        stats.append(4);
+        double[] row = new double[1 + RollingDailyStats.COLUMNS.length];
+
+        stats.write(row, 1);
+
+        assertEquals(stats.shortSum(), row[1]);
+        assertEquals(stats.shortMean(), row[2]);
+        assertEquals(stats.longSum(), row[3]);
+        assertEquals(stats.longMean(), row[4]);
+        assertEquals(stats.ewma(), row[5]);
+    }
+
+    // Sum of the last `size` totals up to and including `day`
+    private static double window(double[] totals, int day, int size) {
+        double sum = 0;
+        for (int i = Math.max(0, day - size + 1); i <= day; i++) {
+            sum += totals[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,78 @@
+package com.carbontrade.mining;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopKTest {
+
+    @Test
+    void keepsTheHighestScoresHighestFirst() {
+        Random random = new Random(1);
+        List<double[]> all = new ArrayList<>();
+        // Well past the initial 16 slots, so the heap grows
+        TopK<double[]> top = new TopK<>(50);
+        for (int i = 0; i < 10_000; i++) {
+            double[] item = {random.nextGaussian(), i};
+            all.add(item);
+            top.offer(item[0], item);
+        }
+        all.sort(Comparator.comparingDouble((double[] item) -> item[0]).reversed());
+
+        assertEquals(50, top.size());
+        assertEquals(all.subList(0, 50), top.toSortedList());
+    }
+
+    @Test
+    void holdsEverythingBelowCapacity() {
+        TopK<String> top = new TopK<>(5);
+        top.offer(2, "b");
+        top.offer(3, "c");
+        top.offer(1, "a");
+
+        assertEquals(3, top.size());
+        assertEquals(List.of("c", "b", "a"), top.toSortedList());
+    }
+
+    @Test
+    void acceptsOnlyScoresAboveTheLowestKept() {
+        TopK<String> top = new TopK<>(2);
+        assertTrue(top.accepts(Double.NEGATIVE_INFINITY));
+        top.offer(5, "x");
+        top.offer(7, "y");
+
+        assertFalse(top.accepts(4));
+        assertFalse(top.accepts(5)); // ties keep the earlier item
+        assertTrue(top.accepts(6));
+
+        top.offer(5, "z");
+        top.offer(6, "w");
+        assertEquals(List.of("y", "w"), top.toSortedList());
+    }
+
+    @Test
+    void sortedListLeavesTheHeapUsable() {
+        TopK<Integer> top = new TopK<>(3);
+        for (int i = 0; i < 5; i++) {
+            top.offer(i, i);
+        }
+        assertEquals(List.of(4, 3, 2), top.toSortedList());
+
+        top.offer(10, 10);
+        assertEquals(List.of(10, 4, 3), top.toSortedList());
+        assertEquals(3, top.size());
+    }
+
+    @Test
+    void capacityMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new TopK<>(0));
+    }
+}
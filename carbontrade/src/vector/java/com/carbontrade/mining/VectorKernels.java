@@ -0,0 +1,47 @@
+package com.carbontrade.mining;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD bodies of {@link DistanceKernels}. This source root is only compiled
+ * with {@code -Pvector}, and the class is only loaded, by name, when the
+ * jdk.incubator.vector module is in the boot layer and {@code mining.vector}
+ * is set.
+ */
+final class VectorKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorKernels() {}
+
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    // Looked up reflectively by DistanceKernels, which does not link against this class
+    static DistanceKernels.Kernel kernel() {
+        return lanes() > 1 ? VectorKernels::squaredDistance : null;
+    }
+
+    static double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        if (length < SPECIES.length()) {
+            return DistanceKernels.scalarSquaredDistance(a, aOffset, b, bOffset, length);
+        }
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(length);
+        int j = 0;
+        for (; j < bound; j += SPECIES.length()) {
+            DoubleVector d = DoubleVector.fromArray(SPECIES, a, aOffset + j)
+                    .sub(DoubleVector.fromArray(SPECIES, b, bOffset + j));
+            sum = d.fma(d, sum);
+        }
+        double total = sum.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            double d = a[aOffset + j] - b[bOffset + j];
+            total += d * d;
+        }
+        return total;
+    }
+}
@@ -171,7 +171,7 @@ class ApiWorker(QThread):
                         data = {'userId': str(self.payload.get('userId', 1))}
                         response = requests.post(url, files=files, data=data, timeout=10)
                         
-                        if response.status_code == 200:
+                        if response.status_code in (200, 202):
                             self.result_signal.emit(True, "CSV Uploaded", response.json())
                         else:
                             try: